@@ -0,0 +1,95 @@
+package hr.fer.zemris.java.custom.scripting.demo;
+
+import hr.fer.zemris.java.custom.scripting.lexer.Lexer;
+import hr.fer.zemris.java.custom.scripting.lexer.TokenType;
+
+/**
+ * {@code LexerBenchmark} is demonstrative class that measures how fast the
+ * {@link Lexer} tokenizes large generated templates.
+ * <p>
+ * Command-line arguments are sizes of the templates in kilobytes. If none are
+ * given, templates of 20 and 200 kilobytes are used.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see Lexer
+ */
+public class LexerBenchmark {
+
+    /** Part of the template that is repeated until the size is reached. */
+    private static final String SAMPLE = "This is sample text.\r\n"
+            + "{$ FOR i 1 10 1 $}\r\n"
+            + "This is {$= i $}-th time this message is generated.\r\n"
+            + "{$END$}\r\n"
+            + "{$FOR i 0 10 2 $}\r\n"
+            + "sin({$=i$}^2) = {$= i i * @sin \"0.000\" @decfmt $}\r\n"
+            + "{$END$}\r\n";
+
+    /** Number of measured runs per template. */
+    private static final int RUNS = 10;
+
+    /**
+     * Starting point of a program.
+     *
+     * @param args
+     *            Command-line argument
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            args = new String[] { "20", "200" };
+        }
+
+        for (String arg : args) {
+            String template = generate(Integer.parseInt(arg) * 1024);
+
+            int tokens = 0;
+            for (int i = 0; i < 3; i++) {
+                tokens = lex(template);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                lex(template);
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / RUNS;
+
+            System.out.printf("%s KB: %d tokens in %.2f ms (%.0f tokens/ms)%n", arg, tokens, millis, tokens / millis);
+        }
+    }
+
+    /**
+     * Generates a template with at least specified number of characters.
+     *
+     * @param size
+     *            minimal number of characters
+     * @return generated template
+     */
+    private static String generate(int size) {
+        StringBuilder sb = new StringBuilder(size + SAMPLE.length());
+
+        while (sb.length() < size) {
+            sb.append(SAMPLE);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Tokenizes the template and returns the number of tokens.
+     *
+     * @param template
+     *            template to be tokenized
+     * @return number of tokens
+     */
+    private static int lex(String template) {
+        Lexer lexer = new Lexer(template);
+        int tokens = 0;
+
+        while (lexer.nextToken().getType() != TokenType.EOF) {
+            tokens++;
+        }
+
+        return tokens;
+    }
+
+}
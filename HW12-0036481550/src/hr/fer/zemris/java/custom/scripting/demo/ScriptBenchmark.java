@@ -0,0 +1,128 @@
+package hr.fer.zemris.java.custom.scripting.demo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * {@code ScriptBenchmark} is demonstrative class that measures how fast the
+ * scripts are executed by every available execution tier.
+ * <p>
+ * Command-line arguments are paths to the scripts. Argument {@code nested}
+ * stands for a generated script with three nested loops. If no arguments are
+ * given, the scripts from {@code webroot/scripts} and the nested loops are
+ * used.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see SmartScriptEngine
+ * @see ScriptCompiler
+ */
+public class ScriptBenchmark {
+
+    /** Script with three nested loops. */
+    private static final String NESTED = "{$ FOR i 1 20 1 $}{$ FOR j 1 20 1 $}{$ FOR k 1 20 1 $}"
+            + "{$= i j k * * $}{$END$}{$END$}{$END$}";
+
+    /** Duration of the warm up and of the measurement in milliseconds. */
+    private static final long DURATION = 2000;
+
+    /**
+     * Starting point of a program.
+     *
+     * @param args
+     *            Command-line argument
+     * @throws IOException
+     *             if a script couldn't be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            args = new String[] { "webroot/scripts/osnovni.smscr", "webroot/scripts/fibonacci.smscr",
+                    "webroot/scripts/zbrajanje.smscr", "nested" };
+        }
+
+        for (String arg : args) {
+            String documentBody = arg.equals("nested") ? NESTED
+                    : new String(Files.readAllBytes(Paths.get(arg)), StandardCharsets.UTF_8);
+            DocumentNode document = new SmartScriptParser(documentBody).getDocumentNode();
+
+            measure(arg, "interpreter", context -> new SmartScriptEngine(document, context).execute());
+            measure(arg, "closures", SmartScriptEngine.compile(document));
+
+            CompiledScript compiled = ScriptCompiler.compile(document);
+            if (compiled != null) {
+                measure(arg, "compiled", compiled);
+            }
+        }
+    }
+
+    /**
+     * Executes the script repeatedly and prints the average time of one
+     * execution.
+     *
+     * @param name
+     *            name of the script
+     * @param tier
+     *            name of the execution tier
+     * @param script
+     *            script to be executed
+     */
+    private static void measure(String name, String tier, CompiledScript script) {
+        run(script, DURATION);
+        long start = System.nanoTime();
+        long executions = run(script, DURATION);
+        double micros = (System.nanoTime() - start) / 1e3 / executions;
+
+        System.out.printf("%s [%s]: %.2f us/op%n", name, tier, micros);
+    }
+
+    /**
+     * Executes the script repeatedly for the specified time.
+     *
+     * @param script
+     *            script to be executed
+     * @param millis
+     *            duration in milliseconds
+     * @return number of executions
+     */
+    private static long run(CompiledScript script, long millis) {
+        long end = System.nanoTime() + millis * 1_000_000;
+        long executions = 0;
+
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        do {
+            for (int i = 0; i < 100; i++) {
+                Map<String, String> parameters = new HashMap<>();
+                parameters.put("a", "4");
+                parameters.put("b", "2");
+
+                script.execute(new RequestContext(sink, parameters, new HashMap<>(), new ArrayList<>()));
+            }
+            executions += 100;
+        } while (System.nanoTime() < end);
+
+        return executions;
+    }
+
+}
@@ -14,6 +14,11 @@ public class ElementVariable extends Element {
      */
     private String name;
 
+    /**
+     * Slot of this variable in the frame of an executing script
+     */
+    private int slot = -1;
+
     /**
      * Construct {@code ElementVariable} object.
      * 
@@ -35,4 +40,24 @@ public class ElementVariable extends Element {
         return name;
     }
 
+    /**
+     * Returns the slot of this variable. Variables with the same name in one
+     * document share the same slot.
+     * 
+     * @return slot of this variable or -1 if it isn't resolved
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Sets the slot of this variable.
+     * 
+     * @param slot
+     *            slot of this variable
+     */
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
 }
@@ -0,0 +1,263 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.exec.functions.IFunction;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * {@code ClosureCompiler} translates a parsed {@code SmartScript} script into a
+ * tree of closures. Every decision which the interpreter makes while visiting
+ * the nodes, like the type of an element, the operator to apply or the
+ * function to call, is made once while compiling.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see SmartScriptEngine#compile(hr.fer.zemris.java.custom.scripting.nodes.DocumentNode)
+ */
+final class ClosureCompiler {
+
+    /**
+     * Disables the instantiation of this class.
+     */
+    private ClosureCompiler() {
+    }
+
+    /**
+     * Compiles the children of the specified node into a single step.
+     *
+     * @param parent
+     *            node whose children are compiled
+     * @return step executing the children
+     */
+    static Step sequence(Node parent) {
+        List<Step> steps = new ArrayList<>();
+
+        for (int i = 0, n = parent.numberOfChildren(); i < n; i++) {
+            Step step = step(parent.getChild(i));
+
+            if (step != null) {
+                steps.add(step);
+            }
+        }
+
+        if (steps.size() == 1) {
+            return steps.get(0);
+        }
+
+        Step[] array = steps.toArray(new Step[steps.size()]);
+        return frame -> {
+            for (Step step : array) {
+                step.execute(frame);
+            }
+        };
+    }
+
+    /**
+     * Compiles the specified node.
+     *
+     * @param node
+     *            node to be compiled
+     * @return step executing the node or {@code null} if the node does
+     *         nothing
+     */
+    private static Step step(Node node) {
+        if (node instanceof TextNode) {
+            String text = node.asText();
+            return frame -> ScriptRuntime.text(frame.requestContext, text);
+        } else if (node instanceof EchoNode) {
+            return echo((EchoNode) node);
+        } else if (node instanceof ForLoopNode) {
+            return loop((ForLoopNode) node);
+        } else if (node != null && node.numberOfChildren() > 0) {
+            return sequence(node);
+        }
+
+        return null;
+    }
+
+    /**
+     * Compiles a loop.
+     *
+     * @param node
+     *            loop node
+     * @return step executing the loop
+     */
+    private static Step loop(ForLoopNode node) {
+        int slot = node.getVariable().getSlot();
+        Object start = node.getStartExpression().getValue();
+        Object end = ValueWrapper.parseConstant(node.getEndExpression().getValue());
+
+        if (node.getStepExpression() == null) {
+            return frame -> ScriptRuntime.missingStep();
+        }
+        Object increment = ValueWrapper.parseConstant(node.getStepExpression().getValue());
+        Step body = sequence(node);
+
+        return frame -> {
+            ValueWrapper[] variables = frame.variables;
+            variables[slot] = new ValueWrapper(start);
+
+            while (variables[slot].numCompare(end) <= 0) {
+                body.execute(frame);
+
+                variables[slot].increment(increment);
+            }
+        };
+    }
+
+    /**
+     * Compiles an echo tag.
+     *
+     * @param node
+     *            echo node
+     * @return step executing the echo tag
+     */
+    private static Step echo(EchoNode node) {
+        List<Operation> list = new ArrayList<>();
+        Element[] elements = node.getElements();
+        Object[] values = ScriptRuntime.operands(elements);
+
+        for (int i = 0; i < elements.length; i++) {
+            Operation operation = operation(elements[i], values[i]);
+
+            if (operation != null) {
+                list.add(operation);
+            }
+        }
+
+        Operation[] operations = list.toArray(new Operation[list.size()]);
+        return frame -> {
+            Stack<Object> stack = new Stack<>();
+
+            for (Operation operation : operations) {
+                operation.apply(stack, frame);
+            }
+
+            ScriptRuntime.echo(frame.requestContext, stack);
+        };
+    }
+
+    /**
+     * Compiles an element of an echo tag.
+     *
+     * @param element
+     *            element to be compiled
+     * @param value
+     *            value pushed by the element if it is a constant
+     * @return operation performing the element or {@code null} if the element
+     *         does nothing
+     * @see ScriptRuntime#operands(Element[])
+     */
+    private static Operation operation(Element element, Object value) {
+        if (element == null) {
+            return null;
+        } else if (element.isConstant()) {
+            return (stack, frame) -> stack.push(value);
+        } else if (element.isVariable()) {
+            int slot = ((ElementVariable) element).getSlot();
+            return (stack, frame) -> {
+                ValueWrapper variable = frame.variables[slot];
+                stack.push(ScriptRuntime.variable(variable == null ? null : variable.getValue()));
+            };
+        } else if (element.isOperator()) {
+            switch ((String) element.getValue()) {
+            case "+":
+                return (stack, frame) -> stack.push(ScriptRuntime.add(stack.pop(), stack.pop()));
+            case "-":
+                return (stack, frame) -> stack.push(ScriptRuntime.subtract(stack.pop(), stack.pop()));
+            case "*":
+                return (stack, frame) -> stack.push(ScriptRuntime.multiply(stack.pop(), stack.pop()));
+            case "/":
+                return (stack, frame) -> stack.push(ScriptRuntime.divide(stack.pop(), stack.pop()));
+            default:
+                return (stack, frame) -> {
+                    stack.pop();
+                    stack.pop();
+                };
+            }
+        } else if (element.isFunction()) {
+            IFunction function = SmartScriptEngine.getFunction((String) element.getValue());
+            return (stack, frame) -> function.doOperation(stack, frame.requestContext);
+        }
+
+        return null;
+    }
+
+    /**
+     * {@code Frame} is the state of one execution of a compiled script.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    static class Frame {
+
+        /** Current request context. */
+        final RequestContext requestContext;
+        /** Values of the variables indexed by their slots. */
+        final ValueWrapper[] variables;
+
+        /**
+         * Constructs a new {@code Frame} for specified request context.
+         *
+         * @param requestContext
+         *            HTTP request context
+         * @param variableCount
+         *            number of variable slots
+         */
+        Frame(RequestContext requestContext, int variableCount) {
+            this.requestContext = requestContext;
+            this.variables = new ValueWrapper[variableCount];
+        }
+
+    }
+
+    /**
+     * {@code Step} is a compiled node.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    @FunctionalInterface
+    interface Step {
+
+        /**
+         * Executes the node.
+         *
+         * @param frame
+         *            state of the execution
+         */
+        void execute(Frame frame);
+
+    }
+
+    /**
+     * {@code Operation} is a compiled element of an echo tag.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    @FunctionalInterface
+    interface Operation {
+
+        /**
+         * Performs the element on the stack of an echo tag.
+         *
+         * @param stack
+         *            stack of an echo tag
+         * @param frame
+         *            state of the execution
+         */
+        void apply(Stack<Object> stack, Frame frame);
+
+    }
+
+}
@@ -0,0 +1,25 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * {@code CompiledScript} is a {@code SmartScript} script prepared for
+ * execution. The same instance can be executed any number of times and by
+ * multiple threads at once, each time with its own request context.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface CompiledScript {
+
+    /**
+     * Executes the script and writes its output to the specified request
+     * context.
+     *
+     * @param requestContext
+     *            HTTP request context
+     */
+    public void execute(RequestContext requestContext);
+
+}
@@ -1,5 +1,7 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,6 +11,9 @@ import java.util.Map;
  * <p>
  * That way you can store multiple values with single key and not overwrite
  * them. Values in the same slot are all stored in the same stack.
+ * <p>
+ * Every slot keeps a reference to the top of its stack, so all operations on
+ * a stack take constant time regardless of how many values it holds.
  * 
  * @author Karlo Vrbić
  * @version 1.0
@@ -29,7 +34,7 @@ public class ObjectMultistack {
 	 * Map of stack entries which contain values stored in this
 	 * {@code ObjectMultistack} object
 	 */
-	private Map<String, MultistackEntry<ValueWrapper>> map;
+	private Map<String, Slot<ValueWrapper>> map;
 
 	/**
 	 * Constructs an empty {@code ObjectMultistack} with the specified initial
@@ -97,17 +102,15 @@ public class ObjectMultistack {
 			throw new IllegalArgumentException("Value wrapper cannot be null reference!");
 		}
 
-		if (isEmpty(name.trim())) {
-			map.put(name.trim(), new MultistackEntry<ValueWrapper>(valueWrapper, null));
-		} else {
-			MultistackEntry<ValueWrapper> entry = map.get(name.trim());
-
-			while (entry.next != null) {
-				entry = entry.next;
-			}
+		String key = key(name);
+		Slot<ValueWrapper> slot = map.get(key);
 
-			entry.next = new MultistackEntry<ValueWrapper>(valueWrapper, null);
+		if (slot == null) {
+			slot = new Slot<>();
+			map.put(key, slot);
 		}
+
+		slot.top = new MultistackEntry<ValueWrapper>(valueWrapper, slot.top);
 	}
 
 	/**
@@ -122,7 +125,7 @@ public class ObjectMultistack {
 	 *             if {@code name} argument is null
 	 */
 	public ValueWrapper pop(String name) {
-		return popOrPeek(name.trim(), true);
+		return popOrPeek(name, true);
 	}
 
 	/**
@@ -138,7 +141,7 @@ public class ObjectMultistack {
 	 *             if {@code name} argument is null
 	 */
 	public ValueWrapper peek(String name) {
-		return popOrPeek(name.trim(), false);
+		return popOrPeek(name, false);
 	}
 
 	/**
@@ -157,32 +160,24 @@ public class ObjectMultistack {
 	 *         argument
 	 * @throws IllegalArgumentException
 	 *             if {@code name} argument is null
+	 * @throws NullPointerException
+	 *             if the stack is empty
 	 */
 	private ValueWrapper popOrPeek(String name, boolean delete) {
-		if (name == null) {
-			throw new IllegalArgumentException("Name cannot be null reference!");
-		}
-
-		MultistackEntry<ValueWrapper> previous = null;
-		MultistackEntry<ValueWrapper> entry = map.get(name);
+		Slot<ValueWrapper> slot = map.get(key(name));
 
-		while (entry.next != null) {
-			previous = entry;
-			entry = entry.next;
+		if (slot == null || slot.top == null) {
+			throw new NullPointerException("Stack " + name + " is empty!");
 		}
 
-		ValueWrapper value = entry.value;
+		MultistackEntry<ValueWrapper> entry = slot.top;
 
 		// for pop delete and for peek
 		if (delete) {
-			if (previous == null) {
-				map.remove(name);
-			} else {
-				previous.next = null;
-			}
+			slot.top = entry.next;
 		}
 
-		return value;
+		return entry.value;
 	}
 
 	/**
@@ -194,7 +189,32 @@ public class ObjectMultistack {
 	 *         {@code false} otherwise.
 	 */
 	public boolean isEmpty(String name) {
-		return map.get(name) == null;
+		Slot<ValueWrapper> slot = map.get(key(name));
+		return slot == null || slot.top == null;
+	}
+
+	/**
+	 * Returns the key of the stack specified by {@code name} argument. Name is
+	 * trimmed only if it starts or ends with a whitespace, so the usual names
+	 * are used as they are.
+	 *
+	 * @param name
+	 *            name of the stack
+	 * @return key of the stack
+	 * @throws IllegalArgumentException
+	 *             if {@code name} argument is null
+	 */
+	private static String key(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("Name cannot be null reference!");
+		}
+
+		int last = name.length() - 1;
+		if (last >= 0 && (name.charAt(0) <= ' ' || name.charAt(last) <= ' ')) {
+			return name.trim();
+		}
+
+		return name;
 	}
 	
 	@Override
@@ -202,21 +222,45 @@ public class ObjectMultistack {
 		StringBuilder sb = new StringBuilder();
 		int i = 0;
 		
-		for(MultistackEntry<ValueWrapper> e : map.values()) {
+		for(Slot<ValueWrapper> slot : map.values()) {
+			if (slot.top == null) {
+				continue;
+			}
+
+			// values are listed from the bottom to the top of the stack
+			Deque<MultistackEntry<ValueWrapper>> entries = new ArrayDeque<>();
+			for (MultistackEntry<ValueWrapper> e = slot.top; e != null; e = e.next) {
+				entries.push(e);
+			}
+
 			sb.append("Slot " + i++ + ": ");
-			while (e.next != null) {
-				sb.append(e);
+			while (entries.size() > 1) {
+				sb.append(entries.pop());
 				sb.append(", ");
-				e = e.next;
 			}
 			
-			sb.append(e);
+			sb.append(entries.pop());
 			sb.append("%n");
 		}
 		
 		return sb.toString();
 	}
 
+	/**
+	 * Class used as slot of the map which holds the top of a stack.
+	 * 
+	 * @author Karlo Vrbić
+	 * @version 1.0
+	 * @param <T>
+	 *            type of value stored in the stack
+	 */
+	private static class Slot<T> {
+		/**
+		 * Entry at the top of the stack
+		 */
+		private MultistackEntry<T> top;
+	}
+
 	/**
 	 * Class used as node for stack.
 	 * 
@@ -227,7 +271,7 @@ public class ObjectMultistack {
 	 */
 	private static class MultistackEntry<T> {
 		/**
-		 * Reference to the next entry in stack
+		 * Reference to the entry below this one in stack
 		 */
 		private MultistackEntry<T> next;
 
@@ -243,7 +287,7 @@ public class ObjectMultistack {
 		 * @param value
 		 *            value stored in this entry
 		 * @param next
-		 *            reference to the next entry in stack
+		 *            reference to the entry below this one in stack
 		 */
 		private MultistackEntry(T value, MultistackEntry<T> next) {
 			this.next = next;
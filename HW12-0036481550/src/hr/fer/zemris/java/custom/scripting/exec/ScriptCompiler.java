@@ -0,0 +1,544 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+/**
+ * {@code ScriptCompiler} translates a parsed {@code SmartScript} script into a
+ * Java class implementing {@link CompiledScript}. The class is compiled in
+ * memory with the system Java compiler and loaded by its own class loader, so
+ * it can be unloaded once the script is no longer used.
+ * <p>
+ * Loops of the script become Java loops, operators become direct calls of
+ * {@link ScriptRuntime} and functions are called without any lookup.
+ * Variables are kept in an array local to every execution, so one compiled
+ * script can be executed by many threads at once.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+public class ScriptCompiler {
+
+    /** Package of the generated classes. */
+    private static final String PACKAGE = ScriptCompiler.class.getPackage().getName();
+    /** Approximate number of characters of source code in a generated method. */
+    private static final int METHOD_SIZE = 4000;
+    /** Counter used for naming the generated classes. */
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * Disables the instantiation of this class.
+     */
+    private ScriptCompiler() {
+    }
+
+    /**
+     * Compiles the specified document with the system Java compiler.
+     *
+     * @param document
+     *            parsed script
+     * @return compiled script or {@code null} if the system Java compiler
+     *         isn't available or the script couldn't be compiled
+     */
+    public static CompiledScript compile(DocumentNode document) {
+        return compile(document, ToolProvider.getSystemJavaCompiler());
+    }
+
+    /**
+     * Compiles the specified document with the specified Java compiler. The
+     * file manager of the compiler is closed once the class is compiled.
+     *
+     * @param document
+     *            parsed script
+     * @param compiler
+     *            Java compiler or {@code null} if there is none, as on a JRE
+     * @return compiled script or {@code null} if the compiler isn't available
+     *         or the script couldn't be compiled
+     */
+    public static CompiledScript compile(DocumentNode document, JavaCompiler compiler) {
+        if (compiler == null) {
+            return null;
+        }
+
+        String className = "GeneratedScript" + COUNTER.incrementAndGet();
+        Generator generator = new Generator(className);
+        String source = generator.generate(document);
+
+        List<String> options = Arrays.asList("-classpath", classPath(), "-g:none", "-nowarn");
+        JavaFileObject file = new SourceFile(className, source);
+        Map<String, ByteArrayOutputStream> classes;
+
+        try (MemoryFileManager fileManager = new MemoryFileManager(
+                compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8))) {
+            boolean success = compiler
+                    .getTask(new StringWriter(), fileManager, diagnostic -> {
+                    }, options, null, Collections.singletonList(file))
+                    .call();
+            if (!success) {
+                return null;
+            }
+            classes = fileManager.classes;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+
+        try {
+            Class<?> type = new ScriptClassLoader(classes).loadClass(PACKAGE + "." + className);
+            return (CompiledScript) type.getConstructor(Object[].class)
+                    .newInstance((Object) generator.constants.toArray());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the class path for compiling generated classes. It contains the
+     * location of this class, which may be missing from the class path of the
+     * application.
+     *
+     * @return the class path
+     */
+    private static String classPath() {
+        StringBuilder sb = new StringBuilder(System.getProperty("java.class.path", ""));
+
+        try {
+            CodeSource source = ScriptCompiler.class.getProtectionDomain().getCodeSource();
+            if (source != null) {
+                sb.append(File.pathSeparator).append(Paths.get(source.getLocation().toURI()));
+            }
+        } catch (Exception ignorable) {
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * {@code Generator} writes the source code of a class for one script.
+     * Objects used by the script are passed to the constructor of the class in
+     * an array of constants.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    private static class Generator {
+
+        /** Name of the generated class. */
+        private final String className;
+        /** Constants used by the script. */
+        private final List<Object> constants = new ArrayList<>();
+        /** Source code of the additional methods. */
+        private final StringBuilder methods = new StringBuilder();
+        /** Number of the additional methods. */
+        private int methodCount;
+
+        /**
+         * Constructs a new {@code Generator} for a class with specified name.
+         *
+         * @param className
+         *            name of the generated class
+         */
+        Generator(String className) {
+            this.className = className;
+        }
+
+        /**
+         * Returns the source code of a class for the specified document.
+         *
+         * @param document
+         *            parsed script
+         * @return source code of a class
+         */
+        String generate(DocumentNode document) {
+            String body = sequence(document);
+
+            return "package " + PACKAGE + ";\n"
+                    + "import hr.fer.zemris.java.custom.scripting.exec.functions.IFunction;\n"
+                    + "import hr.fer.zemris.java.webserver.RequestContext;\n"
+                    + "import java.util.Stack;\n"
+                    + "public final class " + className + " implements CompiledScript {\n"
+                    + "private final Object[] k;\n"
+                    + "public " + className + "(Object[] k) { this.k = k; }\n"
+                    + "public void execute(RequestContext rc) {\n"
+                    + "Object[] v = new Object[" + document.getVariableCount() + "];\n"
+                    + body
+                    + "}\n"
+                    + methods
+                    + "}\n";
+        }
+
+        /**
+         * Returns the statements which execute all children of the specified
+         * node. If the statements are too long, they are split into separate
+         * methods.
+         *
+         * @param parent
+         *            node whose children are executed
+         * @return statements executing the children
+         */
+        private String sequence(Node parent) {
+            List<String> chunks = new ArrayList<>();
+            StringBuilder chunk = new StringBuilder();
+
+            for (int i = 0, n = parent.numberOfChildren(); i < n; i++) {
+                chunk.append(statement(parent.getChild(i)));
+
+                if (chunk.length() > METHOD_SIZE) {
+                    chunks.add(chunk.toString());
+                    chunk.setLength(0);
+                }
+            }
+
+            if (chunks.isEmpty()) {
+                return chunk.toString();
+            }
+            if (chunk.length() > 0) {
+                chunks.add(chunk.toString());
+            }
+
+            StringBuilder calls = new StringBuilder();
+            for (String statements : chunks) {
+                String name = "m" + methodCount++;
+
+                methods.append("private void ").append(name).append("(RequestContext rc, Object[] v) {\n")
+                        .append(statements).append("}\n");
+                calls.append(name).append("(rc, v);\n");
+            }
+
+            return calls.toString();
+        }
+
+        /**
+         * Returns the statements which execute the specified node.
+         *
+         * @param node
+         *            node to be executed
+         * @return statements executing the node
+         */
+        private String statement(Node node) {
+            if (node instanceof TextNode) {
+                return "ScriptRuntime.text(rc, (String) " + constant(node.asText()) + ");\n";
+            } else if (node instanceof EchoNode) {
+                return echo((EchoNode) node);
+            } else if (node instanceof ForLoopNode) {
+                return loop((ForLoopNode) node);
+            } else if (node != null) {
+                return sequence(node);
+            }
+
+            return "";
+        }
+
+        /**
+         * Returns the statements which execute a loop.
+         *
+         * @param node
+         *            loop node
+         * @return statements executing the loop
+         */
+        private String loop(ForLoopNode node) {
+            String variable = variable(node.getVariable());
+            String end = constant(ValueWrapper.parseConstant(node.getEndExpression().getValue()));
+
+            if (node.getStepExpression() == null) {
+                return "ScriptRuntime.missingStep();\n";
+            }
+            String step = constant(ValueWrapper.parseConstant(node.getStepExpression().getValue()));
+
+            return variable + " = " + constant(node.getStartExpression().getValue()) + ";\n"
+                    + "while (ScriptRuntime.compare(" + variable + ", " + end + ") <= 0) {\n"
+                    + sequence(node)
+                    + variable + " = ScriptRuntime.add(" + variable + ", " + step + ");\n"
+                    + "}\n";
+        }
+
+        /**
+         * Returns the statements which execute an echo tag. Without functions
+         * the stack of the tag is known while compiling, so its values are
+         * kept in local variables. Otherwise a real stack is used because the
+         * functions operate on it.
+         *
+         * @param node
+         *            echo node
+         * @return statements executing the echo tag
+         */
+        private String echo(EchoNode node) {
+            for (Element element : node.getElements()) {
+                if (element != null && element.isFunction()) {
+                    return stackEcho(node);
+                }
+            }
+
+            Element[] elements = node.getElements();
+            Object[] values = ScriptRuntime.operands(elements);
+            StringBuilder sb = new StringBuilder("{\n");
+            int depth = 0;
+            int declared = 0;
+
+            for (int i = 0; i < elements.length; i++) {
+                Element element = elements[i];
+                String value;
+
+                if (element == null) {
+                    continue;
+                } else if (element.isConstant()) {
+                    value = constant(values[i]);
+                } else if (element.isVariable()) {
+                    value = "ScriptRuntime.variable(" + variable((ElementVariable) element) + ")";
+                } else if (element.isOperator()) {
+                    if (depth < 2) {
+                        return sb.append("ScriptRuntime.emptyStack();\n}\n").toString();
+                    }
+
+                    String method = operation((String) element.getValue());
+                    depth -= 2;
+                    if (method == null) {
+                        continue;
+                    }
+                    value = "ScriptRuntime." + method + "(s" + (depth + 1) + ", s" + depth + ")";
+                } else {
+                    continue;
+                }
+
+                if (depth == declared) {
+                    sb.append("Object ");
+                    declared++;
+                }
+                sb.append("s").append(depth++).append(" = ").append(value).append(";\n");
+            }
+
+            for (int i = 0; i < depth; i++) {
+                sb.append("ScriptRuntime.echo(rc, s").append(i).append(");\n");
+            }
+
+            return sb.append("}\n").toString();
+        }
+
+        /**
+         * Returns the statements which execute an echo tag with functions.
+         *
+         * @param node
+         *            echo node
+         * @return statements executing the echo tag
+         */
+        private String stackEcho(EchoNode node) {
+            Element[] elements = node.getElements();
+            Object[] values = ScriptRuntime.operands(elements);
+            StringBuilder sb = new StringBuilder("{\nStack<Object> s = new Stack<>();\n");
+
+            for (int i = 0; i < elements.length; i++) {
+                Element element = elements[i];
+
+                if (element == null) {
+                    continue;
+                } else if (element.isConstant()) {
+                    sb.append("s.push(").append(constant(values[i])).append(");\n");
+                } else if (element.isVariable()) {
+                    sb.append("s.push(ScriptRuntime.variable(").append(variable((ElementVariable) element))
+                            .append("));\n");
+                } else if (element.isOperator()) {
+                    String method = operation((String) element.getValue());
+
+                    if (method == null) {
+                        sb.append("s.pop();\ns.pop();\n");
+                    } else {
+                        sb.append("{\nObject a = s.pop();\nObject b = s.pop();\ns.push(ScriptRuntime.")
+                                .append(method).append("(a, b));\n}\n");
+                    }
+                } else if (element.isFunction()) {
+                    Object function = SmartScriptEngine.getFunction((String) element.getValue());
+                    sb.append("((IFunction) ").append(constant(function)).append(").doOperation(s, rc);\n");
+                }
+            }
+
+            return sb.append("ScriptRuntime.echo(rc, s);\n}\n").toString();
+        }
+
+        /**
+         * Returns the name of the method of {@link ScriptRuntime} which
+         * performs the specified operator.
+         *
+         * @param operator
+         *            symbol of the operator
+         * @return name of the method or {@code null} if the operator doesn't
+         *         produce a value
+         */
+        private static String operation(String operator) {
+            switch (operator) {
+            case "+":
+                return "add";
+            case "-":
+                return "subtract";
+            case "*":
+                return "multiply";
+            case "/":
+                return "divide";
+            default:
+                return null;
+            }
+        }
+
+        /**
+         * Adds a constant and returns the expression which reads it.
+         *
+         * @param value
+         *            value of a constant
+         * @return expression reading the constant
+         */
+        private String constant(Object value) {
+            constants.add(value);
+            return "k[" + (constants.size() - 1) + "]";
+        }
+
+        /**
+         * Returns the expression which accesses a variable in the array of
+         * variables.
+         *
+         * @param variable
+         *            the variable
+         * @return expression accessing the variable
+         */
+        private static String variable(ElementVariable variable) {
+            return "v[" + variable.getSlot() + "]";
+        }
+
+    }
+
+    /**
+     * {@code SourceFile} is source code of a generated class kept in memory.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        /** Source code of a class. */
+        private final String source;
+
+        /**
+         * Constructs a new {@code SourceFile} for specified class.
+         *
+         * @param className
+         *            simple name of a class
+         * @param source
+         *            source code of a class
+         */
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + PACKAGE.replace('.', '/') + "/" + className + Kind.SOURCE.extension),
+                    Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+
+    }
+
+    /**
+     * {@code MemoryFileManager} keeps compiled classes in memory instead of
+     * writing them to the disk.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+        /** Bytecode of the compiled classes mapped by their names. */
+        private final Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+
+        /**
+         * Constructs a new {@code MemoryFileManager} delegating to the
+         * specified file manager.
+         *
+         * @param fileManager
+         *            file manager used for everything but the output
+         */
+        MemoryFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind,
+                FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("memory:///" + className.replace('.', '/') + kind.extension),
+                    kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    classes.put(className, os);
+                    return os;
+                }
+            };
+        }
+
+    }
+
+    /**
+     * {@code ScriptClassLoader} defines the classes compiled by a
+     * {@link MemoryFileManager}.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    private static class ScriptClassLoader extends ClassLoader {
+
+        /** Bytecode of the compiled classes mapped by their names. */
+        private final Map<String, ByteArrayOutputStream> classes;
+
+        /**
+         * Constructs a new {@code ScriptClassLoader} for specified classes.
+         *
+         * @param classes
+         *            bytecode of the compiled classes mapped by their names
+         */
+        ScriptClassLoader(Map<String, ByteArrayOutputStream> classes) {
+            super(ScriptCompiler.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            ByteArrayOutputStream os = classes.get(name);
+            if (os == null) {
+                throw new ClassNotFoundException(name);
+            }
+
+            byte[] bytes = os.toByteArray();
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,281 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.IOException;
+import java.util.EmptyStackException;
+import java.util.Stack;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * {@code ScriptRuntime} contains operations used by compiled
+ * {@code SmartScript} scripts. Every operation behaves exactly as the same
+ * step of the {@link SmartScriptEngine} interpreter.
+ * <p>
+ * Methods are public because the compiled scripts are loaded by their own
+ * class loader.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see ScriptCompiler
+ */
+public final class ScriptRuntime {
+
+    /**
+     * Disables the instantiation of this class.
+     */
+    private ScriptRuntime() {
+    }
+
+    /**
+     * Returns the value of a variable.
+     *
+     * @param value
+     *            current value of a variable or {@code null} if it isn't
+     *            defined
+     * @return the value of a variable
+     * @throws NullPointerException
+     *             if the variable isn't defined
+     */
+    public static Object variable(Object value) {
+        if (value == null)
+            throw new NullPointerException("Variable is used before it is defined!");
+
+        return value;
+    }
+
+    /**
+     * Returns the sum of two operands.
+     *
+     * @param first
+     *            first operand
+     * @param second
+     *            second operand
+     * @return the sum of two operands
+     * @see ValueWrapper#increment(Object)
+     */
+    public static Object add(Object first, Object second) {
+        return ValueWrapper.calculate(first, second, '+');
+    }
+
+    /**
+     * Returns the difference of two operands.
+     *
+     * @param first
+     *            first operand
+     * @param second
+     *            second operand
+     * @return the difference of two operands
+     * @see ValueWrapper#decrement(Object)
+     */
+    public static Object subtract(Object first, Object second) {
+        return ValueWrapper.calculate(first, second, '-');
+    }
+
+    /**
+     * Returns the product of two operands.
+     *
+     * @param first
+     *            first operand
+     * @param second
+     *            second operand
+     * @return the product of two operands
+     * @see ValueWrapper#multiply(Object)
+     */
+    public static Object multiply(Object first, Object second) {
+        return ValueWrapper.calculate(first, second, '*');
+    }
+
+    /**
+     * Returns the quotient of two operands.
+     *
+     * @param first
+     *            first operand
+     * @param second
+     *            second operand
+     * @return the quotient of two operands
+     * @see ValueWrapper#divide(Object)
+     */
+    public static Object divide(Object first, Object second) {
+        return ValueWrapper.calculate(first, second, '/');
+    }
+
+    /**
+     * Compares two operands numerically.
+     *
+     * @param first
+     *            first operand
+     * @param second
+     *            second operand
+     * @return a negative integer, zero, or a positive integer as the first
+     *         operand is less than, equal to, or greater than the second one
+     * @see ValueWrapper#numCompare(Object)
+     */
+    public static int compare(Object first, Object second) {
+        return ValueWrapper.compare(first, second);
+    }
+
+    /**
+     * Applies an operator to the two topmost values of a stack.
+     *
+     * @param stack
+     *            stack of an echo tag
+     * @param operator
+     *            symbol of the operator
+     */
+    public static void operate(Stack<Object> stack, String operator) {
+        Object first = stack.pop();
+        Object second = stack.pop();
+
+        switch (operator) {
+        case "+":
+            stack.push(add(first, second));
+            break;
+        case "-":
+            stack.push(subtract(first, second));
+            break;
+        case "*":
+            stack.push(multiply(first, second));
+            break;
+        case "/":
+            stack.push(divide(first, second));
+            break;
+        }
+    }
+
+    /**
+     * Returns the values which the constants of an echo tag push onto its
+     * stack. A string constant which is certainly taken from the stack by an
+     * operator is replaced with the number it represents, so it isn't parsed
+     * on every execution. Other constants keep their values because they may
+     * be written or passed to a function.
+     *
+     * @param elements
+     *            elements of an echo tag
+     * @return values of the constants; {@code null} for other elements
+     */
+    static Object[] operands(Element[] elements) {
+        Object[] values = new Object[elements.length];
+        // indexes of the constants whose values are on the stack; -1 for other values
+        int[] stack = new int[elements.length];
+        int size = 0;
+
+        for (int i = 0; i < elements.length; i++) {
+            Element element = elements[i];
+
+            if (element == null) {
+                continue;
+            } else if (element.isConstant()) {
+                values[i] = element.getValue();
+                stack[size++] = i;
+            } else if (element.isVariable()) {
+                stack[size++] = -1;
+            } else if (element.isOperator()) {
+                for (int j = 0; j < 2 && size > 0; j++) {
+                    int index = stack[--size];
+
+                    if (index >= 0) {
+                        values[index] = ValueWrapper.parseConstant(values[index]);
+                    }
+                }
+
+                if (hasResult((String) element.getValue())) {
+                    stack[size++] = -1;
+                }
+            } else if (element.isFunction()) {
+                // functions may use any value on the stack
+                size = 0;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Tests if the operator pushes its result onto the stack of an echo tag.
+     *
+     * @param operator
+     *            symbol of the operator
+     * @return {@code true} if the operator has a result; {@code false}
+     *         otherwise
+     */
+    private static boolean hasResult(String operator) {
+        switch (operator) {
+        case "+":
+        case "-":
+        case "*":
+        case "/":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Writes a text to the request context.
+     *
+     * @param requestContext
+     *            HTTP request context
+     * @param text
+     *            text to be written
+     */
+    public static void text(RequestContext requestContext, String text) {
+        try {
+            requestContext.write(text);
+        } catch (IOException e) {
+            System.err.println("Some I/O error occured while writing to output stream!");
+        }
+    }
+
+    /**
+     * Writes a value remaining on the stack of an echo tag to the request
+     * context.
+     *
+     * @param requestContext
+     *            HTTP request context
+     * @param value
+     *            value to be written
+     */
+    public static void echo(RequestContext requestContext, Object value) {
+        try {
+            requestContext.write(String.valueOf(value));
+        } catch (IOException ignorable) {
+        }
+    }
+
+    /**
+     * Writes all values remaining on the stack of an echo tag to the request
+     * context, from the bottom of the stack to its top.
+     *
+     * @param requestContext
+     *            HTTP request context
+     * @param stack
+     *            stack of an echo tag
+     */
+    public static void echo(RequestContext requestContext, Stack<Object> stack) {
+        for (Object value : stack) {
+            echo(requestContext, value);
+        }
+    }
+
+    /**
+     * Signals that a value was taken from the empty stack of an echo tag.
+     *
+     * @throws EmptyStackException
+     *             always
+     */
+    public static void emptyStack() {
+        throw new EmptyStackException();
+    }
+
+    /**
+     * Signals that a loop without a step expression was executed.
+     *
+     * @throws NullPointerException
+     *             always
+     */
+    public static void missingStep() {
+        throw new NullPointerException("Loop doesn't have a step expression!");
+    }
+
+}
@@ -9,8 +9,10 @@ import java.util.Objects;
 import java.util.Stack;
 
 import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
 import hr.fer.zemris.java.custom.scripting.exec.functions.FunctionDecfmt;
 import hr.fer.zemris.java.custom.scripting.exec.functions.FunctionDup;
+import hr.fer.zemris.java.custom.scripting.exec.functions.FunctionETag;
 import hr.fer.zemris.java.custom.scripting.exec.functions.FunctionPParamDel;
 import hr.fer.zemris.java.custom.scripting.exec.functions.FunctionPParamGet;
 import hr.fer.zemris.java.custom.scripting.exec.functions.FunctionPParamSet;
@@ -45,8 +47,8 @@ public class SmartScriptEngine {
     private DocumentNode documentNode;
     /** Current request context. */
     private RequestContext requestContext;
-    /** Multistack for scripts. */
-    private ObjectMultistack multistack = new ObjectMultistack();
+    /** Values of the variables indexed by their slots. */
+    private ValueWrapper[] variables;
     /** Visitor for nodes. */
     private INodeVisitor visitor = new InterpreterVisitor();
 
@@ -55,6 +57,7 @@ public class SmartScriptEngine {
 
         FUNCTIONS.put(FunctionDecfmt.getInstance().getName(), FunctionDecfmt.getInstance());
         FUNCTIONS.put(FunctionDup.getInstance().getName(), FunctionDup.getInstance());
+        FUNCTIONS.put(FunctionETag.getInstance().getName(), FunctionETag.getInstance());
         FUNCTIONS.put(FunctionParamGet.getInstance().getName(), FunctionParamGet.getInstance());
         FUNCTIONS.put(FunctionPParamDel.getInstance().getName(), FunctionPParamDel.getInstance());
         FUNCTIONS.put(FunctionPParamGet.getInstance().getName(), FunctionPParamGet.getInstance());
@@ -83,6 +86,37 @@ public class SmartScriptEngine {
         this.requestContext = Objects.requireNonNull(
                 requestContext,
                 "You cannot instantiate SmartScriptEngine with null as a request code!");
+        this.variables = new ValueWrapper[documentNode.getVariableCount()];
+    }
+
+    /**
+     * Compiles the specified document into a tree of closures. Types of the
+     * elements, operators and functions are resolved once, so executing the
+     * returned script does no lookups which the interpreter does on every
+     * execution.
+     * 
+     * @param documentNode
+     *            the document node
+     * @return compiled script
+     */
+    public static CompiledScript compile(DocumentNode documentNode) {
+        Objects.requireNonNull(documentNode, "You cannot compile null as a document node!");
+
+        ClosureCompiler.Step body = ClosureCompiler.sequence(documentNode);
+        int variableCount = documentNode.getVariableCount();
+        return requestContext -> body.execute(new ClosureCompiler.Frame(requestContext, variableCount));
+    }
+
+    /**
+     * Returns the function with specified name.
+     * 
+     * @param name
+     *            name of the function
+     * @return the function or {@code null} if there is no function with
+     *         specified name
+     */
+    static IFunction getFunction(String name) {
+        return FUNCTIONS.get(name);
     }
 
     /**
@@ -113,19 +147,19 @@ public class SmartScriptEngine {
 
         @Override
         public void visitForLoopNode(ForLoopNode node) {
-            String variable = (String) node.getVariable().getValue();
+            int slot = node.getVariable().getSlot();
 
             Object endExpression = node.getEndExpression().getValue();
             Object stepExpression = node.getStepExpression().getValue();
 
-            multistack.push(variable, new ValueWrapper(node.getStartExpression().getValue()));
+            variables[slot] = new ValueWrapper(node.getStartExpression().getValue());
 
-            while (multistack.peek(variable).numCompare(endExpression) <= 0) {
+            while (variables[slot].numCompare(endExpression) <= 0) {
                 for (Node child : node.getAllChildren()) {
                     child.accept(visitor);
                 }
 
-                multistack.push(variable, multistack.pop(variable).increment(stepExpression));
+                variables[slot].increment(stepExpression);
             }
         }
 
@@ -143,23 +177,23 @@ public class SmartScriptEngine {
                 if (element.isConstant()) {
                     stack.push(element.getValue());
                 } else if (element.isVariable()) {
-                    stack.push(multistack.peek((String) element.getValue()).getValue());
+                    stack.push(variable((ElementVariable) element).getValue());
                 } else if (element.isOperator()) {
                     Object num1 = stack.pop();
                     Object num2 = stack.pop();
 
                     switch ((String) element.getValue()) {
                         case "+":
-                            stack.push(new ValueWrapper(num1).increment(num2).getValue());
+                            stack.push(ScriptRuntime.add(num1, num2));
                             break;
                         case "-":
-                            stack.push(new ValueWrapper(num1).decrement(num2).getValue());
+                            stack.push(ScriptRuntime.subtract(num1, num2));
                             break;
                         case "*":
-                            stack.push(new ValueWrapper(num1).multiply(num2).getValue());
+                            stack.push(ScriptRuntime.multiply(num1, num2));
                             break;
                         case "/":
-                            stack.push(new ValueWrapper(num1).divide(num2).getValue());
+                            stack.push(ScriptRuntime.divide(num1, num2));
                             break;
                     }
                 } else if (element.isFunction()) {
@@ -186,5 +220,24 @@ public class SmartScriptEngine {
             }
         }
 
+        /**
+         * Returns the current value of the variable.
+         * 
+         * @param element
+         *            the variable
+         * @return current value of the variable
+         * @throws NullPointerException
+         *             if the variable isn't defined
+         */
+        private ValueWrapper variable(ElementVariable element) {
+            ValueWrapper value = variables[element.getSlot()];
+
+            if (value == null) {
+                throw new NullPointerException("Variable is used before it is defined!");
+            }
+
+            return value;
+        }
+
     }
 }
@@ -1,12 +1,11 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
-import java.util.function.BiFunction;
-
 /**
  * {@code ValueWrapper} is a class used for wrapping various objects.
  * <p>
  * This class provides methods for simple arithmetic operations and comparison
- * between various objects.
+ * between various objects. The arithmetic is done on primitive values, so the
+ * only object created by an operation is its result.
  * 
  * @author Karlo Vrbić
  * @version 1.0
@@ -42,7 +41,7 @@ public class ValueWrapper {
      *             be parsed to {@code int} or {@code double}.
      */
     public ValueWrapper increment(Object incValue) {
-        value = doOperation(incValue, (n1, n2) -> new Double(n1.doubleValue() + n2.doubleValue()));
+        value = calculate(value, incValue, '+');
 
         return this;
     }
@@ -61,7 +60,7 @@ public class ValueWrapper {
      *             be parsed to {@code int} or {@code double}.
      */
     public ValueWrapper decrement(Object decValue) {
-        value = doOperation(decValue, (n1, n2) -> new Double(n1.doubleValue() - n2.doubleValue()));
+        value = calculate(value, decValue, '-');
 
         return this;
     }
@@ -80,7 +79,7 @@ public class ValueWrapper {
      *             be parsed to {@code int} or {@code double}.
      */
     public ValueWrapper multiply(Object mulValue) {
-        value = doOperation(mulValue, (n1, n2) -> new Double(n1.doubleValue() * n2.doubleValue()));
+        value = calculate(value, mulValue, '*');
 
         return this;
     }
@@ -99,7 +98,7 @@ public class ValueWrapper {
      *             be parsed to {@code int} or {@code double}.
      */
     public ValueWrapper divide(Object divValue) {
-        value = doOperation(divValue, (n1, n2) -> new Double(n1.doubleValue() / n2.doubleValue()));
+        value = calculate(value, divValue, '/');
 
         return this;
     }
@@ -120,10 +119,7 @@ public class ValueWrapper {
      *             be parsed to {@code int} or {@code double}
      */
     public int numCompare(Object withValue) {
-        Double double1 = ((Number) prepareObject(value)).doubleValue();
-        Double double2 = ((Number) prepareObject(withValue)).doubleValue();
-
-        return ((Comparable<Double>) double1).compareTo(double2);
+        return compare(value, withValue);
     }
 
     /**
@@ -184,32 +180,99 @@ public class ValueWrapper {
     }
 
     /**
-     * Do operation specified by {@code function} argument on value stored in
-     * this object with {@code obj} if {@code obj} is instance of
+     * Performs the operator on the specified objects if they are instances of
      * {@code Integer}, {@code Double} or {@link String} which can be parsed to
      * {@code int} or {@code double}.
+     * <p>
+     * The operation is done with {@code double} values. If both objects are
+     * integers the result is converted to {@code int}, so an overflow results
+     * in the largest or the smallest integer.
      * 
-     * @param obj
-     *            object to do operation specified by function with
-     * @param function
-     *            function to be performed on value stored in this
-     *            {@code ValueWrapper} and specified object
-     * @return the result of the operation specified by {@code function}
+     * @param first
+     *            first operand
+     * @param second
+     *            second operand
+     * @param operator
+     *            symbol of the operator, one of {@code + - * /}
+     * @return the result of the operation
      * @throws RuntimeException
-     *             if the specified {@code incValeu} isn't instance of
-     *             {@code Integer}, {@code Double} or {@link String} which can
-     *             be parsed to {@code int} or {@code double}
+     *             if one of the objects isn't instance of {@code Integer},
+     *             {@code Double} or {@link String} which can be parsed to
+     *             {@code int} or {@code double}
      */
-    private Number doOperation(Object obj, BiFunction<Number, Number, Double> function) {
-        Object obj1 = prepareObject(value);
-        Object obj2 = prepareObject(obj);
+    static Number calculate(Object first, Object second, char operator) {
+        Number number1 = (Number) prepareObject(first);
+        Number number2 = (Number) prepareObject(second);
 
-        Double output = function.apply((Number) obj1, (Number) obj2);
+        double double1 = number1.doubleValue();
+        double double2 = number2.doubleValue();
+        double result;
 
-        if (obj1 instanceof Integer && obj2 instanceof Integer) {
-            return output.intValue();
+        switch (operator) {
+        case '+':
+            result = double1 + double2;
+            break;
+        case '-':
+            result = double1 - double2;
+            break;
+        case '*':
+            result = double1 * double2;
+            break;
+        case '/':
+            result = double1 / double2;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown operator: " + operator);
+        }
+
+        if (number1 instanceof Integer && number2 instanceof Integer) {
+            return (int) result;
         } else {
-            return output;
+            return result;
+        }
+    }
+
+    /**
+     * Compares the specified objects numerically.
+     * 
+     * @param first
+     *            first object
+     * @param second
+     *            second object
+     * @return a negative integer, zero, or a positive integer as the first
+     *         object is less than, equal to, or greater than the second one
+     * @throws RuntimeException
+     *             if one of the objects isn't instance of {@code Integer},
+     *             {@code Double} or {@link String} which can be parsed to
+     *             {@code int} or {@code double}
+     */
+    static int compare(Object first, Object second) {
+        double double1 = ((Number) prepareObject(first)).doubleValue();
+        double double2 = ((Number) prepareObject(second)).doubleValue();
+
+        return Double.compare(double1, double2);
+    }
+
+    /**
+     * Returns the number represented by the specified constant. Strings are
+     * parsed, so a constant which is used as operand many times is parsed only
+     * once.
+     * 
+     * @param constant
+     *            value of a constant
+     * @return number represented by the constant or the constant itself if it
+     *         isn't a string which can be parsed to {@code int} or
+     *         {@code double}
+     */
+    static Object parseConstant(Object constant) {
+        if (!(constant instanceof String)) {
+            return constant;
+        }
+
+        try {
+            return parseString((String) constant);
+        } catch (RuntimeException e) {
+            return constant;
         }
     }
 
@@ -227,15 +290,59 @@ public class ValueWrapper {
      *             double
      */
     private static Number parseString(String str) {
+        int length = str.length();
+        boolean negative = length > 1 && str.charAt(0) == '-';
+        int i = negative || length > 1 && str.charAt(0) == '+' ? 1 : 0;
+        long result = 0;
+
+        // decimal integers written with ASCII digits are parsed directly
+        for (; i < length && result <= Integer.MAX_VALUE; i++) {
+            char c = str.charAt(i);
+
+            if (c < '0' || c > '9') {
+                break;
+            }
+            result = result * 10 + (c - '0');
+        }
+
+        if (i == length && length > 0) {
+            result = negative ? -result : result;
+
+            if (result >= Integer.MIN_VALUE && result <= Integer.MAX_VALUE) {
+                return (int) result;
+            }
+        }
+
+        // integers never contain these characters, so the exception is avoided
+        for (i = 0; i < length; i++) {
+            char c = str.charAt(i);
+
+            if (c == '.' || c == 'e' || c == 'E') {
+                return parseDouble(str);
+            }
+        }
+
         try {
             return Integer.parseInt(str);
         } catch (NumberFormatException e1) {
-            try {
-                return Double.parseDouble(str);
-            } catch (NumberFormatException e2) {
-                throw new RuntimeException(
-                        "String argument couldn't be parsed to integer or double!");
-            }
+            return parseDouble(str);
+        }
+    }
+
+    /**
+     * Parses the string argument as a double.
+     * 
+     * @param str
+     *            string to be parsed
+     * @return {@code Double} representation of specified string
+     * @throws RuntimeException
+     *             if string argument cannot be parsed to double
+     */
+    private static Number parseDouble(String str) {
+        try {
+            return Double.parseDouble(str);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("String argument couldn't be parsed to integer or double!");
         }
     }
 
@@ -257,7 +364,7 @@ public class ValueWrapper {
      */
     private static Object prepareObject(Object obj) {
         if (obj == null) {
-            return new Integer(0);
+            return 0;
         } else if (obj instanceof String) {
             return parseString((String) obj);
         } else if (obj instanceof Integer) {
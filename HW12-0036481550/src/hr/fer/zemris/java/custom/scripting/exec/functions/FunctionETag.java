@@ -0,0 +1,61 @@
+package hr.fer.zemris.java.custom.scripting.exec.functions;
+
+import java.util.Objects;
+import java.util.Stack;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * {@code FunctionETag} is a native function of {@code SmartScript} and gives
+ * the HTTP response an entity tag computed from its body, so a client which
+ * already has the same output gets {@code 304 Not Modified} instead of it. It
+ * doesn't use the stack.
+ * 
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see IFunction
+ * @see RequestContext#setContentETag(boolean)
+ */
+public class FunctionETag implements IFunction {
+
+    /** Instance of this function. */
+    private static FunctionETag FUNCTION;
+
+    /** Name of this function */
+    private String name;
+
+    /**
+     * Constructs a new {@code FunctionETag}.
+     */
+    private FunctionETag() {
+        super();
+
+        name = "etag";
+    }
+
+    /**
+     * Returns the instance of this function.
+     * 
+     * @return the instance of this function
+     */
+    public static FunctionETag getInstance() {
+        if (FUNCTION == null) {
+            FUNCTION = new FunctionETag();
+        }
+
+        return FUNCTION;
+    }
+
+    @Override
+    public void doOperation(Stack<Object> stack, RequestContext context) {
+        Objects.requireNonNull(context, "You cannot set an entity tag with null reference as a context!");
+
+        context.setContentETag(true);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+}
@@ -14,11 +14,6 @@ public class Lexer {
      */
     private static final String START = "{$";
 
-    /**
-     * String constant used for indicating end of a tag.
-     */
-    private static final String END = "$}";
-
     /**
      * {@code char} array for input data
      */
@@ -40,6 +35,29 @@ public class Lexer {
      */
     private LexerState state;
 
+    /**
+     * Classifier of the values inside of a tag
+     */
+    private final TokenClassifier classifier = new TokenClassifier();
+
+    /**
+     * Index of the first character of the current token which is not
+     * whitespace or {@code -1} if there is no such character
+     */
+    private int firstIndex;
+
+    /**
+     * Index of the last character of the current token which is not
+     * whitespace or {@code -1} if there is no such character
+     */
+    private int lastIndex;
+
+    /**
+     * Index of the next character of the current token to be fed to the
+     * classifier
+     */
+    private int fedIndex;
+
     /**
      * Constructs a {@code Lexer} class from {@code String} parameter.
      * 
@@ -75,29 +93,45 @@ public class Lexer {
     /**
      * Returns next {@code Token} data in data predefined with constructor.
      * <code>LexerException</code> can be thrown if bad input is given.
+     * <p>
+     * Data is scanned only once. Bounds of the value without surrounding
+     * whitespace are tracked while reading and characters inside of them are
+     * fed to the {@code TokenClassifier}, so the value is never copied or
+     * matched against regular expressions until the token is found.
      * 
      * @return next {@code Token}
      */
     public Token nextToken() {
-        String value = "";
         boolean flag = false;
 
         if (currentIndex >= data.length) {
             return new Token(TokenType.EOF, null);
         }
 
+        int start = currentIndex;
+        firstIndex = -1;
+        lastIndex = -1;
+        fedIndex = -1;
+        classifier.reset();
+
         do {
-            value += data[currentIndex];
+            if (data[currentIndex] > ' ') {
+                if (firstIndex < 0) {
+                    firstIndex = currentIndex;
+                    fedIndex = currentIndex;
+                }
+                lastIndex = currentIndex;
+            }
             currentIndex++;
 
-            if (value.trim().startsWith(START)) {
+            if (lastIndex > firstIndex && data[firstIndex] == '{' && data[firstIndex + 1] == '$') {
                 state = LexerState.TAG;
-            } else if (value.trim().endsWith(END)) {
+            } else if (lastIndex > firstIndex && data[lastIndex - 1] == '$' && data[lastIndex] == '}') {
                 flag = true;
             }
-        } while (canProceed(value));
+        } while (canProceed(start));
 
-        value = adjustValue(value);
+        String value = adjustValue(new String(data, start, currentIndex - start));
         this.token = new Token(getTokenType(value), value);
 
         if (flag) {
@@ -125,9 +159,11 @@ public class Lexer {
      */
     private String adjustValue(String value) {
         if (state.equals(LexerState.TAG)) {
-            value = value.replaceAll("\\\\n", "\n");
-            value = value.replaceAll("\\\\r", "\r");
-            value = value.replaceAll("\\\\\\\\", "\\");
+            if (value.indexOf('\\') >= 0) {
+                value = value.replace("\\n", "\n");
+                value = value.replace("\\r", "\r");
+                value = value.replace("\\\\", "\\");
+            }
             value = value.trim();
         }
         return value;
@@ -136,49 +172,53 @@ public class Lexer {
     /**
      * Tells {@code Lexer} if it can proceed with its work
      * 
-     * @param value
-     *            {@code String} value of a token
+     * @param start
+     *            index of the first character of a token
      * @return {@code true} if it can proceed and {@code false} otherwise
      */
-    private boolean canProceed(String value) {
+    private boolean canProceed(int start) {
         if (currentIndex >= data.length) {
             return false;
         } else if (data[currentIndex] == '{') {
             return false;
-        } else if (value.trim().isEmpty()) {
+        } else if (firstIndex < 0) {
             return true;
-        } else if (!isValidToken(value)) {
+        } else if (state.equals(LexerState.TEXT)) {
             return true;
-        } else if (Character.isWhitespace(data[currentIndex]) && !getTokenType(value).equals(TokenType.TEXT)) {
-            return false;
-        } else if (isValidToken(value) && !isValidToken(value + data[currentIndex])) {
-            return false;
-        } else if (isValidToken(value) && isValidToken(value + data[currentIndex])) {
+        }
+
+        boolean escaped = data[start] == '\\' && start + 1 < currentIndex && data[start + 1] == '"';
+        TokenType type = classify(lastIndex + 1);
+        char next = data[currentIndex];
+
+        if (type == null && !escaped) {
             return true;
-        } else {
+        } else if (Character.isWhitespace(next)) {
+            if (type == null) {
+                throw new LexerException("Invalid token value!");
+            }
             return false;
+        } else if (next <= ' ') {
+            return true;
         }
+
+        return escaped || classify(currentIndex + 1) != null;
     }
 
     /**
-     * Checks if value of a {@code Token} is valid.
+     * Feeds the characters of the current token up to the specified index to
+     * the {@code TokenClassifier} and returns the type of the fed value.
      * 
-     * @param value
-     *            value of a {@code Token}
-     * @return {@code true} if value is valid and {@code false} otherwise
+     * @param end
+     *            index after the last character to be fed
+     * @return type of the fed value or {@code null} if the value is not valid
      */
-    private boolean isValidToken(String value) {
-        if (value.startsWith("\\\"")) {
-            return true;
+    private TokenType classify(int end) {
+        for (; fedIndex < end; fedIndex++) {
+            classifier.feed(data[fedIndex]);
         }
 
-        try {
-            getTokenType(value);
-        } catch (LexerException e) {
-            return false;
-        }
-
-        return true;
+        return classifier.getType();
     }
 
     /**
@@ -193,14 +233,12 @@ public class Lexer {
             return TokenType.TEXT;
         }
 
-        for (TokenType type : TokenType.values()) {
-            if (type.getPattern().matcher(str.trim()).matches()
-                    && !type.equals(TokenType.TEXT)) {
-                return type;
-            }
+        TokenType type = classifier.classify(str);
+        if (type == null) {
+            throw new LexerException("Invalid token value!");
         }
 
-        throw new LexerException("Invalid token value!");
+        return type;
     }
 
 }
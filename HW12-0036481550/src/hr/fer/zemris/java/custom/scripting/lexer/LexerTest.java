@@ -116,6 +116,83 @@ public class LexerTest {
 
 	}
 
+	@Test
+	public void testTokenStream() {
+		Lexer lex = new Lexer("Text {$= x_1 @sin .25 -7 * + / ^ \"s t\" $} tail{$ FOR i 1 10 $}{$END$}");
+
+		checkToken(lex.nextToken(), new Token(TokenType.TEXT, "Text "));
+		checkToken(lex.nextToken(), new Token(TokenType.START, "{$"));
+		checkToken(lex.nextToken(), new Token(TokenType.TAGNAME, "="));
+		checkToken(lex.nextToken(), new Token(TokenType.VARIABLE, "x_1"));
+		checkToken(lex.nextToken(), new Token(TokenType.FUNCTION, "@sin"));
+		checkToken(lex.nextToken(), new Token(TokenType.DOUBLE, ".25"));
+		checkToken(lex.nextToken(), new Token(TokenType.INTEGER, "-7"));
+		checkToken(lex.nextToken(), new Token(TokenType.OPERATOR, "*"));
+		checkToken(lex.nextToken(), new Token(TokenType.OPERATOR, "+"));
+		checkToken(lex.nextToken(), new Token(TokenType.OPERATOR, "/"));
+		checkToken(lex.nextToken(), new Token(TokenType.OPERATOR, "^"));
+		checkToken(lex.nextToken(), new Token(TokenType.STRING, "\"s t\""));
+		checkToken(lex.nextToken(), new Token(TokenType.END, "$}"));
+		checkToken(lex.nextToken(), new Token(TokenType.TEXT, " tail"));
+		checkToken(lex.nextToken(), new Token(TokenType.START, "{$"));
+		checkToken(lex.nextToken(), new Token(TokenType.KEYWORD, "FOR"));
+		checkToken(lex.nextToken(), new Token(TokenType.VARIABLE, "i"));
+		checkToken(lex.nextToken(), new Token(TokenType.INTEGER, "1"));
+		checkToken(lex.nextToken(), new Token(TokenType.INTEGER, "10"));
+		checkToken(lex.nextToken(), new Token(TokenType.END, "$}"));
+		checkToken(lex.nextToken(), new Token(TokenType.START, "{$"));
+		checkToken(lex.nextToken(), new Token(TokenType.KEYWORD, "END"));
+		checkToken(lex.nextToken(), new Token(TokenType.END, "$}"));
+		checkToken(lex.nextToken(), new Token(TokenType.EOF, null));
+		checkToken(lex.nextToken(), new Token(TokenType.EOF, null));
+	}
+
+	@Test
+	public void testLowerCaseKeywords() {
+		Lexer lex = new Lexer("A {$ for i 1 2 $}{$ end $}");
+
+		checkToken(lex.nextToken(), new Token(TokenType.TEXT, "A "));
+		checkToken(lex.nextToken(), new Token(TokenType.START, "{$"));
+		checkToken(lex.nextToken(), new Token(TokenType.KEYWORD, "for"));
+		checkToken(lex.nextToken(), new Token(TokenType.VARIABLE, "i"));
+		checkToken(lex.nextToken(), new Token(TokenType.INTEGER, "1"));
+		checkToken(lex.nextToken(), new Token(TokenType.INTEGER, "2"));
+		checkToken(lex.nextToken(), new Token(TokenType.END, "$}"));
+		checkToken(lex.nextToken(), new Token(TokenType.START, "{$"));
+		checkToken(lex.nextToken(), new Token(TokenType.KEYWORD, "end"));
+		checkToken(lex.nextToken(), new Token(TokenType.END, "$}"));
+		checkToken(lex.nextToken(), new Token(TokenType.EOF, null));
+	}
+
+	@Test
+	public void testEscapes() {
+		Lexer lex = new Lexer("{$= \"a\\nb\" \"a\\rb\" $}");
+
+		checkToken(lex.nextToken(), new Token(TokenType.TAGNAME, "="));
+		checkToken(lex.nextToken(), new Token(TokenType.STRING, "\"a\nb\""));
+		checkToken(lex.nextToken(), new Token(TokenType.STRING, "\"a\rb\""));
+		checkToken(lex.nextToken(), new Token(TokenType.END, "$}"));
+	}
+
+	@Test
+	public void testDoubleBackslash() {
+		// used to throw IllegalArgumentException from the regular expression replacement
+		Lexer lex = new Lexer("{$= \"a\\\\b\" \"c\\\\\\\\d\" $}");
+
+		checkToken(lex.nextToken(), new Token(TokenType.TAGNAME, "="));
+		checkToken(lex.nextToken(), new Token(TokenType.STRING, "\"a\\b\""));
+		checkToken(lex.nextToken(), new Token(TokenType.STRING, "\"c\\\\d\""));
+		checkToken(lex.nextToken(), new Token(TokenType.END, "$}"));
+	}
+
+	@Test(expected = LexerException.class)
+	public void testInvalidToken() {
+		Lexer lex = new Lexer("{$= #x $}");
+
+		checkToken(lex.nextToken(), new Token(TokenType.TAGNAME, "="));
+		lex.nextToken();
+	}
+
 	private void checkToken(Token actual, Token expected) {
 		String msg = "Token are not equal.";
 		assertEquals(msg, expected.getType(), actual.getType());
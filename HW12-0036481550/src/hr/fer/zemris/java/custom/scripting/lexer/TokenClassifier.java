@@ -0,0 +1,289 @@
+package hr.fer.zemris.java.custom.scripting.lexer;
+
+/**
+ * {@code TokenClassifier} determines the {@link TokenType} of a value inside
+ * of a tag. Characters of the value are fed one by one, so the type of a
+ * growing value is known at every point without scanning it again.
+ * <p>
+ * Classifier accepts exactly the same values as the patterns of
+ * {@link TokenType} applied to a trimmed value, but without using regular
+ * expressions.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+class TokenClassifier {
+
+    /** State of an identifier before its first character. */
+    private static final int IDENT_START = 0;
+    /** State of a valid identifier. */
+    private static final int IDENT_VALID = 1;
+    /** State of a value which cannot be an identifier any more. */
+    private static final int IDENT_DEAD = 2;
+    /** State after a high surrogate at the start of an identifier. */
+    private static final int IDENT_START_SURROGATE = 3;
+    /** State after a high surrogate in the middle of an identifier. */
+    private static final int IDENT_VALID_SURROGATE = 4;
+
+    /** State of a number before its first character. */
+    private static final int NUMBER_START = 0;
+    /** State of a number after its sign. */
+    private static final int NUMBER_SIGN = 1;
+    /** State of a number after the digits of an integral part. */
+    private static final int NUMBER_DIGITS = 2;
+    /** State of a number after its decimal point. */
+    private static final int NUMBER_POINT = 3;
+    /** State of a number after the digits of a fractional part. */
+    private static final int NUMBER_FRACTION = 4;
+    /** State of a number after its exponent mark. */
+    private static final int NUMBER_EXPONENT = 5;
+    /** State of a number after the sign of its exponent. */
+    private static final int NUMBER_EXPONENT_SIGN = 6;
+    /** State of a number after the digits of its exponent. */
+    private static final int NUMBER_EXPONENT_DIGITS = 7;
+    /** State of a value which cannot be a number any more. */
+    private static final int NUMBER_DEAD = 8;
+
+    /** Number of fed characters. */
+    private int length;
+    /** First fed character. */
+    private char first;
+    /** Second fed character. */
+    private char second;
+    /** Third fed character. */
+    private char third;
+    /** Last fed character. */
+    private char last;
+    /** High surrogate waiting for its low surrogate. */
+    private char highSurrogate;
+    /** State of a variable name. */
+    private int variable;
+    /** State of a function name after the {@code @} sign. */
+    private int function;
+    /** State of an integer constant. */
+    private int integer;
+    /** State of a double constant. */
+    private int decimal;
+    /** Indicates whether a string contains a line terminator it can't have. */
+    private boolean brokenString;
+
+    /**
+     * Prepares the classifier for a new value.
+     */
+    public void reset() {
+        length = 0;
+        variable = IDENT_START;
+        function = IDENT_START;
+        integer = NUMBER_START;
+        decimal = NUMBER_START;
+        brokenString = false;
+    }
+
+    /**
+     * Appends a character to the classified value.
+     *
+     * @param c
+     *            character to be appended
+     */
+    public void feed(char c) {
+        switch (length) {
+        case 0:
+            first = c;
+            break;
+        case 1:
+            second = c;
+            break;
+        case 2:
+            third = c;
+            break;
+        default:
+            break;
+        }
+
+        variable = nextIdentifier(variable, c);
+        if (first == '@' && length > 0) {
+            function = nextIdentifier(function, c);
+        }
+        integer = nextInteger(integer, c);
+        decimal = nextDecimal(decimal, c);
+        if (length > 0 && (c == '\u0085' || c == '\u2028' || c == '\u2029')) {
+            brokenString = true;
+        }
+
+        last = c;
+        length++;
+    }
+
+    /**
+     * Returns the type of the fed value or {@code null} if the value isn't a
+     * valid token inside of a tag.
+     *
+     * @return type of the fed value
+     */
+    public TokenType getType() {
+        if (length == 0) {
+            return TokenType.EOF;
+        } else if (isKeyword()) {
+            return TokenType.KEYWORD;
+        } else if (variable == IDENT_VALID) {
+            return TokenType.VARIABLE;
+        } else if (first == '@' && function == IDENT_VALID) {
+            return TokenType.FUNCTION;
+        } else if (length == 1 && first == '=') {
+            return TokenType.TAGNAME;
+        } else if (length == 1 && "+-*/^".indexOf(first) >= 0) {
+            return TokenType.OPERATOR;
+        } else if (integer == NUMBER_DIGITS) {
+            return TokenType.INTEGER;
+        } else if (decimal == NUMBER_DIGITS || decimal == NUMBER_FRACTION || decimal == NUMBER_EXPONENT_DIGITS) {
+            return TokenType.DOUBLE;
+        } else if (length >= 2 && first == '"' && last == '"' && !brokenString) {
+            return TokenType.STRING;
+        } else if (length == 2 && first == '{' && second == '$') {
+            return TokenType.START;
+        } else if (length == 2 && first == '$' && second == '}') {
+            return TokenType.END;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the type of the specified value. Surrounding whitespace of the
+     * value is ignored.
+     *
+     * @param value
+     *            value to be classified
+     * @return type of the value or {@code null} if the value isn't a valid
+     *         token inside of a tag
+     */
+    public TokenType classify(String value) {
+        int start = 0;
+        int end = value.length();
+
+        while (start < end && value.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        reset();
+        for (int i = start; i < end; i++) {
+            feed(value.charAt(i));
+        }
+
+        return getType();
+    }
+
+    /**
+     * Checks if the fed value is one of the keywords.
+     *
+     * @return {@code true} if the value is a keyword and {@code false}
+     *         otherwise
+     */
+    private boolean isKeyword() {
+        if (length != 3) {
+            return false;
+        }
+
+        return first == 'f' && second == 'o' && third == 'r'
+                || first == 'e' && second == 'n' && third == 'd'
+                || first == 'F' && second == 'O' && third == 'R'
+                || first == 'E' && second == 'N' && third == 'D';
+    }
+
+    /**
+     * Returns the next state of an identifier. An identifier starts with a
+     * letter followed by any number of letters, digits and underscores.
+     *
+     * @param state
+     *            current state
+     * @param c
+     *            next character
+     * @return next state
+     */
+    private int nextIdentifier(int state, char c) {
+        switch (state) {
+        case IDENT_START:
+        case IDENT_VALID:
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+                return state == IDENT_START ? IDENT_START_SURROGATE : IDENT_VALID_SURROGATE;
+            } else if (Character.isLetter(c) || state == IDENT_VALID && (c >= '0' && c <= '9' || c == '_')) {
+                return IDENT_VALID;
+            }
+            return IDENT_DEAD;
+        case IDENT_START_SURROGATE:
+        case IDENT_VALID_SURROGATE:
+            if (Character.isLowSurrogate(c) && Character.isLetter(Character.toCodePoint(highSurrogate, c))) {
+                return IDENT_VALID;
+            }
+            return IDENT_DEAD;
+        default:
+            return IDENT_DEAD;
+        }
+    }
+
+    /**
+     * Returns the next state of an integer constant. An integer constant is an
+     * optional sign followed by digits.
+     *
+     * @param state
+     *            current state
+     * @param c
+     *            next character
+     * @return next state
+     */
+    private static int nextInteger(int state, char c) {
+        boolean digit = c >= '0' && c <= '9';
+
+        switch (state) {
+        case NUMBER_START:
+            return digit ? NUMBER_DIGITS : c == '+' || c == '-' ? NUMBER_SIGN : NUMBER_DEAD;
+        case NUMBER_SIGN:
+        case NUMBER_DIGITS:
+            return digit ? NUMBER_DIGITS : NUMBER_DEAD;
+        default:
+            return NUMBER_DEAD;
+        }
+    }
+
+    /**
+     * Returns the next state of a double constant. A double constant is an
+     * optional sign, digits with an optional decimal point followed by at
+     * least one digit and an optional exponent.
+     *
+     * @param state
+     *            current state
+     * @param c
+     *            next character
+     * @return next state
+     */
+    private static int nextDecimal(int state, char c) {
+        boolean digit = c >= '0' && c <= '9';
+        boolean sign = c == '+' || c == '-';
+        boolean exponent = c == 'e' || c == 'E';
+
+        switch (state) {
+        case NUMBER_START:
+            return digit ? NUMBER_DIGITS : sign ? NUMBER_SIGN : c == '.' ? NUMBER_POINT : NUMBER_DEAD;
+        case NUMBER_SIGN:
+            return digit ? NUMBER_DIGITS : c == '.' ? NUMBER_POINT : NUMBER_DEAD;
+        case NUMBER_DIGITS:
+            return digit ? NUMBER_DIGITS : c == '.' ? NUMBER_POINT : exponent ? NUMBER_EXPONENT : NUMBER_DEAD;
+        case NUMBER_POINT:
+            return digit ? NUMBER_FRACTION : NUMBER_DEAD;
+        case NUMBER_FRACTION:
+            return digit ? NUMBER_FRACTION : exponent ? NUMBER_EXPONENT : NUMBER_DEAD;
+        case NUMBER_EXPONENT:
+            return digit ? NUMBER_EXPONENT_DIGITS : sign ? NUMBER_EXPONENT_SIGN : NUMBER_DEAD;
+        case NUMBER_EXPONENT_SIGN:
+        case NUMBER_EXPONENT_DIGITS:
+            return digit ? NUMBER_EXPONENT_DIGITS : NUMBER_DEAD;
+        default:
+            return NUMBER_DEAD;
+        }
+    }
+
+}
@@ -12,7 +12,33 @@ import java.util.Objects;
  * @see Node
  */
 public class DocumentNode extends Node {
-    
+
+    /**
+     * Number of variable slots used by the document.
+     */
+    private int variableCount;
+
+    /**
+     * Returns the number of variable slots used by the document. Every slot of
+     * {@link hr.fer.zemris.java.custom.scripting.elems.ElementVariable} in the
+     * document is less than this number.
+     * 
+     * @return number of variable slots
+     */
+    public int getVariableCount() {
+        return variableCount;
+    }
+
+    /**
+     * Sets the number of variable slots used by the document.
+     * 
+     * @param variableCount
+     *            number of variable slots
+     */
+    public void setVariableCount(int variableCount) {
+        this.variableCount = variableCount;
+    }
+
     @Override
     public void accept(INodeVisitor visitor) {
         Objects.requireNonNull(visitor, "You cannot visit a DocumentNode with null reference as a visitor!");
@@ -1,10 +1,14 @@
 package hr.fer.zemris.java.custom.scripting.parser;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
 
 import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
 import hr.fer.zemris.java.custom.scripting.lexer.Lexer;
 import hr.fer.zemris.java.custom.scripting.lexer.Token;
 import hr.fer.zemris.java.custom.scripting.lexer.TokenType;
@@ -28,9 +32,11 @@ public class SmartScriptParser {
 	/** Lexer which is going to tokenize inputed document. */
 	private Lexer lexer;
 	/** Stack for nodes. */
-	private Stack<Node> stack;
+	private Deque<Node> stack;
 	/** Number of for loops currently entered. */
 	private int numOfFors;
+	/** Slots of the variables by their names. */
+	private Map<String, Integer> slots;
 
 	/**
 	 * Constructs a parser.
@@ -41,72 +47,99 @@ public class SmartScriptParser {
 		document = new DocumentNode();
 
 		lexer = new Lexer(docBody);
-		stack = new Stack<>();
+		stack = new ArrayDeque<>();
 		numOfFors = 0;
+		slots = new HashMap<>();
 
 		stack.push(document);
 		parse(document);
 	}
 
 	/**
-	 * Starts parsing process.
+	 * Starts parsing process. Tokens are consumed in a single loop; the node
+	 * which receives new children is kept in a variable and the enclosing nodes
+	 * are kept on the {@linkplain #stack}, so the depth of the call stack
+	 * doesn't depend on the size of the document.
 	 * 
 	 * @param node first node of parsing tree
 	 */
 	private void parse(Node node) {
-		Token token = lexer.nextToken();
-		Node newFor = null;
-		
-		if(token.getType().equals(TokenType.EOF)) {
-			return;
-		}
+		while (true) {
+			Token token = lexer.nextToken();
+			Node newFor = null;
+
+			if (token.getType().equals(TokenType.EOF)) {
+				document.setVariableCount(slots.size());
+				return;
+			}
 
-		if (token != null && token.getType().equals(TokenType.TEXT)) {
-			TextNode newNode = new TextNode("" + token.getValue());
-
-			node.addChildNode(newNode);
-		} else if (token != null && token.getType().equals(TokenType.KEYWORD) && token.getValue().equals("FOR")
-				|| token.getValue().equals("FOR")) {
-			Element[] elems = new Element[4];
-			int index = 0;
-			do {
-				token = lexer.nextToken();
-				elems[index] = token.toElement();
-				index++;
-			} while (!token.getType().equals(TokenType.END) && index < 4);
-			numOfFors++;
-			ForLoopNode newNode = new ForLoopNode(elems[0], elems[1], elems[2], elems[3]);
-			newFor = newNode;
-			node.addChildNode(newNode);
-			stack.push(node);
-		} else if (token != null && token.getType().equals(TokenType.TAGNAME)) {
-			List<Element> array = new ArrayList<>();
-
-			while (true) {
-				token = lexer.nextToken();
-				
-				if (token.getType().equals(TokenType.END))
-					break;
-
-				array.add(token.toElement());
+			if (token.getType().equals(TokenType.TEXT)) {
+				TextNode newNode = new TextNode("" + token.getValue());
+
+				node.addChildNode(newNode);
+			} else if (token.getValue().equals("FOR")) {
+				Element[] elems = new Element[4];
+				int index = 0;
+				do {
+					token = lexer.nextToken();
+					elems[index] = toElement(token);
+					index++;
+				} while (!token.getType().equals(TokenType.END) && index < 4);
+				numOfFors++;
+				ForLoopNode newNode = new ForLoopNode(elems[0], elems[1], elems[2], elems[3]);
+				newFor = newNode;
+				node.addChildNode(newNode);
+				stack.push(node);
+			} else if (token.getType().equals(TokenType.TAGNAME)) {
+				List<Element> array = new ArrayList<>();
+
+				while (true) {
+					token = lexer.nextToken();
+
+					if (token.getType().equals(TokenType.END))
+						break;
+					if (token.getType().equals(TokenType.EOF))
+						throw new SmartScriptParserException("Tag is not closed!");
+
+					array.add(toElement(token));
+				}
+				EchoNode newNode = new EchoNode(array.toArray(new Element[1]));
+				node.addChildNode(newNode);
+			} else if (token.getValue().equals("END")) {
+				lexer.nextToken();
+
+				// the document node at the bottom of the stack doesn't belong to a FOR tag
+				if (numOfFors == 0)
+					throw new SmartScriptParserException("There are more END tags than FOR tags!");
+
+				numOfFors--;
+				node = stack.pop();
+				continue;
+			}
+
+			//da li je bilo novih for-ova ili ne
+			if (numOfFors > 0 && newFor != null) {
+				node = newFor;
 			}
-			EchoNode newNode = new EchoNode(array.toArray(new Element[1]));
-			node.addChildNode(newNode);
-		} else if (token != null && token.getType().equals(TokenType.KEYWORD) && token.getValue().equals("END")
-				|| token.getValue().equals("END")) {
-			lexer.nextToken();
-
-			numOfFors--;
-			parse((Node) stack.pop());
-			return;
 		}
+	}
 
-		//da li je bilo novih for-ova ili ne
-		if (numOfFors > 0 && newFor != null) {
-			parse(newFor);
-		} else {
-			parse(node);
+	/**
+	 * Converts the token to an element. Every variable gets the slot of its
+	 * name, so the engine can keep the variables in an array.
+	 * 
+	 * @param token token to be converted
+	 * @return element representation of the token
+	 */
+	private Element toElement(Token token) {
+		Element element = token.toElement();
+
+		if (element instanceof ElementVariable) {
+			ElementVariable variable = (ElementVariable) element;
+			variable.setSlot(slots.computeIfAbsent(variable.asText(), name -> slots.size()));
 		}
+
+		return element;
 	}
 
 	/*
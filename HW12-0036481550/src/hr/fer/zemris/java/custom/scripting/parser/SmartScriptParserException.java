@@ -11,4 +11,23 @@ public class SmartScriptParserException extends RuntimeException {
     /** Serial version UID */
     private static final long serialVersionUID = -7146405271722626823L;
 
+    /**
+     * Constructs a new {@code SmartScriptParserException} without a detail
+     * message.
+     */
+    public SmartScriptParserException() {
+        super();
+    }
+
+    /**
+     * Constructs a new {@code SmartScriptParserException} with specified
+     * detail message.
+     * 
+     * @param message
+     *            the detail message
+     */
+    public SmartScriptParserException(String message) {
+        super(message);
+    }
+
 }
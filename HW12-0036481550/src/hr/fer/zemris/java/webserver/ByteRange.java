@@ -0,0 +1,156 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code ByteRange} is a satisfiable range of bytes of an entity requested by
+ * the {@code Range} header. Both positions are inclusive, as in the header.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+final class ByteRange {
+
+    /** Maximum number of ranges served in one response. */
+    static final int MAX_RANGES = 16;
+
+    /** Position of the first byte of the range. */
+    private final long first;
+    /** Position of the last byte of the range. */
+    private final long last;
+
+    /**
+     * Constructs a new {@code ByteRange} with specified positions.
+     *
+     * @param first
+     *            position of the first byte
+     * @param last
+     *            position of the last byte
+     */
+    ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Returns the position of the first byte of the range.
+     *
+     * @return the position of the first byte
+     */
+    long getFirst() {
+        return first;
+    }
+
+    /**
+     * Returns the position of the last byte of the range.
+     *
+     * @return the position of the last byte
+     */
+    long getLast() {
+        return last;
+    }
+
+    /**
+     * Returns the number of bytes in the range.
+     *
+     * @return the number of bytes
+     */
+    long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * Returns the value of the {@code Content-Range} header describing this
+     * range of an entity with specified length.
+     *
+     * @param entityLength
+     *            length of the whole entity
+     * @return value of the {@code Content-Range} header
+     */
+    String getContentRange(long entityLength) {
+        return "bytes " + first + "-" + last + "/" + entityLength;
+    }
+
+    /**
+     * Parses the value of a {@code Range} header for an entity with specified
+     * length. Ranges which start after the end of the entity are skipped and
+     * the ones which end after it are shortened. If the header isn't a valid
+     * byte range set or it asks for more than {@value #MAX_RANGES} ranges,
+     * {@code null} is returned and the header should be ignored.
+     *
+     * @param header
+     *            value of the {@code Range} header
+     * @param entityLength
+     *            length of the whole entity
+     * @return list of satisfiable ranges, which is empty if there aren't any,
+     *         or {@code null} if the header should be ignored
+     */
+    static List<ByteRange> parse(String header, long entityLength) {
+        if (header == null)
+            return null;
+
+        int equals = header.indexOf('=');
+        if (equals < 0 || !header.substring(0, equals).trim().equalsIgnoreCase("bytes"))
+            return null;
+
+        List<ByteRange> ranges = new ArrayList<>();
+        int count = 0;
+
+        for (String spec : header.substring(equals + 1).split(",")) {
+            spec = spec.trim();
+            if (spec.isEmpty())
+                continue;
+
+            if (++count > MAX_RANGES)
+                return null;
+
+            int dash = spec.indexOf('-');
+            if (dash < 0)
+                return null;
+
+            long first;
+            long last;
+            try {
+                if (dash == 0) {
+                    // suffix range, the last n bytes
+                    long suffix = parsePosition(spec.substring(1));
+                    first = Math.max(0, entityLength - suffix);
+                    last = suffix == 0 ? -1 : entityLength - 1;
+                } else {
+                    first = parsePosition(spec.substring(0, dash));
+                    last = dash == spec.length() - 1 ? Long.MAX_VALUE : parsePosition(spec.substring(dash + 1));
+                    if (last < first)
+                        return null;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (first < entityLength && first <= last) {
+                ranges.add(new ByteRange(first, Math.min(last, entityLength - 1)));
+            }
+        }
+
+        return count == 0 ? null : ranges;
+    }
+
+    /**
+     * Parses a position of a byte range, which consists of decimal digits
+     * only.
+     *
+     * @param position
+     *            the position as text
+     * @return the position
+     * @throws NumberFormatException
+     *             if the position isn't valid
+     */
+    private static long parsePosition(String position) {
+        position = position.trim();
+        if (position.isEmpty() || !Character.isDigit(position.charAt(0)))
+            throw new NumberFormatException("Invalid byte position: " + position);
+
+        return Long.parseLong(position);
+    }
+
+}
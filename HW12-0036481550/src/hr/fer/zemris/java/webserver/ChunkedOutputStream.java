@@ -0,0 +1,79 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@code ChunkedOutputStream} is an output stream that encodes everything
+ * written to it using the HTTP/1.1 chunked transfer coding. Every call of a
+ * {@code write} method produces exactly one chunk.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see FilterOutputStream
+ */
+class ChunkedOutputStream extends FilterOutputStream {
+
+    /** Line terminator of the chunk size and chunk data. */
+    private static final byte[] CRLF = { '\r', '\n' };
+    /** Last chunk and an empty trailer. */
+    private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+    /** Indicates whether the last chunk has been written. */
+    private boolean finished;
+
+    /**
+     * Constructs a new {@code ChunkedOutputStream} which writes the chunks to
+     * the specified output stream.
+     *
+     * @param out
+     *            the underlying output stream
+     */
+    public ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished)
+            throw new IOException("You cannot write to a chunked stream after its last chunk!");
+
+        if (len == 0)
+            return;
+
+        out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes the last chunk without closing the underlying stream. Calling
+     * this method more than once has no effect.
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+
+        finished = true;
+        out.write(LAST_CHUNK);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+
+}
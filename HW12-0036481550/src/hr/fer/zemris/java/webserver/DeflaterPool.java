@@ -0,0 +1,84 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * {@code DeflaterPool} is a thread-safe pool of {@link Deflater} objects which
+ * produce raw deflate data. A deflater holds native memory which is released
+ * only when it is ended, so creating one for every compressed response is
+ * expensive. Deflaters are borrowed for one response and returned afterwards.
+ * <p>
+ * The pool never blocks. If it is empty, a new deflater is created, and if it
+ * is full, a returned deflater is ended.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+final class DeflaterPool {
+
+    /** Idle deflaters. */
+    private final BlockingQueue<Deflater> idle;
+    /** Compression level of the deflaters. */
+    private final int level;
+
+    /**
+     * Constructs a new {@code DeflaterPool} with specified capacity and
+     * compression level.
+     *
+     * @param capacity
+     *            maximum number of idle deflaters
+     * @param level
+     *            compression level from {@code 0} to {@code 9}, or
+     *            {@code -1} for the default level
+     * @throws IllegalArgumentException
+     *             if {@code capacity} is less than {@code 1} or the level is
+     *             invalid
+     */
+    DeflaterPool(int capacity, int level) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity of the pool must be positive: " + capacity);
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+
+        this.idle = new ArrayBlockingQueue<>(capacity);
+        this.level = level;
+    }
+
+    /**
+     * Borrows a deflater from the pool. It must be {@linkplain #release(Deflater)
+     * released} once the data is compressed.
+     *
+     * @return a deflater ready for new data
+     */
+    Deflater borrow() {
+        Deflater deflater = idle.poll();
+
+        return deflater != null ? deflater : new Deflater(level, true);
+    }
+
+    /**
+     * Returns the borrowed deflater to the pool.
+     *
+     * @param deflater
+     *            the borrowed deflater
+     */
+    void release(Deflater deflater) {
+        deflater.reset();
+
+        if (!idle.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the number of idle deflaters in the pool.
+     *
+     * @return the number of idle deflaters
+     */
+    int size() {
+        return idle.size();
+    }
+
+}
@@ -0,0 +1,91 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * {@code GzipOutputStream} is an output stream that compresses everything
+ * written to it into the gzip format. Unlike {@link java.util.zip.GZIPOutputStream}
+ * it borrows its deflater from a {@link DeflaterPool} and returns it when the
+ * stream is finished.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see DeflaterOutputStream
+ */
+class GzipOutputStream extends DeflaterOutputStream {
+
+    /** Gzip header of a deflate member without a name and time. */
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    /** Pool to which the deflater is returned. */
+    private final DeflaterPool pool;
+    /** Checksum of the uncompressed data. */
+    private final CRC32 crc = new CRC32();
+    /** Indicates whether the trailer has been written. */
+    private boolean finished;
+
+    /**
+     * Constructs a new {@code GzipOutputStream} which writes the compressed
+     * data to the specified output stream, and writes the gzip header at once.
+     *
+     * @param out
+     *            the underlying output stream
+     * @param pool
+     *            pool from which the deflater is borrowed
+     * @param syncFlush
+     *            if {@code true}, flushing the stream flushes all the data
+     *            compressed so far, which lowers the compression ratio
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public GzipOutputStream(OutputStream out, DeflaterPool pool, boolean syncFlush) throws IOException {
+        super(out, pool.borrow(), 4096, syncFlush);
+        this.pool = pool;
+
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished)
+            throw new IOException("You cannot write to a gzip stream after its trailer!");
+
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    /**
+     * Finishes the compressed data, writes the gzip trailer and returns the
+     * deflater to the pool, without closing the underlying stream. Calling
+     * this method more than once has no effect.
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished)
+            return;
+
+        super.finish();
+        finished = true;
+
+        int size = (int) def.getBytesRead();
+        pool.release(def);
+
+        int value = (int) crc.getValue();
+        out.write(new byte[] {
+                (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24) });
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+}
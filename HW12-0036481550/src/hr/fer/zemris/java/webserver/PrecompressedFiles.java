@@ -0,0 +1,239 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * {@code PrecompressedFiles} is an index of static files which have a
+ * gzip-compressed sibling, e.g. {@code index.html.gz} next to
+ * {@code index.html}. A client which accepts gzip gets the sibling instead of
+ * the file, so static files are never compressed while they are served.
+ * <p>
+ * The document root is indexed once, when the index is constructed. Only the
+ * siblings which aren't older than their files are indexed, and siblings
+ * created later are ignored until the index is rebuilt. A file may change
+ * after it was indexed, so a sibling should be checked by
+ * {@link #isCurrent(Path, Path)} before it is served. Siblings can be
+ * {@linkplain #generate(Path, Predicate, int) generated} at boot time or by
+ * running this class before the server is started.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+public class PrecompressedFiles {
+
+    /** Extension of a compressed sibling. */
+    public static final String SUFFIX = ".gz";
+
+    /** Absolute and normalized paths of files which have a sibling. */
+    private final Set<Path> files;
+
+    /**
+     * Constructs a new {@code PrecompressedFiles} by indexing all siblings in
+     * the specified directory and its subdirectories.
+     *
+     * @param root
+     *            the document root
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public PrecompressedFiles(Path root) throws IOException {
+        Set<Path> files = new HashSet<>();
+
+        for (Path sibling : list(root, path -> path.getFileName().toString().endsWith(SUFFIX))) {
+            String name = sibling.getFileName().toString();
+            Path file = sibling.resolveSibling(name.substring(0, name.length() - SUFFIX.length()));
+
+            if (Files.isRegularFile(file) && !isStale(file, sibling)) {
+                files.add(file.toAbsolutePath().normalize());
+            }
+        }
+
+        this.files = files;
+    }
+
+    /**
+     * Returns the compressed sibling of the specified file or {@code null} if
+     * it has none.
+     *
+     * @param file
+     *            path of a file
+     * @return path of the sibling or {@code null} if there isn't one
+     */
+    public Path getSibling(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+
+        return files.contains(key) ? key.resolveSibling(key.getFileName() + SUFFIX) : null;
+    }
+
+    /**
+     * Returns the number of indexed files.
+     *
+     * @return the number of files which have a sibling
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Compresses every file in the specified directory and its
+     * subdirectories which is accepted by the filter and whose sibling is
+     * missing or stale. A sibling is kept only if it is smaller than its file;
+     * otherwise a stale sibling is deleted.
+     *
+     * @param root
+     *            the document root
+     * @param filter
+     *            accepts the files which should be compressed
+     * @param level
+     *            compression level from {@code 1} to {@code 9}
+     * @return the number of written siblings
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static int generate(Path root, Predicate<Path> filter, int level) throws IOException {
+        DeflaterPool deflaters = new DeflaterPool(1, level);
+        int count = 0;
+
+        for (Path file : list(root, path -> !path.getFileName().toString().endsWith(SUFFIX) && filter.test(path))) {
+            Path sibling = file.resolveSibling(file.getFileName() + SUFFIX);
+            if (Files.exists(sibling) && !isStale(file, sibling))
+                continue;
+
+            Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream os = new GzipOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(temporary)), deflaters, false)) {
+                    Files.copy(file, os);
+                }
+
+                if (Files.size(temporary) < Files.size(file)) {
+                    Files.move(temporary, sibling, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    count++;
+                } else {
+                    Files.deleteIfExists(sibling);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Checks whether the sibling still exists and isn't older than its file.
+     *
+     * @param file
+     *            path of a file
+     * @param sibling
+     *            path of its sibling
+     * @return {@code true} if the sibling can be served instead of the file;
+     *         {@code false} otherwise
+     */
+    public static boolean isCurrent(Path file, Path sibling) {
+        try {
+            return !isStale(file, sibling);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the sibling is older than its file.
+     *
+     * @param file
+     *            path of a file
+     * @param sibling
+     *            path of its sibling
+     * @return {@code true} if the file was changed after the sibling was
+     *         written; {@code false} otherwise
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private static boolean isStale(Path file, Path sibling) throws IOException {
+        return Files.getLastModifiedTime(sibling).compareTo(Files.getLastModifiedTime(file)) < 0;
+    }
+
+    /**
+     * Returns all regular files in the specified directory and its
+     * subdirectories which are accepted by the filter.
+     *
+     * @param root
+     *            the directory
+     * @param filter
+     *            accepts the returned files
+     * @return list of files
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private static List<Path> list(Path root, Predicate<Path> filter) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).filter(filter).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Starting point of a program which generates the siblings of all files
+     * with a textual mime type, so it can be run when the document root is
+     * built. Command-line arguments are the document root, the path to the
+     * mime configuration file and optionally the compression level, e.g.
+     * {@code ./webroot ./config/mime.properties 9}
+     *
+     * @param args
+     *            Command-line argument
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("You should input a path to the document root and to the mime configuration file!");
+            return;
+        }
+
+        Properties mimeTypes = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(args[1]))) {
+            mimeTypes.load(is);
+        }
+
+        int level = args.length > 2 ? Integer.parseInt(args[2]) : Deflater.BEST_COMPRESSION;
+        int count = generate(Paths.get(args[0]), path -> isTextual(path, mimeTypes::getProperty), level);
+
+        System.out.println("Compressed " + count + " files.");
+    }
+
+    /**
+     * Checks whether the file has a textual mime type, so compressing it is
+     * worthwhile.
+     *
+     * @param file
+     *            path of a file
+     * @param mimeTypes
+     *            function returning the mime type of an extension or
+     *            {@code null} if it is unknown
+     * @return {@code true} if the file is textual; {@code false} otherwise
+     */
+    static boolean isTextual(Path file, Function<String, String> mimeTypes) {
+        String name = file.getFileName().toString();
+        String mimeType = mimeTypes.apply(name.substring(name.lastIndexOf('.') + 1));
+
+        return mimeType != null && RequestContext.isCompressible(mimeType.trim());
+    }
+
+}
@@ -1,16 +1,33 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * {@code RequestContext} class is used to generate HTTP requests and write them
@@ -29,6 +46,19 @@ public class RequestContext {
     public static final String DEFAULT_STATUS_TEXT = "OK";
     /** Default mime type of the HTTP request. (e.g. "text/plain") */
     public static final String DEFAULT_MIME_TYPE = "text/html";
+    /** Default size of the response buffer in bytes. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    /** Size of the pieces in which a file is copied into a chunked body. */
+    private static final int TRANSFER_SIZE = 8192;
+    /** Status code of a response to a conditional request whose entity hasn't changed. */
+    public static final int NOT_MODIFIED = 304;
+    /** Status code of a response containing only the requested ranges of the entity. */
+    public static final int PARTIAL_CONTENT = 206;
+    /** Status code of a response to a request whose ranges are all outside of the entity. */
+    public static final int RANGE_NOT_SATISFIABLE = 416;
+    /** Format of the dates in the headers. */
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
 
     /** Encoding for the output file. */
     public String encoding = DEFAULT_ENCODING;
@@ -41,8 +71,54 @@ public class RequestContext {
 
     /** Output stream for the output file. */
     private OutputStream outputStream;
+    /** Output stream for the body of the response. */
+    private OutputStream bodyStream;
+    /** Stream which encodes the body into chunks or {@code null} if it isn't chunked. */
+    private ChunkedOutputStream chunkedStream;
+    /** Channel of the client; {@code null} if it isn't known. */
+    private WritableByteChannel outputChannel;
     /** Coding page used for writing to output file. */
     private Charset charset;
+    /** Buffer for the body; {@code null} if every write is flushed at once. */
+    private byte[] buffer;
+    /** Number of bytes in the buffer. */
+    private int buffered;
+
+    /** Version of the HTTP used by the client. */
+    private String httpVersion = "HTTP/1.1";
+    /** Length of the body or {@code -1} if it is unknown. */
+    private long contentLength = -1;
+    /** Indicates whether the connection stays open after this response. */
+    private boolean keepAlive;
+    /**
+     * Indicates whether persistence of the connection was set and the
+     * {@code Connection} header should be generated.
+     */
+    private boolean connectionManaged;
+    /** Headers of the HTTP request keyed case insensitively. */
+    private Map<String, String> requestHeaders = Collections.emptyMap();
+    /** Entity tag of the response or {@code null} if it has none. */
+    private String etag;
+    /** Last modified time of the response in milliseconds or {@code -1} if it is unknown. */
+    private long lastModified = -1;
+    /** Indicates whether the entity tag is computed from the buffered body. */
+    private boolean contentETag;
+    /** Indicates whether the response tells the client that ranges of it can be requested. */
+    private boolean acceptRanges;
+    /** Value of the {@code Content-Range} header or {@code null} if it isn't sent. */
+    private String contentRange;
+    /** Pool of deflaters compressing the body or {@code null} if it is never compressed. */
+    private DeflaterPool deflaters;
+    /** Minimum length of a body which is compressed. */
+    private int compressionThreshold;
+    /** Indicates whether the encoding of the body has been negotiated. */
+    private boolean negotiated;
+    /** Indicates whether the body depends on the {@code Accept-Encoding} header. */
+    private boolean vary;
+    /** Indicates whether the body is compressed by gzip. */
+    private boolean compressed;
+    /** Content coding of the body or {@code null} if it isn't encoded. */
+    private String contentEncoding;
 
     /** Map of parameters for the HTTP request. */
     private Map<String, String> parameters;
@@ -58,6 +134,8 @@ public class RequestContext {
      * output file.
      */
     private boolean headerGenerated;
+    /** Flag which indicates if the header has been written to output file. */
+    private boolean headerWritten;
 
     /**
      * Constructs a new {@code RequestContext} object with specified parameters.
@@ -67,7 +145,8 @@ public class RequestContext {
      * @param parameters
      *            the parameters for the HTTP request
      * @param persistentParameters
-     *            the persistent parameters for the HTTP request
+     *            the persistent parameters for the HTTP request, which are
+     *            changed in place so the changes outlive the request
      * @param outputCookies
      *            output cookies
      * @throws NullPointerException
@@ -75,20 +154,59 @@ public class RequestContext {
      */
     public RequestContext(OutputStream outputStream, Map<String, String> parameters,
             Map<String, String> persistentParameters, List<RCCookie> outputCookies) {
+        this(outputStream, parameters, persistentParameters, outputCookies, 0);
+    }
+
+    /**
+     * Constructs a new {@code RequestContext} object with specified parameters
+     * and a response buffer of the specified size. The body is sent to the
+     * output stream only when the buffer is full or when the response is
+     * {@linkplain #finish() finished}, so many small writes don't become many
+     * small packets.
+     * <p>
+     * If the whole body fits into the buffer, the response is sent with its
+     * exact {@code Content-Length}. Otherwise the header is sent once the
+     * buffer fills up and the rest of the body is streamed with chunked
+     * transfer coding.
+     * 
+     * @param outputStream
+     *            the output stream for the output file
+     * @param parameters
+     *            the parameters for the HTTP request
+     * @param persistentParameters
+     *            the persistent parameters for the HTTP request, which are
+     *            changed in place so the changes outlive the request
+     * @param outputCookies
+     *            output cookies
+     * @param bufferSize
+     *            size of the response buffer in bytes; {@code 0} flushes every
+     *            write at once
+     * @throws NullPointerException
+     *             if {@code outputStream} parameter is a {@code null} reference
+     * @throws IllegalArgumentException
+     *             if {@code bufferSize} is negative
+     */
+    public RequestContext(OutputStream outputStream, Map<String, String> parameters,
+            Map<String, String> persistentParameters, List<RCCookie> outputCookies, int bufferSize) {
         this.outputStream = Objects
                 .requireNonNull(outputStream, "You cannot instantiate RequestContent with null as output stream!");
 
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("Buffer size cannot be negative: " + bufferSize);
+        }
+        if (bufferSize > 0) {
+            this.buffer = new byte[bufferSize];
+            this.outputStream = new BufferedOutputStream(outputStream, bufferSize);
+        }
+
         this.parameters = new LinkedHashMap<>();
-        this.persistentParameters = new LinkedHashMap<>();
+        this.persistentParameters = persistentParameters != null ? persistentParameters : new LinkedHashMap<>();
         this.outputCookies = new ArrayList<>();
         this.temporaryParameters = new LinkedHashMap<>();
 
         if (parameters != null) {
             this.parameters.putAll(parameters);
         }
-        if (persistentParameters != null) {
-            this.persistentParameters.putAll(persistentParameters);
-        }
         if (outputCookies != null) {
             this.outputCookies.addAll(outputCookies);
         }
@@ -268,14 +386,30 @@ public class RequestContext {
     public RequestContext write(byte[] data) throws IOException {
         Objects.requireNonNull(data, "You cannot write null as data to output stream!");
 
+        if (statusCode == NOT_MODIFIED) {
+            return this;
+        }
+
         if (!headerGenerated) {
-            outputStream.write(getHeader());
-            headerGenerated = true;
-            charset = Charset.forName(encoding);
+            generateHeader();
         }
 
-        outputStream.write(data);
-        outputStream.flush();
+        if (buffer == null) {
+            bodyStream.write(data);
+            bodyStream.flush();
+        } else if (data.length <= buffer.length - buffered) {
+            System.arraycopy(data, 0, buffer, buffered, data.length);
+            buffered += data.length;
+        } else {
+            flushBuffer();
+
+            if (data.length < buffer.length) {
+                System.arraycopy(data, 0, buffer, 0, data.length);
+                buffered = data.length;
+            } else {
+                bodyStream.write(data);
+            }
+        }
 
         return this;
     }
@@ -294,15 +428,304 @@ public class RequestContext {
     public RequestContext write(String text) throws IOException {
         Objects.requireNonNull(text, "You cannot write null as data to output stream!");
 
+        if (statusCode == NOT_MODIFIED) {
+            return this;
+        }
+
         if (!headerGenerated) {
-            outputStream.write(getHeader());
-            headerGenerated = true;
-            charset = Charset.forName(encoding);
+            generateHeader();
         }
 
         return write(text.getBytes(charset));
     }
 
+    /**
+     * Writes {@code count} bytes of the file from the specified position to
+     * the output file. Unless the body is chunked or compressed, the bytes are
+     * transferred
+     * by {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so
+     * if the channel of the client is known they don't pass through the heap
+     * at all. Memory used doesn't depend on the size of the file.
+     * 
+     * @param channel
+     *            channel of the file
+     * @param position
+     *            position in the file of the first byte to be written
+     * @param count
+     *            number of bytes to be written
+     * @return this
+     * @throws IOException
+     *             if an I/O error occurs or the file ends before {@code count}
+     *             bytes are written
+     * @throws NullPointerException
+     *             if {@code channel} parameter is a {@code null} reference
+     */
+    public RequestContext write(FileChannel channel, long position, long count) throws IOException {
+        Objects.requireNonNull(channel, "You cannot write null as a file to output stream!");
+
+        if (statusCode == NOT_MODIFIED) {
+            return this;
+        }
+
+        if (!headerGenerated) {
+            generateHeader();
+        }
+
+        if (buffer != null) {
+            flushBuffer();
+        }
+
+        if (bodyStream != outputStream) {
+            ByteBuffer piece = ByteBuffer.allocate(TRANSFER_SIZE);
+
+            while (count > 0) {
+                piece.clear().limit((int) Math.min(TRANSFER_SIZE, count));
+                int read = channel.read(piece, position);
+                if (read < 0) {
+                    throw new EOFException("File ended before all bytes were written!");
+                }
+
+                bodyStream.write(piece.array(), 0, read);
+                position += read;
+                count -= read;
+            }
+
+            return this;
+        }
+
+        outputStream.flush();
+        WritableByteChannel target = outputChannel != null ? outputChannel : Channels.newChannel(outputStream);
+
+        while (count > 0) {
+            long transferred = channel.transferTo(position, count, target);
+            if (transferred <= 0) {
+                throw new EOFException("File ended before all bytes were written!");
+            }
+
+            position += transferred;
+            count -= transferred;
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes the whole file or the ranges of it requested by the
+     * {@code Range} header. Ranges are ignored if {@code If-Range} header
+     * doesn't match the validators of the response, so the validators should
+     * be set first. A single range is sent as {@code 206 Partial Content},
+     * several ranges as {@code multipart/byteranges} and if none of them is
+     * inside of the file {@code 416 Range Not Satisfiable} is sent without a
+     * body. Only the requested bytes are read from the file, as described in
+     * {@link #write(FileChannel, long, long)}.
+     * <p>
+     * This method sets the length and the status of the response, so nothing
+     * may be written before it.
+     * 
+     * @param channel
+     *            channel of the file
+     * @return this
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws NullPointerException
+     *             if {@code channel} parameter is a {@code null} reference
+     */
+    public RequestContext writeFile(FileChannel channel) throws IOException {
+        Objects.requireNonNull(channel, "You cannot write null as a file to output stream!");
+        setAcceptRanges(true);
+
+        if (statusCode == NOT_MODIFIED) {
+            return this;
+        }
+
+        long length = channel.size();
+
+        List<ByteRange> ranges = null;
+        if (statusCode == DEFAULT_STATUS_CODE && isRangeFresh()) {
+            ranges = ByteRange.parse(requestHeaders.get("Range"), length);
+        }
+
+        if (ranges == null) {
+            setContentLength(length);
+            return write(channel, 0, length);
+        }
+
+        if (ranges.isEmpty()) {
+            setStatusCode(RANGE_NOT_SATISFIABLE);
+            setStatusText("Range Not Satisfiable");
+            setContentRange("bytes */" + length);
+            setContentLength(0);
+            return this;
+        }
+
+        setStatusCode(PARTIAL_CONTENT);
+        setStatusText("Partial Content");
+
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+
+            setContentRange(range.getContentRange(length));
+            setContentLength(range.length());
+            return write(channel, range.getFirst(), range.length());
+        }
+
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        String partType = getContentType();
+
+        byte[][] partHeaders = new byte[ranges.size()][];
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        long total = end.length;
+
+        for (int i = 0; i < partHeaders.length; i++) {
+            ByteRange range = ranges.get(i);
+            partHeaders[i] = ("\r\n--" + boundary + "\r\nContent-Type: " + partType + "\r\nContent-Range: "
+                    + range.getContentRange(length) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            total += partHeaders[i].length + range.length();
+        }
+
+        setMimeType("multipart/byteranges; boundary=" + boundary);
+        setContentLength(total);
+
+        for (int i = 0; i < partHeaders.length; i++) {
+            ByteRange range = ranges.get(i);
+
+            write(partHeaders[i]);
+            write(channel, range.getFirst(), range.length());
+        }
+
+        return write(end);
+    }
+
+    /**
+     * Sets the channel of the client to which the files are transferred
+     * directly. The channel must write to the same connection as the output
+     * stream of this context.
+     * 
+     * @param outputChannel
+     *            channel of the client or {@code null} if it isn't known
+     */
+    void setOutputChannel(WritableByteChannel outputChannel) {
+        this.outputChannel = outputChannel;
+    }
+
+    /**
+     * Finishes the response. If the header wasn't written yet it is written
+     * with the length of the buffered body, which is compressed in memory
+     * first if needed. Then the buffered body is written and the compressed
+     * and the chunked body are finished. The output stream isn't closed.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (contentETag && etag == null && buffer != null && !headerWritten && statusCode == DEFAULT_STATUS_CODE) {
+            etag = getContentETag(buffer, buffered);
+
+            if (isNotModified()) {
+                setNotModified();
+            }
+        }
+
+        byte[] compressedBody = null;
+
+        if (!headerWritten && contentLength < 0) {
+            negotiateEncoding(buffered);
+
+            // the whole body is known, so it is compressed at once and its length can be sent
+            if (compressed) {
+                compressedBody = compress(buffer, buffered);
+                buffered = 0;
+                contentLength = compressedBody.length;
+            } else {
+                contentLength = buffered;
+            }
+        }
+
+        if (!headerGenerated) {
+            generateHeader();
+        }
+
+        flushBuffer();
+
+        if (compressedBody != null) {
+            bodyStream.write(compressedBody);
+        }
+
+        if (bodyStream instanceof GzipOutputStream) {
+            ((GzipOutputStream) bodyStream).finish();
+        }
+        if (chunkedStream != null) {
+            chunkedStream.finish();
+        }
+
+        outputStream.flush();
+    }
+
+    /**
+     * Checks whether the connection can be used for another request once this
+     * response is finished. That is the case only if keep-alive was requested
+     * and the length of the body can be determined by the client.
+     * 
+     * @return {@code true} if the connection can be reused; {@code false}
+     *         otherwise
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Checks whether the header was already written to the output stream, so
+     * the client may have received a part of this response.
+     * 
+     * @return {@code true} if the header was written; {@code false} otherwise
+     */
+    boolean isHeaderWritten() {
+        return headerWritten;
+    }
+
+    /**
+     * Sets whether the connection should stay open after this response. If
+     * the length of the body isn't known and the client doesn't support
+     * chunked transfer coding the connection will be closed anyway.
+     * 
+     * @param keepAlive
+     *            {@code true} if the connection should stay open
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change keep-alive once the header is obtained!");
+
+        this.keepAlive = keepAlive;
+        this.connectionManaged = true;
+    }
+
+    /**
+     * Sets the version of the HTTP used by the client (e.g. "HTTP/1.1").
+     * 
+     * @param httpVersion
+     *            the version of the HTTP
+     */
+    public void setHttpVersion(String httpVersion) {
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change HTTP version once the header is obtained!");
+
+        this.httpVersion = Objects.requireNonNull(httpVersion, "You cannot set null as HTTP version!");
+    }
+
+    /**
+     * Sets the length of the body in bytes. If it is set, the response is
+     * sent with a {@code Content-Length} header instead of chunked.
+     * 
+     * @param contentLength
+     *            the length of the body
+     */
+    public void setContentLength(long contentLength) {
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change content length once the header is obtained!");
+
+        this.contentLength = contentLength;
+    }
+
     /**
      * Sets the new encoding.
      * 
@@ -358,27 +781,576 @@ public class RequestContext {
         this.mimeType = mimeType;
     }
 
+    /**
+     * Returns the value of the request header with the specified name or
+     * {@code null} if the request doesn't contain it. Header names are case
+     * insensitive.
+     * 
+     * @param name
+     *            the name of a header
+     * @return value of the header or {@code null} if it doesn't exist
+     * @throws NullPointerException
+     *             if {@code name} parameter is a {@code null} reference
+     */
+    public String getRequestHeader(String name) {
+        Objects.requireNonNull(name, "You cannot use null reference as a name of a header!");
+
+        return requestHeaders.get(name);
+    }
+
+    /**
+     * Sets the headers of the HTTP request. The headers of a
+     * {@link RequestHead} are used as they are, other maps are copied.
+     * 
+     * @param requestHeaders
+     *            map of header names and values
+     */
+    void setRequestHeaders(Map<String, String> requestHeaders) {
+        if (requestHeaders instanceof RequestHead.HeaderMap) {
+            // already case insensitive, and copying would create all strings
+            this.requestHeaders = requestHeaders;
+            return;
+        }
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(requestHeaders);
+
+        this.requestHeaders = headers;
+    }
+
+    /**
+     * Sets the entity tag of the response. It should be quoted, e.g.
+     * {@code "\"v1\""}.
+     * 
+     * @param etag
+     *            the entity tag or {@code null} if the response has none
+     */
+    public void setETag(String etag) {
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change entity tag once the header is obtained!");
+
+        this.etag = etag;
+    }
+
+    /**
+     * Sets the last modified time of the response.
+     * 
+     * @param lastModified
+     *            the last modified time in milliseconds or {@code -1} if it is
+     *            unknown
+     */
+    public void setLastModified(long lastModified) {
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change last modified time once the header is obtained!");
+
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Sets whether the response tells the client that ranges of it can be
+     * requested by {@code Range} header.
+     * 
+     * @param acceptRanges
+     *            {@code true} if ranges can be requested
+     */
+    public void setAcceptRanges(boolean acceptRanges) {
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change accepted ranges once the header is obtained!");
+
+        this.acceptRanges = acceptRanges;
+    }
+
+    /**
+     * Sets the value of the {@code Content-Range} header.
+     * 
+     * @param contentRange
+     *            value of the header
+     */
+    private void setContentRange(String contentRange) {
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change content range once the header is obtained!");
+
+        this.contentRange = contentRange;
+    }
+
+    /**
+     * Enables compression of the body by gzip. Bodies shorter than the
+     * threshold and bodies whose length is set explicitly are never
+     * compressed.
+     * 
+     * @param deflaters
+     *            pool of deflaters or {@code null} to disable compression
+     * @param threshold
+     *            minimum length of a compressed body in bytes
+     */
+    void setCompression(DeflaterPool deflaters, int threshold) {
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change compression once the header is obtained!");
+
+        this.deflaters = deflaters;
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * Marks the body as one of the variants of the entity which was chosen by
+     * the {@code Accept-Encoding} header, e.g. a precompressed file. The body
+     * is already encoded, so it isn't compressed again.
+     * 
+     * @param contentEncoding
+     *            content coding of the body, {@code identity} if it isn't
+     *            encoded
+     * @throws NullPointerException
+     *             if {@code contentEncoding} parameter is a {@code null}
+     *             reference
+     */
+    void setNegotiatedEncoding(String contentEncoding) {
+        Objects.requireNonNull(contentEncoding, "You cannot use null reference as a content coding!");
+        if (headerGenerated)
+            throw new RuntimeException("You cannot change content encoding once the header is obtained!");
+
+        this.negotiated = true;
+        this.vary = true;
+        this.contentEncoding = contentEncoding.equals("identity") ? null : contentEncoding;
+    }
+
+    /**
+     * Checks whether the bodies of the specified MIME type are worth
+     * compressing. That is the case for textual types.
+     * 
+     * @param mimeType
+     *            the MIME type
+     * @return {@code true} if the bodies should be compressed; {@code false}
+     *         otherwise
+     */
+    static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.equals("application/javascript")
+                || mimeType.equals("application/json") || mimeType.equals("application/xml")
+                || mimeType.endsWith("+xml") || mimeType.endsWith("+json");
+    }
+
+    /**
+     * Checks whether the value of {@code Accept-Encoding} header allows gzip.
+     * It does if gzip or {@code *} is listed with a nonzero quality, unless
+     * gzip is explicitly refused.
+     * 
+     * @param acceptEncoding
+     *            value of {@code Accept-Encoding} header or {@code null}
+     * @return {@code true} if the body can be compressed by gzip;
+     *         {@code false} otherwise
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+
+        boolean wildcard = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2).trim()) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                return accepted;
+            } else if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+
+        return wildcard;
+    }
+
+    /**
+     * Sets whether the entity tag of the response is computed from its body.
+     * If the whole body fits into the response buffer and the client already
+     * has the same body, {@link #finish()} sends {@code 304 Not Modified}
+     * instead of it. The body is still produced, but it isn't sent again.
+     * 
+     * @param contentETag
+     *            {@code true} if the entity tag is computed from the body
+     */
+    public void setContentETag(boolean contentETag) {
+        this.contentETag = contentETag;
+    }
+
+    /**
+     * Sets the validators of the response and checks whether the client
+     * already has the same entity. If it does, the status is set to
+     * {@code 304 Not Modified}, everything written is discarded and
+     * {@code true} is returned, so the body doesn't have to be produced at
+     * all.
+     * 
+     * @param etag
+     *            the entity tag or {@code null} if the response has none
+     * @param lastModified
+     *            the last modified time in milliseconds or {@code -1} if it is
+     *            unknown
+     * @return {@code true} if the client has the entity; {@code false}
+     *         otherwise
+     */
+    public boolean checkNotModified(String etag, long lastModified) {
+        setETag(etag);
+        setLastModified(lastModified);
+
+        if (statusCode != DEFAULT_STATUS_CODE || !isNotModified()) {
+            return false;
+        }
+
+        setNotModified();
+        return true;
+    }
+
+    /**
+     * Checks whether the conditional headers of the request match the
+     * validators of the response.
+     * 
+     * @return {@code true} if the client has the entity; {@code false}
+     *         otherwise
+     */
+    private boolean isNotModified() {
+        return isNotModified(requestHeaders.get("If-None-Match"), requestHeaders.get("If-Modified-Since"), etag,
+                lastModified);
+    }
+
+    /**
+     * Checks whether the ranges of the request can be served. That is the case
+     * if the request has no {@code If-Range} header or it matches the
+     * validators of the response. Entity tags are compared strongly, because
+     * parts of different entities must not be combined.
+     * 
+     * @return {@code true} if the ranges can be served; {@code false}
+     *         otherwise
+     */
+    private boolean isRangeFresh() {
+        String ifRange = requestHeaders.get("If-Range");
+        if (ifRange == null)
+            return true;
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            return etag != null && !etag.startsWith("W/") && etag.equals(ifRange);
+        }
+
+        if (lastModified < 0)
+            return false;
+
+        try {
+            return ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond()
+                    == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Turns the response into {@code 304 Not Modified} and discards the
+     * buffered body.
+     */
+    private void setNotModified() {
+        statusCode = NOT_MODIFIED;
+        statusText = "Not Modified";
+        buffered = 0;
+    }
+
+    /**
+     * Checks whether the client already has the entity with specified
+     * validators. {@code If-None-Match} takes precedence over
+     * {@code If-Modified-Since}, and entity tags are compared weakly as it is
+     * allowed for {@code GET} requests.
+     * 
+     * @param ifNoneMatch
+     *            value of {@code If-None-Match} header or {@code null}
+     * @param ifModifiedSince
+     *            value of {@code If-Modified-Since} header or {@code null}
+     * @param etag
+     *            the entity tag or {@code null} if the entity has none
+     * @param lastModified
+     *            the last modified time in milliseconds or {@code -1} if it is
+     *            unknown
+     * @return {@code true} if the client has the entity; {@code false}
+     *         otherwise
+     */
+    static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, String etag, long lastModified) {
+        if (ifNoneMatch != null) {
+            if (etag == null)
+                return false;
+
+            String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+
+                if (candidate.equals("*") || candidate.equals(opaque))
+                    return true;
+            }
+
+            return false;
+        }
+
+        if (ifModifiedSince == null || lastModified < 0)
+            return false;
+
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toEpochSecond();
+            return lastModified / 1000 <= since;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the entity tag computed from the specified bytes of a body.
+     * 
+     * @param body
+     *            array containing the body
+     * @param length
+     *            length of the body
+     * @return the quoted entity tag
+     */
+    private static String getContentETag(byte[] body, int length) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(body, 0, length);
+
+        StringBuilder sb = new StringBuilder("\"");
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Writes the buffered part of the body to the body stream.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private void flushBuffer() throws IOException {
+        if (!headerWritten) {
+            writeHeader();
+        }
+
+        if (buffered > 0) {
+            bodyStream.write(buffer, 0, buffered);
+            buffered = 0;
+        }
+    }
+
+    /**
+     * Fixes the header, so it can't be changed anymore. If the body isn't
+     * buffered the header is written at once.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private void generateHeader() throws IOException {
+        headerGenerated = true;
+        charset = Charset.forName(encoding);
+
+        if (buffer == null) {
+            writeHeader();
+        }
+    }
+
+    /**
+     * Decides how the body is delimited, writes the header to the output
+     * stream and prepares the stream for the body.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private void writeHeader() throws IOException {
+        if (contentLength < 0 && !negotiated) {
+            negotiateEncoding(-1);
+        }
+        if (compressed && etag != null && !etag.startsWith("W/")) {
+            // the compressed body isn't byte for byte the same entity
+            etag = "W/" + etag;
+        }
+
+        boolean chunked = false;
+
+        if (contentLength < 0 && statusCode != NOT_MODIFIED) {
+            if (keepAlive && httpVersion.equals("HTTP/1.1")) {
+                chunked = true;
+            } else {
+                keepAlive = false;
+            }
+        }
+
+        outputStream.write(getHeader(chunked));
+        headerWritten = true;
+        if (chunked) {
+            bodyStream = chunkedStream = new ChunkedOutputStream(outputStream);
+        } else {
+            bodyStream = outputStream;
+        }
+        if (compressed && contentLength < 0) {
+            // a body of known length was already compressed by finish()
+            bodyStream = new GzipOutputStream(bodyStream, deflaters, buffer == null);
+        }
+    }
+
+    /**
+     * Compresses the specified bytes into the gzip format.
+     * 
+     * @param data
+     *            array containing the bytes or {@code null} if there are none
+     * @param length
+     *            number of bytes to be compressed
+     * @return the compressed bytes
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private byte[] compress(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(length / 2 + 32);
+
+        try (GzipOutputStream gzip = new GzipOutputStream(os, deflaters, false)) {
+            if (length > 0) {
+                gzip.write(data, 0, length);
+            }
+        }
+
+        return os.toByteArray();
+    }
+
+    /**
+     * Decides whether the body is compressed. Only successful responses of
+     * textual types whose length isn't set explicitly can be compressed, and
+     * they are if the client accepts gzip and the body isn't shorter than the
+     * threshold.
+     * 
+     * @param length
+     *            length of the body or {@code -1} if it isn't known yet
+     */
+    private void negotiateEncoding(long length) {
+        negotiated = true;
+
+        if (deflaters == null || statusCode != DEFAULT_STATUS_CODE || contentRange != null
+                || !isCompressible(mimeType)) {
+            return;
+        }
+
+        vary = true;
+        compressed = (length < 0 || length >= compressionThreshold)
+                && acceptsGzip(requestHeaders.get("Accept-Encoding"));
+        if (compressed) {
+            contentEncoding = "gzip";
+        }
+    }
+
+    /**
+     * Returns the value of the {@code Content-Type} header. Textual types
+     * are followed by the encoding.
+     * 
+     * @return the content type of the body
+     */
+    private String getContentType() {
+        return mimeType.startsWith("text/") ? mimeType + "; charset=" + encoding : mimeType;
+    }
+
     /**
      * Returns the byte array containing HTML request header with provided
      * parameters and encoded with {@link StandardCharsets#ISO_8859_1} encoding.
      *
+     * @param chunked
+     *            indicates whether the body is sent in chunks
      * @return the byte array containing HTML request header
      */
-    private byte[] getHeader() {
+    private byte[] getHeader(boolean chunked) {
         StringBuilder sb = new StringBuilder();
         final String newLine = "\r\n";
 
         // 1st line
         sb.append("HTTP/1.1 " + statusCode + " " + statusText + newLine);
 
-        // 2nd line
-        sb.append("Content-Type: " + mimeType);
-        if (mimeType.startsWith("text/")) {
-            sb.append("; charset=" + encoding);
+        // 2nd line, a response without a body doesn't describe it
+        if (statusCode != NOT_MODIFIED) {
+            sb.append("Content-Type: " + getContentType() + newLine);
+        }
+
+        appendCookies(sb, outputCookies);
+
+        if (etag != null) {
+            sb.append("ETag: " + etag + newLine);
+        }
+        if (lastModified >= 0) {
+            sb.append("Last-Modified: " + HTTP_DATE.format(Instant.ofEpochMilli(lastModified)) + newLine);
+        }
+        if (acceptRanges) {
+            sb.append("Accept-Ranges: bytes" + newLine);
+        }
+        if (contentRange != null) {
+            sb.append("Content-Range: " + contentRange + newLine);
+        }
+        if (contentEncoding != null) {
+            sb.append("Content-Encoding: " + contentEncoding + newLine);
+        }
+        if (vary) {
+            sb.append("Vary: Accept-Encoding" + newLine);
+        }
+
+        if (statusCode != NOT_MODIFIED) {
+            if (contentLength >= 0) {
+                sb.append("Content-Length: " + contentLength + newLine);
+            } else if (chunked) {
+                sb.append("Transfer-Encoding: chunked" + newLine);
+            }
+        }
+
+        if (connectionManaged) {
+            sb.append("Connection: " + (keepAlive ? "keep-alive" : "close") + newLine);
         }
+
         sb.append(newLine);
 
-        for (RCCookie cookie : outputCookies) {
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the {@code Set-Cookie} header lines for the specified cookies
+     * encoded with {@link StandardCharsets#ISO_8859_1} encoding.
+     *
+     * @param cookies
+     *            cookies to be sent
+     * @return the byte array containing the header lines of the cookies
+     */
+    static byte[] getCookieHeader(List<RCCookie> cookies) {
+        StringBuilder sb = new StringBuilder();
+        appendCookies(sb, cookies);
+
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Appends a {@code Set-Cookie} header line for each of the cookies.
+     *
+     * @param sb
+     *            builder of the header
+     * @param cookies
+     *            cookies to be sent
+     */
+    private static void appendCookies(StringBuilder sb, List<RCCookie> cookies) {
+        final String newLine = "\r\n";
+
+        for (RCCookie cookie : cookies) {
             sb.append("Set-Cookie: " + cookie.name + "=" + cookie.value);
 
             if (cookie.domain != null) {
@@ -396,10 +1368,6 @@ public class RequestContext {
 
             sb.append(newLine);
         }
-
-        sb.append(newLine);
-
-        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
     }
 
     /**
@@ -0,0 +1,656 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * {@code RequestHead} reads the heads of HTTP requests into a reusable buffer
+ * and parses them in place. The request line and the headers are kept only as
+ * offsets into the buffer, so no string is created unless it is asked for.
+ * <p>
+ * The stream is read in bulk. Bytes which follow the head belong to the next
+ * request of the same connection, so they are kept for the next
+ * {@link #read(InputStream)}. A head, and everything obtained from it, is
+ * valid only until the next head is read.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+final class RequestHead {
+
+    /** Maximum size of a request head in bytes. */
+    static final int MAX_SIZE = 16384;
+    /** Initial size of the buffer. */
+    private static final int INITIAL_SIZE = 1024;
+    /** Number of offsets kept for each header. */
+    private static final int HEADER_FIELDS = 4;
+
+    /** Buffer containing the head and possibly the following bytes. */
+    private byte[] buffer;
+    /** Number of bytes in the buffer. */
+    private int limit;
+    /** Position after the end of the current head or {@code 0} if there isn't one. */
+    private int end;
+    /** Position from which the end of the head is searched for. */
+    private int scanned;
+
+    /** Start of the method. */
+    private int methodStart;
+    /** End of the method. */
+    private int methodEnd;
+    /** Start of the request target. */
+    private int targetStart;
+    /** End of the request target. */
+    private int targetEnd;
+    /** Start of the version. */
+    private int versionStart;
+    /** End of the version. */
+    private int versionEnd;
+    /** Offsets of name start, name end, value start and value end of every header. */
+    private int[] headers = new int[16 * HEADER_FIELDS];
+    /** Number of headers. */
+    private int headerCount;
+    /** Map view of the headers. */
+    private final Map<String, String> headerMap = new HeaderMap();
+
+    /**
+     * Constructs a new empty {@code RequestHead}.
+     */
+    RequestHead() {
+        this.buffer = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Constructs a new {@code RequestHead} whose buffer initially contains the
+     * specified bytes. The array is used as the buffer, so it isn't copied.
+     *
+     * @param data
+     *            bytes already read from the connection
+     */
+    RequestHead(byte[] data) {
+        this.buffer = data.length > 0 ? data : new byte[INITIAL_SIZE];
+        this.limit = data.length;
+    }
+
+    /**
+     * Reads the next request head. Bytes which are already in the buffer are
+     * used first and the stream is read only if they don't contain a whole
+     * head.
+     *
+     * @param in
+     *            input stream of the connection
+     * @return {@code true} if a head has been read; {@code false} if the
+     *         stream ended first
+     * @throws IOException
+     *             if an I/O error occurs or the head is larger than
+     *             {@value #MAX_SIZE} bytes
+     */
+    boolean read(InputStream in) throws IOException {
+        if (end > 0) {
+            System.arraycopy(buffer, end, buffer, 0, limit - end);
+            limit -= end;
+            end = 0;
+        }
+        scanned = 0;
+
+        int found;
+        while ((found = findEnd()) < 0) {
+            if (limit == buffer.length) {
+                if (buffer.length >= MAX_SIZE)
+                    throw new IOException("Request head is larger than " + MAX_SIZE + " bytes!");
+
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_SIZE));
+            }
+
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0)
+                return false;
+
+            limit += read;
+        }
+
+        end = found;
+        parse();
+        return true;
+    }
+
+    /**
+     * Returns the bytes following the current head, which belong to the next
+     * request.
+     *
+     * @return copy of the remaining bytes
+     */
+    byte[] remaining() {
+        return Arrays.copyOfRange(buffer, end, limit);
+    }
+
+    /**
+     * Searches the new bytes of the buffer for the empty line that ends the
+     * head.
+     *
+     * @return position after the empty line or {@code -1} if it isn't in the
+     *         buffer
+     */
+    private int findEnd() {
+        for (int i = Math.max(1, scanned); i < limit; i++) {
+            if (buffer[i] != '\n')
+                continue;
+
+            if (buffer[i - 1] == '\n' || (i >= 2 && buffer[i - 1] == '\r' && buffer[i - 2] == '\n')) {
+                return i + 1;
+            }
+        }
+
+        scanned = limit;
+        return -1;
+    }
+
+    /**
+     * Finds the offsets of the request line and of the headers. Folded header
+     * lines are joined to the previous header by overwriting the line breaks
+     * with spaces.
+     */
+    private void parse() {
+        methodStart = methodEnd = targetStart = targetEnd = versionStart = versionEnd = -1;
+        headerCount = 0;
+
+        int pos = 0;
+        while (pos < end && (buffer[pos] == '\r' || buffer[pos] == '\n')) {
+            pos++;
+        }
+
+        int lineEnd = lineEnd(pos);
+        parseRequestLine(pos, lineEnd);
+        pos = nextLine(lineEnd);
+
+        while (pos < end) {
+            lineEnd = lineEnd(pos);
+            if (lineEnd == pos)
+                break;
+
+            byte first = buffer[pos];
+            if ((first == ' ' || first == '\t') && headerCount > 0) {
+                int last = (headerCount - 1) * HEADER_FIELDS;
+                for (int i = headers[last + 3]; i < pos; i++) {
+                    buffer[i] = ' ';
+                }
+                headers[last + 3] = trimEnd(pos, lineEnd);
+            } else {
+                int colon = indexOf(':', pos, lineEnd);
+                if (colon > pos) {
+                    addHeader(pos, trimEnd(pos, colon), trimStart(colon + 1, lineEnd), trimEnd(colon + 1, lineEnd));
+                }
+            }
+
+            pos = nextLine(lineEnd);
+        }
+    }
+
+    /**
+     * Finds the offsets of the method, the request target and the version.
+     * The line is valid only if they are separated by single spaces.
+     *
+     * @param start
+     *            start of the request line
+     * @param lineEnd
+     *            end of the request line
+     */
+    private void parseRequestLine(int start, int lineEnd) {
+        int first = indexOf(' ', start, lineEnd);
+        int second = first < 0 ? -1 : indexOf(' ', first + 1, lineEnd);
+
+        if (first <= start || second <= first + 1 || second + 1 >= lineEnd
+                || indexOf(' ', second + 1, lineEnd) >= 0) {
+            return;
+        }
+
+        methodStart = start;
+        methodEnd = first;
+        targetStart = first + 1;
+        targetEnd = second;
+        versionStart = second + 1;
+        versionEnd = lineEnd;
+    }
+
+    /**
+     * Stores the offsets of a header.
+     *
+     * @param nameStart
+     *            start of the name
+     * @param nameEnd
+     *            end of the name
+     * @param valueStart
+     *            start of the value
+     * @param valueEnd
+     *            end of the value
+     */
+    private void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int index = headerCount * HEADER_FIELDS;
+        if (index == headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+
+        headers[index] = nameStart;
+        headers[index + 1] = nameEnd;
+        headers[index + 2] = valueStart;
+        headers[index + 3] = Math.max(valueStart, valueEnd);
+        headerCount++;
+    }
+
+    /**
+     * Checks whether the request line has a method, a target and a version.
+     *
+     * @return {@code true} if the request line is valid; {@code false}
+     *         otherwise
+     */
+    boolean isValid() {
+        return methodStart >= 0;
+    }
+
+    /**
+     * Returns the method of the request. Common methods are returned without
+     * creating a string.
+     *
+     * @return the method or {@code null} if the request line isn't valid
+     */
+    String getMethod() {
+        return isValid() ? string(methodStart, methodEnd, "GET", "HEAD", "POST") : null;
+    }
+
+    /**
+     * Returns the request target, i.e. the path with the query.
+     *
+     * @return the request target or {@code null} if the request line isn't
+     *         valid
+     */
+    String getTarget() {
+        return isValid() ? string(targetStart, targetEnd) : null;
+    }
+
+    /**
+     * Returns the HTTP version of the request. Common versions are returned
+     * without creating a string.
+     *
+     * @return the version or {@code null} if the request line isn't valid
+     */
+    String getVersion() {
+        return isValid() ? string(versionStart, versionEnd, "HTTP/1.1", "HTTP/1.0") : null;
+    }
+
+    /**
+     * Returns the number of headers.
+     *
+     * @return the number of headers
+     */
+    int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Returns the name of the header with specified index.
+     *
+     * @param index
+     *            index of a header
+     * @return the name of the header
+     */
+    String getHeaderName(int index) {
+        return string(headers[index * HEADER_FIELDS], headers[index * HEADER_FIELDS + 1]);
+    }
+
+    /**
+     * Returns the value of the header with specified index.
+     *
+     * @param index
+     *            index of a header
+     * @return the value of the header
+     */
+    String getHeaderValue(int index) {
+        return string(headers[index * HEADER_FIELDS + 2], headers[index * HEADER_FIELDS + 3]);
+    }
+
+    /**
+     * Returns the value of the first header with the specified name, which is
+     * case insensitive.
+     *
+     * @param name
+     *            name of a header
+     * @return the value of the header or {@code null} if there isn't one
+     */
+    String getHeader(String name) {
+        int index = indexOfHeader(name, 0);
+
+        return index < 0 ? null : getHeaderValue(index);
+    }
+
+    /**
+     * Returns the value of the cookie with specified name from the
+     * {@code Cookie} headers. Only the value of the found cookie is turned
+     * into a string.
+     *
+     * @param name
+     *            name of a cookie
+     * @return the value of the cookie or {@code null} if there isn't one
+     */
+    String getCookie(String name) {
+        for (int index = indexOfHeader("Cookie", 0); index >= 0; index = indexOfHeader("Cookie", index + 1)) {
+            int pos = headers[index * HEADER_FIELDS + 2];
+            int valueEnd = headers[index * HEADER_FIELDS + 3];
+
+            while (pos < valueEnd) {
+                int pairEnd = indexOf(';', pos, valueEnd);
+                if (pairEnd < 0) {
+                    pairEnd = valueEnd;
+                }
+
+                int start = trimStart(pos, pairEnd);
+                int equals = indexOf('=', start, pairEnd);
+                if (equals > start && matches(name, start, trimEnd(start, equals), false)) {
+                    return string(trimStart(equals + 1, pairEnd), trimEnd(equals + 1, pairEnd));
+                }
+
+                pos = pairEnd + 1;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks whether the headers with the specified name list the token, e.g.
+     * whether {@code Connection: close, TE} contains {@code close}. Headers are
+     * lists of tokens separated by commas, and a header may be repeated; both
+     * names and tokens are case insensitive.
+     *
+     * @param name
+     *            name of a header
+     * @param token
+     *            the token
+     * @return {@code true} if the token is listed; {@code false} otherwise
+     */
+    boolean hasToken(String name, String token) {
+        for (int index = indexOfHeader(name, 0); index >= 0; index = indexOfHeader(name, index + 1)) {
+            int pos = headers[index * HEADER_FIELDS + 2];
+            int valueEnd = headers[index * HEADER_FIELDS + 3];
+
+            while (pos < valueEnd) {
+                int tokenEnd = indexOf(',', pos, valueEnd);
+                if (tokenEnd < 0) {
+                    tokenEnd = valueEnd;
+                }
+
+                int start = trimStart(pos, tokenEnd);
+                if (matches(token, start, trimEnd(start, tokenEnd), true))
+                    return true;
+
+                pos = tokenEnd + 1;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the headers as a map whose keys are case insensitive. The map is
+     * a read-only view of this head, so it changes when the next head is read.
+     * If a header is repeated, the map contains its first value.
+     *
+     * @return map view of the headers
+     */
+    Map<String, String> getHeaders() {
+        return headerMap;
+    }
+
+    /**
+     * Returns the index of the first header with the specified name from the
+     * specified index on.
+     *
+     * @param name
+     *            name of a header
+     * @param from
+     *            index of the first checked header
+     * @return index of the header or {@code -1} if there isn't one
+     */
+    private int indexOfHeader(String name, int from) {
+        for (int i = from; i < headerCount; i++) {
+            if (matches(name, headers[i * HEADER_FIELDS], headers[i * HEADER_FIELDS + 1], true))
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks whether the bytes between the specified positions are the same
+     * as the characters of the text.
+     *
+     * @param text
+     *            the text
+     * @param start
+     *            start of the bytes
+     * @param end
+     *            end of the bytes
+     * @param ignoreCase
+     *            indicates whether ASCII letters are compared case
+     *            insensitively
+     * @return {@code true} if they are the same; {@code false} otherwise
+     */
+    private boolean matches(String text, int start, int end, boolean ignoreCase) {
+        if (end - start != text.length())
+            return false;
+
+        for (int i = 0; i < text.length(); i++) {
+            int b = buffer[start + i] & 0xFF;
+            int c = text.charAt(i);
+
+            if (b != c && !(ignoreCase && toLowerCase(b) == toLowerCase(c)))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the bytes between the specified positions as a string. If they
+     * are the same as one of the known strings, that string is returned.
+     *
+     * @param start
+     *            start of the bytes
+     * @param end
+     *            end of the bytes
+     * @param known
+     *            strings which are returned instead of a new one
+     * @return the string
+     */
+    private String string(int start, int end, String... known) {
+        for (String candidate : known) {
+            if (matches(candidate, start, end, false))
+                return candidate;
+        }
+
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the position of the line break that ends the line, excluding
+     * the carriage return.
+     *
+     * @param start
+     *            start of the line
+     * @return the end of the line
+     */
+    private int lineEnd(int start) {
+        int newLine = indexOf('\n', start, end);
+        if (newLine < 0) {
+            newLine = end;
+        }
+
+        return newLine > start && buffer[newLine - 1] == '\r' ? newLine - 1 : newLine;
+    }
+
+    /**
+     * Returns the start of the line following the line with specified end.
+     *
+     * @param lineEnd
+     *            end of a line
+     * @return start of the next line
+     */
+    private int nextLine(int lineEnd) {
+        if (lineEnd < end && buffer[lineEnd] == '\r') {
+            lineEnd++;
+        }
+
+        return lineEnd + 1;
+    }
+
+    /**
+     * Returns the position of the first occurrence of the byte between the
+     * specified positions.
+     *
+     * @param b
+     *            the byte
+     * @param start
+     *            start of the searched bytes
+     * @param end
+     *            end of the searched bytes
+     * @return position of the byte or {@code -1} if it isn't found
+     */
+    private int indexOf(char b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == b)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Skips the spaces and tabs at the start of the range.
+     *
+     * @param start
+     *            start of the range
+     * @param end
+     *            end of the range
+     * @return position of the first other byte or {@code end}
+     */
+    private int trimStart(int start, int end) {
+        while (start < end && (buffer[start] == ' ' || buffer[start] == '\t')) {
+            start++;
+        }
+
+        return start;
+    }
+
+    /**
+     * Skips the spaces and tabs at the end of the range.
+     *
+     * @param start
+     *            start of the range
+     * @param end
+     *            end of the range
+     * @return position after the last other byte or {@code start}
+     */
+    private int trimEnd(int start, int end) {
+        while (end > start && (buffer[end - 1] == ' ' || buffer[end - 1] == '\t')) {
+            end--;
+        }
+
+        return end;
+    }
+
+    /**
+     * Converts an ASCII letter to lower case.
+     *
+     * @param c
+     *            a character
+     * @return the lower case letter or the same character
+     */
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * {@code HeaderMap} is a read-only map view of the headers. Looking up a
+     * header scans the offsets and creates only the string of the value.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    class HeaderMap extends AbstractMap<String, String> {
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? getHeader((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && indexOfHeader((String) key, 0) >= 0;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+
+                        /** Index of the next header. */
+                        private int next = advance(0);
+
+                        /**
+                         * Returns the index of the first header from the
+                         * specified one on that isn't a repeated header.
+                         *
+                         * @param index
+                         *            index of a header
+                         * @return index of the header or {@code headerCount}
+                         */
+                        private int advance(int index) {
+                            while (index < headerCount
+                                    && indexOfHeader(getHeaderName(index), 0) != index) {
+                                index++;
+                            }
+                            return index;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < headerCount;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+
+                            Entry<String, String> entry = new SimpleImmutableEntry<>(getHeaderName(next),
+                                    getHeaderValue(next));
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Iterator<?> it = iterator(); it.hasNext(); it.next()) {
+                        size++;
+                    }
+                    return size;
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@code RequestHeadBenchmark} is demonstrative class that measures how fast
+ * {@link RequestHead} parses pipelined request heads, both typical browser
+ * heads and heads with about 8 kilobytes of headers.
+ * <p>
+ * Command-line argument is the number of heads parsed per run. If none is
+ * given, 100000 heads are parsed.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see RequestHead
+ */
+public class RequestHeadBenchmark {
+
+    /** Head which a browser sends for a page. */
+    private static final String TYPICAL = "GET /scripts/osnovni.smscr?name=Karlo&age=25 HTTP/1.1\r\n"
+            + "Host: localhost:5721\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:60.0) Gecko/20100101 Firefox/60.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate\r\n"
+            + "Cookie: theme=dark; sid=QWERTYUIOPASDFGHJKLZ\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "\r\n";
+
+    /** Number of measured runs per head. */
+    private static final int RUNS = 10;
+
+    /**
+     * Starting point of a program.
+     *
+     * @param args
+     *            Command-line argument
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        run("typical", TYPICAL, count);
+        run("8 KB", large(8 * 1024), count / 10);
+    }
+
+    /**
+     * Measures parsing of the head and prints the result.
+     *
+     * @param name
+     *            name of the head
+     * @param head
+     *            the head
+     * @param count
+     *            number of heads parsed per run
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private static void run(String name, String head, int count) throws IOException {
+        byte[] data = head.getBytes(StandardCharsets.ISO_8859_1);
+
+        for (int i = 0; i < 3; i++) {
+            parse(data, count);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            parse(data, count);
+        }
+        double nanos = (double) (System.nanoTime() - start) / RUNS / count;
+
+        System.out.printf("%s (%d bytes): %.0f ns per head (%.0f MB/s)%n", name, data.length, nanos,
+                data.length / nanos * 1e3);
+    }
+
+    /**
+     * Generates a head with at least specified number of bytes.
+     *
+     * @param size
+     *            minimal number of bytes
+     * @return generated head
+     */
+    private static String large(int size) {
+        StringBuilder sb = new StringBuilder(TYPICAL.substring(0, TYPICAL.length() - 2));
+
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append("X-Custom-Header-").append(i).append(": value-of-a-custom-header-").append(i).append("\r\n");
+        }
+
+        return sb.append("\r\n").toString();
+    }
+
+    /**
+     * Parses the head specified number of times from one connection, reading
+     * the headers which the server reads for every request.
+     *
+     * @param data
+     *            the head
+     * @param count
+     *            number of heads
+     * @return number of heads which had a session cookie
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private static int parse(byte[] data, int count) throws IOException {
+        InputStream is = new RepeatingInputStream(data, count);
+        RequestHead head = new RequestHead();
+        int sessions = 0;
+
+        while (head.read(is)) {
+            if (head.getTarget() != null && head.getHeader("Connection") != null && head.getCookie("sid") != null) {
+                sessions++;
+            }
+        }
+
+        return sessions;
+    }
+
+    /**
+     * Input stream which returns the same data specified number of times,
+     * like a client which pipelines its requests.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    private static class RepeatingInputStream extends InputStream {
+
+        /** Current copy of the data. */
+        private ByteArrayInputStream current;
+        /** The data. */
+        private final byte[] data;
+        /** Number of copies still to be returned. */
+        private int remaining;
+
+        /**
+         * Constructs a new {@code RepeatingInputStream}.
+         *
+         * @param data
+         *            the data
+         * @param count
+         *            number of copies
+         */
+        RepeatingInputStream(byte[] data, int count) {
+            this.data = data;
+            this.remaining = count;
+            this.current = new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (current.available() == 0) {
+                if (remaining == 0)
+                    return -1;
+
+                remaining--;
+                current = new ByteArrayInputStream(data);
+            }
+
+            return current.read(b, off, len);
+        }
+
+    }
+
+}
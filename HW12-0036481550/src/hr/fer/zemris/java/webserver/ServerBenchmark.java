@@ -0,0 +1,269 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@code ServerBenchmark} measures how fast the {@link SmartHttpServer} serves
+ * a number of clients that are all connected at the same time.
+ * <p>
+ * Every client opens its connection first, then all of them send a request
+ * for the same path and finally the responses are read. The server is started
+ * in this process for every combination of the given configurations.
+ * <p>
+ * Command-line arguments are the path to the configuration file, the requested
+ * path and any number of {@code key=value1,value2} pairs. Key {@code clients}
+ * sets the numbers of concurrent clients, key {@code generate} creates the
+ * requested file with the given number of bytes in the document root for the
+ * duration of the benchmark and every other key overrides the property of the
+ * server, e.g.
+ * {@code config/server.properties /index.html clients=1000,10000 server.executor=platform,virtual}
+ * or {@code config/server.properties /large.bin clients=4 generate=268435456}
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+public class ServerBenchmark {
+
+    /** Number of threads which read the responses. */
+    private static final int READERS = 32;
+
+    /**
+     * Starting point of a program.
+     *
+     * @param args
+     *            Command-line argument
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("You should input a path to the configuration file and a requested path!");
+            return;
+        }
+
+        Properties properties = new Properties();
+        properties.load(Files.newInputStream(Paths.get(args[0])));
+
+        String path = args[1];
+        List<String> keys = new ArrayList<>();
+        List<String[]> values = new ArrayList<>();
+        String[] clients = { "1000", "10000" };
+        long generate = -1;
+
+        for (int i = 2; i < args.length; i++) {
+            String[] pair = args[i].split("=", 2);
+            if (pair[0].equals("clients")) {
+                clients = pair[1].split(",");
+            } else if (pair[0].equals("generate")) {
+                generate = Long.parseLong(pair[1].trim());
+            } else {
+                keys.add(pair[0]);
+                values.add(pair[1].split(","));
+            }
+        }
+
+        if (generate < 0) {
+            run(properties, path, clients, keys, values, 0);
+            return;
+        }
+
+        Path file = Paths.get(properties.getProperty("server.documentRoot").trim()).resolve(path.substring(1));
+        generate(file, generate);
+        try {
+            run(properties, path, clients, keys, values, 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Creates a file with the specified number of bytes.
+     *
+     * @param file
+     *            path to the file
+     * @param size
+     *            number of bytes
+     * @throws IOException
+     *             if the file couldn't be written
+     */
+    private static void generate(Path file, long size) throws IOException {
+        byte[] block = new byte[1 << 20];
+        new Random(size).nextBytes(block);
+
+        try (OutputStream os = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                os.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for every combination of the values of the
+     * properties from the specified index onwards.
+     *
+     * @param properties
+     *            configuration of the server
+     * @param path
+     *            requested path
+     * @param clients
+     *            numbers of concurrent clients
+     * @param keys
+     *            names of the overridden properties
+     * @param values
+     *            values of the overridden properties
+     * @param index
+     *            index of the property to be set
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    private static void run(Properties properties, String path, String[] clients, List<String> keys,
+            List<String[]> values, int index) throws Exception {
+        if (index < keys.size()) {
+            for (String value : values.get(index)) {
+                properties.setProperty(keys.get(index), value);
+                run(properties, path, clients, keys, values, index + 1);
+            }
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys) {
+            sb.append(key).append('=').append(properties.getProperty(key)).append(' ');
+        }
+
+        for (String count : clients) {
+            int n = Integer.parseInt(count.trim());
+            SmartHttpServer server = new SmartHttpServer(properties);
+            server.start();
+
+            try {
+                InetSocketAddress address = new InetSocketAddress(
+                        properties.getProperty("server.address").trim(),
+                        Integer.parseInt(properties.getProperty("server.port").trim()));
+                awaitServer(address);
+
+                long[] result = measure(address, path, n);
+
+                System.out.printf("%sclients=%d: %d/%d responses, %d bytes in %d ms (%.0f req/s)%n",
+                        sb, n, result[0], n, result[1], result[2], result[0] * 1000.0 / Math.max(1, result[2]));
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * Waits until the server accepts connections.
+     *
+     * @param address
+     *            address of the server
+     * @throws InterruptedException
+     *             if the thread is interrupted
+     */
+    private static void awaitServer(InetSocketAddress address) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Connects the specified number of clients, sends their requests and
+     * reads the responses.
+     *
+     * @param address
+     *            address of the server
+     * @param path
+     *            requested path
+     * @param clients
+     *            number of concurrent clients
+     * @return number of complete responses, number of bytes read and elapsed
+     *         time in milliseconds
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    private static long[] measure(InetSocketAddress address, String path, int clients) throws Exception {
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: benchmark\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        SocketChannel[] channels = new SocketChannel[clients];
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < clients; i++) {
+            channels[i] = SocketChannel.open(address);
+        }
+        for (SocketChannel channel : channels) {
+            channel.write(ByteBuffer.wrap(request));
+        }
+
+        ExecutorService readers = Executors.newFixedThreadPool(Math.min(READERS, clients));
+        List<Future<long[]>> futures = new ArrayList<>();
+
+        for (int r = 0; r < READERS && r < clients; r++) {
+            final int first = r;
+            futures.add(readers.submit(() -> {
+                long[] counts = new long[2];
+                byte[] buffer = new byte[8192];
+
+                for (int i = first; i < clients; i += READERS) {
+                    try (InputStream is = channels[i].socket().getInputStream()) {
+                        long read = 0;
+                        int n;
+                        while ((n = is.read(buffer)) != -1) {
+                            read += n;
+                        }
+
+                        if (read > 0) {
+                            counts[0]++;
+                            counts[1] += read;
+                        }
+                    } catch (IOException ignorable) {
+                    }
+                }
+
+                return counts;
+            }));
+        }
+
+        long[] result = new long[3];
+        for (Future<long[]> future : futures) {
+            long[] counts = future.get();
+            result[0] += counts[0];
+            result[1] += counts[1];
+        }
+        result[2] = (System.nanoTime() - start) / 1_000_000;
+
+        readers.shutdown();
+        Arrays.stream(channels).forEach(channel -> {
+            try {
+                channel.close();
+            } catch (IOException ignorable) {
+            }
+        });
+
+        return result;
+    }
+
+}
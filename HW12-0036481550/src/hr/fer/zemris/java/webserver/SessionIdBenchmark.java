@@ -0,0 +1,131 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * {@code SessionIdBenchmark} is demonstrative class that measures how many
+ * session IDs concurrent threads generate per second, with
+ * {@link SessionIdGenerator} and with a shared {@link Random} as the server
+ * did before.
+ * <p>
+ * Command-line arguments are the number of threads and the number of IDs each
+ * thread generates. If none are given, 32 threads generate 100000 IDs each.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @see SessionIdGenerator
+ */
+public class SessionIdBenchmark {
+
+    /** Random number generator shared by all threads. */
+    private static final Random SHARED_RANDOM = new Random();
+
+    /** Number of measured runs per generator. */
+    private static final int RUNS = 5;
+
+    /**
+     * Starting point of a program.
+     *
+     * @param args
+     *            Command-line argument
+     * @throws InterruptedException
+     *             if the main thread is interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        run("shared Random", SessionIdBenchmark::sharedRandom, threads, count);
+        run("SessionIdGenerator", SessionIdGenerator::generate, threads, count);
+    }
+
+    /**
+     * Measures the generator and prints the result.
+     *
+     * @param name
+     *            name of the generator
+     * @param generator
+     *            the generator
+     * @param threads
+     *            number of threads
+     * @param count
+     *            number of IDs generated by each thread
+     * @throws InterruptedException
+     *             if the main thread is interrupted
+     */
+    private static void run(String name, Supplier<String> generator, int threads, int count)
+            throws InterruptedException {
+        measure(generator, threads, count);
+
+        long nanos = 0;
+        for (int i = 0; i < RUNS; i++) {
+            nanos += measure(generator, threads, count);
+        }
+        double seconds = nanos / 1e9 / RUNS;
+
+        System.out.printf("%s: %.0f IDs/s with %d threads%n", name, threads * count / seconds, threads);
+    }
+
+    /**
+     * Starts the threads at once and returns the time until all of them have
+     * generated their IDs.
+     *
+     * @param generator
+     *            the generator
+     * @param threads
+     *            number of threads
+     * @param count
+     *            number of IDs generated by each thread
+     * @return elapsed time in nanoseconds
+     * @throws InterruptedException
+     *             if the main thread is interrupted
+     */
+    private static long measure(Supplier<String> generator, int threads, int count) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                int length = 0;
+                for (int j = 0; j < count; j++) {
+                    length += generator.get().length();
+                }
+                if (length == 0) {
+                    System.out.println();
+                }
+                done.countDown();
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * Generates a session ID of 20 letters by a shared random number
+     * generator, as the server did before.
+     *
+     * @return the session ID
+     */
+    private static String sharedRandom() {
+        StringBuilder sb = new StringBuilder();
+
+        SHARED_RANDOM.ints(65, 90)
+                .limit(20)
+                .forEach(c -> sb.append((char) c));
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,115 @@
+package hr.fer.zemris.java.webserver;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * {@code SessionIdGenerator} generates unpredictable session IDs. An ID
+ * consists of {@value #RANDOM_BYTES} random bytes encoded in the base32
+ * alphabet ({@code A-Z} and {@code 2-7}), so it is {@value #LENGTH} characters
+ * long and carries 128 random bits.
+ * <p>
+ * Random bytes come from a pool of {@link SecureRandom} generators, and every
+ * thread uses the generator picked by its ID, so concurrent threads rarely
+ * share a generator. Unlike a generator per thread, the pool doesn't seed a
+ * new generator for every short-lived thread.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+final class SessionIdGenerator {
+
+    /** Number of random bytes of a session ID. */
+    static final int RANDOM_BYTES = 16;
+    /** Number of characters of a session ID. */
+    static final int LENGTH = (RANDOM_BYTES * 8 + 4) / 5;
+    /** Characters of the base32 alphabet. */
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+
+    /** Pool of generators; its size is a power of two. */
+    private static final SecureRandom[] GENERATORS = createGenerators();
+
+    /**
+     * Prevents the instantiation of this class.
+     */
+    private SessionIdGenerator() {
+    }
+
+    /**
+     * Creates the pool of generators, with at least two generators for each
+     * available processor.
+     *
+     * @return the pool of generators
+     */
+    private static SecureRandom[] createGenerators() {
+        int size = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1);
+        SecureRandom seeds = new SecureRandom();
+        SecureRandom[] generators = new SecureRandom[size];
+
+        for (int i = 0; i < size; i++) {
+            try {
+                // unlike the native generator, it doesn't share a global lock
+                generators[i] = SecureRandom.getInstance("SHA1PRNG");
+                generators[i].setSeed(seeds.generateSeed(32));
+            } catch (NoSuchAlgorithmException e) {
+                generators[i] = new SecureRandom();
+            }
+        }
+
+        return generators;
+    }
+
+    /**
+     * Generates a new session ID.
+     *
+     * @return the session ID
+     */
+    static String generate() {
+        byte[] bytes = new byte[RANDOM_BYTES];
+        GENERATORS[(int) Thread.currentThread().getId() & (GENERATORS.length - 1)].nextBytes(bytes);
+
+        char[] chars = new char[LENGTH];
+        int buffer = 0;
+        int bits = 0;
+        int length = 0;
+
+        for (byte b : bytes) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bits += 8;
+
+            while (bits >= 5) {
+                bits -= 5;
+                chars[length++] = ALPHABET[(buffer >>> bits) & 31];
+            }
+        }
+        if (bits > 0) {
+            chars[length++] = ALPHABET[(buffer << (5 - bits)) & 31];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Checks whether the session ID consists only of characters of the
+     * alphabet. IDs generated by older versions of the server, which consist
+     * of letters only, are valid as well.
+     *
+     * @param sid
+     *            session ID
+     * @return {@code true} if the session ID is valid; {@code false}
+     *         otherwise
+     */
+    static boolean isValid(String sid) {
+        if (sid == null || sid.isEmpty() || sid.length() > LENGTH)
+            return false;
+
+        for (int i = 0, n = sid.length(); i < n; i++) {
+            char c = sid.charAt(i);
+            if ((c < 'A' || c > 'Z') && (c < '2' || c > '7'))
+                return false;
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,608 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@code SessionLog} persists the sessions of a {@link SessionStore} in an
+ * append-only log, so they survive a restart of the server. The log is a
+ * memory-mapped file of fixed capacity which records every change of a
+ * persistent parameter and every removal of a session, followed by the time
+ * until the session is valid. When the server starts, the log is replayed
+ * into the store, and the sessions which haven't expired in the meantime are
+ * valid until the logged time. Accesses which don't change a session aren't
+ * logged one by one; the validity of all sessions is logged when the log is
+ * compacted or closed.
+ * <p>
+ * Requests never write to the log. They only put a change into a lock-free
+ * queue, and a background thread writes the current value of the changed
+ * parameter, so many changes of a parameter may be written as one and the
+ * log always ends with the latest value.
+ * <p>
+ * When the log is full, it is compacted: a new log containing only the live
+ * sessions is written to the other of two files, the specified path and the
+ * path with the {@value #ALTERNATE} suffix. Each compaction increments the
+ * generation in the header of the log, and the header is made valid only
+ * after the rest of the log was flushed to the disk, so the file with the
+ * latest valid generation is the current log. The file of the old log isn't
+ * moved or deleted while it may still be mapped. The log is compacted once
+ * more after it is replayed.
+ * <p>
+ * A closed log can be started again, e.g. when the server is restarted in the
+ * same virtual machine; it is then compacted from the sessions in the store.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+public class SessionLog implements SessionStore.Listener {
+
+    /** Magic number at the beginning of a log, {@code "SLG2"}. */
+    private static final int MAGIC = 0x534c4732;
+    /** Length of the header: magic number and generation. */
+    private static final int HEADER = 12;
+    /** Suffix of the file to which every other generation is written. */
+    public static final String ALTERNATE = ".1";
+    /** End of the records; the rest of the log is empty. */
+    private static final byte END = 0;
+    /** Record of a set parameter: session ID, name and value. */
+    private static final byte PUT = 1;
+    /** Record of a removed parameter: session ID and name. */
+    private static final byte REMOVE = 2;
+    /** Record of a removed session: session ID. */
+    private static final byte CLOSE = 3;
+    /** Record of the validity of a session: session ID and time in milliseconds until it is valid. */
+    private static final byte TOUCH = 4;
+    /** Number of milliseconds between two flushes of the log to the disk. */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /** Path of the log. */
+    private final Path path;
+    /** The logged store. */
+    private final SessionStore store;
+    /** Changes which haven't been written yet. */
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    /** Minimum capacity of the log in bytes. */
+    private final int minCapacity;
+    /** The mapped log; {@code null} while the log is closed. */
+    private MappedByteBuffer buffer;
+    /** Generation of the current log or {@code -1} if there is none. */
+    private long generation;
+    /** Number of compactions so far. */
+    private int compactions;
+    /** Thread writing the changes. */
+    private Thread writer;
+    /** Indicates whether the log is closed. */
+    private volatile boolean closed;
+    /** Indicates whether the log is closed when the virtual machine shuts down. */
+    private boolean hooked;
+
+    /**
+     * Constructs a new {@code SessionLog} of the specified store. The existing
+     * log is replayed into the store and compacted, sessions which have
+     * expired in the meantime are dropped, and the changes of the
+     * store are logged from now on; they are written once the log is
+     * {@linkplain #start() started}.
+     *
+     * @param path
+     *            path of the log
+     * @param capacity
+     *            minimum capacity of the log in bytes
+     * @param store
+     *            the logged store
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws IllegalArgumentException
+     *             if the capacity is less than 1 kilobyte
+     */
+    public SessionLog(Path path, int capacity, SessionStore store) throws IOException {
+        if (capacity < 1024)
+            throw new IllegalArgumentException("Capacity of the log should be at least 1024 bytes: " + capacity);
+
+        this.path = path.toAbsolutePath();
+        this.minCapacity = capacity;
+        this.store = store;
+
+        long now = System.currentTimeMillis();
+        generation = generation(this.path);
+        replay(this.path).forEach((sid, session) -> store.restore(sid, session.parameters, now, session.validUntil));
+
+        compact();
+        store.setListener(this);
+    }
+
+    /**
+     * Reads the sessions recorded in the current log. A record which was only
+     * partly written when the server stopped is ignored.
+     *
+     * @param path
+     *            path of the log
+     * @return map of session IDs and the logged sessions
+     * @throws IOException
+     *             if an I/O error occurs or the files aren't a session log
+     */
+    static Map<String, LoggedSession> replay(Path path) throws IOException {
+        Map<String, LoggedSession> sessions = new LinkedHashMap<>();
+        long generation = generation(path);
+        if (generation < 0)
+            return sessions;
+
+        ByteBuffer log;
+        try (FileChannel channel = FileChannel.open(file(path, generation), StandardOpenOption.READ)) {
+            log = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        log.position(HEADER);
+
+        try {
+            for (byte type; log.hasRemaining() && (type = log.get()) != END;) {
+                String sid = readString(log);
+
+                if (type == CLOSE) {
+                    sessions.remove(sid);
+                    continue;
+                }
+
+                LoggedSession session = sessions.computeIfAbsent(sid, key -> new LoggedSession());
+                if (type == TOUCH) {
+                    session.validUntil = Long.parseLong(readString(log));
+                    continue;
+                }
+
+                String name = readString(log);
+                if (type == PUT) {
+                    session.parameters.put(name, readString(log));
+                } else if (type == REMOVE) {
+                    session.parameters.remove(name);
+                } else {
+                    throw new IOException("Invalid record in the session log: " + type);
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ignorable) {
+            // the last record is incomplete
+        }
+
+        sessions.values().removeIf(session -> session.parameters.isEmpty());
+        return sessions;
+    }
+
+    /**
+     * Returns the generation of the current log, which is the latest
+     * generation with a valid header in either of the two files.
+     *
+     * @param path
+     *            path of the log
+     * @return the generation or {@code -1} if there is no log
+     * @throws IOException
+     *             if an I/O error occurs or a file exists, but neither of them
+     *             is a session log
+     */
+    static long generation(Path path) throws IOException {
+        long current = -1;
+        boolean exists = false;
+
+        for (int i = 0; i < 2; i++) {
+            Path file = file(path, i);
+            if (!Files.exists(file))
+                continue;
+            exists = true;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (header.hasRemaining() && channel.read(header) >= 0) {
+                }
+            }
+            header.flip();
+
+            // a log which was being compacted has no magic number yet
+            if (header.remaining() == HEADER && header.getInt() == MAGIC) {
+                long generation = header.getLong();
+                if (generation >= 0 && generation % 2 == i) {
+                    current = Math.max(current, generation);
+                }
+            }
+        }
+
+        if (exists && current < 0)
+            throw new IOException("File isn't a session log: " + path);
+
+        return current;
+    }
+
+    /**
+     * Returns the file to which the specified generation of the log is
+     * written.
+     *
+     * @param path
+     *            path of the log
+     * @param generation
+     *            generation of the log
+     * @return the file of the generation
+     */
+    private static Path file(Path path, long generation) {
+        return generation % 2 == 0 ? path : path.resolveSibling(path.getFileName() + ALTERNATE);
+    }
+
+    /**
+     * Starts the thread writing the changes to the log. If the log was
+     * closed, it is compacted from the sessions in the store and logging is
+     * resumed. As a backstop, the log is closed when the virtual machine shuts
+     * down, so the queued changes are written even if it isn't closed
+     * explicitly.
+     *
+     * @throws IOException
+     *             if the closed log couldn't be compacted
+     */
+    public synchronized void start() throws IOException {
+        if (writer != null)
+            return;
+
+        if (closed) {
+            compact();
+            closed = false;
+            store.setListener(this);
+        }
+
+        writer = new Thread(this::writeChanges, "Session log");
+        writer.setDaemon(true);
+        writer.start();
+
+        if (!hooked) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+            hooked = true;
+        }
+    }
+
+    /**
+     * Writes all queued changes, flushes the log to the disk and stops
+     * logging. Changes made afterwards aren't logged until the log is
+     * {@linkplain #start() started} again. The mapping of the log is dropped,
+     * so it is released once it is garbage collected.
+     */
+    public void close() {
+        Thread writer;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            writer = this.writer;
+        }
+
+        store.setListener(null);
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            // the log was started again in the meantime
+            if (!closed || this.writer != writer)
+                return;
+
+            drain();
+            touchSessions();
+            flush();
+            buffer = null;
+            this.writer = null;
+        }
+    }
+
+    @Override
+    public void parameterChanged(SessionStore.Entry session, String name) {
+        changes.add(new Change(session, name));
+    }
+
+    @Override
+    public void sessionRemoved(SessionStore.Entry session) {
+        changes.add(new Change(session, null));
+    }
+
+    /**
+     * Returns the number of compactions of the log so far, including the one
+     * after the log was replayed.
+     *
+     * @return the number of compactions
+     */
+    public synchronized int getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * Writes the queued changes until the log is closed, and flushes the log
+     * to the disk once every {@value #FLUSH_INTERVAL} milliseconds.
+     */
+    private void writeChanges() {
+        long flushed = System.nanoTime();
+
+        while (!closed) {
+            if (!drain()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+
+            if (System.nanoTime() - flushed > TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL)) {
+                flush();
+                flushed = System.nanoTime();
+            }
+        }
+
+        drain();
+        flush();
+    }
+
+    /**
+     * Writes all queued changes to the log.
+     *
+     * @return {@code true} if any change was written; {@code false} otherwise
+     */
+    private synchronized boolean drain() {
+        boolean written = false;
+
+        for (Change change; (change = changes.poll()) != null;) {
+            try {
+                write(change);
+                written = true;
+            } catch (IOException e) {
+                System.err.println("Session change couldn't be logged: " + e.getMessage());
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Logs the validity of every session with persistent parameters.
+     */
+    private synchronized void touchSessions() {
+        store.forEach(session -> {
+            if (session.isRemoved() || session.getParameters().isEmpty())
+                return;
+
+            try {
+                append(TOUCH, session.getSID(), null, String.valueOf(session.getValidUntil()));
+            } catch (IOException e) {
+                System.err.println("Session validity couldn't be logged: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Writes the change to the log. A change of a parameter is written as its
+     * current value, followed by the validity of the session.
+     *
+     * @param change
+     *            the change
+     * @throws IOException
+     *             if the log couldn't be compacted
+     */
+    private void write(Change change) throws IOException {
+        SessionStore.Entry session = change.session;
+
+        if (change.name == null) {
+            // a session without parameters isn't in the log
+            if (!session.getParameters().isEmpty()) {
+                append(CLOSE, session.getSID(), null, null);
+            }
+        } else if (!session.isRemoved()) {
+            String value = session.getParameters().get(change.name);
+            append(value != null ? PUT : REMOVE, session.getSID(), change.name, value);
+            append(TOUCH, session.getSID(), null, String.valueOf(session.getValidUntil()));
+        }
+    }
+
+    /**
+     * Appends a record to the log, compacting the log if it is full.
+     *
+     * @param type
+     *            type of the record
+     * @param sid
+     *            session ID
+     * @param name
+     *            name of the parameter or {@code null} if the record has none
+     * @param value
+     *            value of the parameter or {@code null} if the record has none
+     * @throws IOException
+     *             if the log couldn't be compacted
+     */
+    private void append(byte type, String sid, String name, String value) throws IOException {
+        if (!append(buffer, type, sid, name, value)) {
+            compact();
+            if (!append(buffer, type, sid, name, value))
+                throw new IOException("Record is larger than the log.");
+        }
+    }
+
+    /**
+     * Appends a record to the buffer and marks the end of the records after
+     * it. The type is written last, so a record which is only partly written
+     * isn't replayed.
+     *
+     * @param buffer
+     *            the buffer
+     * @param type
+     *            type of the record
+     * @param sid
+     *            session ID
+     * @param name
+     *            name of the parameter or {@code null} if the record has none
+     * @param value
+     *            value of the record or {@code null} if the record has none
+     * @return {@code true} if the record was appended; {@code false} if there
+     *         isn't enough space
+     */
+    private static boolean append(ByteBuffer buffer, byte type, String sid, String name, String value) {
+        byte[][] fields = { bytes(sid), bytes(name), bytes(value) };
+
+        int length = 1;
+        for (byte[] field : fields) {
+            length += field == null ? 0 : 4 + field.length;
+        }
+        // one byte is always left for the end of the records
+        if (buffer.remaining() < length + 1)
+            return false;
+
+        int start = buffer.position();
+        buffer.put(END);
+        for (byte[] field : fields) {
+            if (field != null) {
+                buffer.putInt(field.length).put(field);
+            }
+        }
+        // the file may still hold records of an older generation
+        buffer.put(buffer.position(), END);
+        buffer.put(start, type);
+
+        return true;
+    }
+
+    /**
+     * Writes a new log containing only the live sessions of the store to the
+     * file of the next generation, which becomes the current log once its
+     * header is valid. The new log is at least twice as large as the live
+     * sessions. The file is never truncated, so it is only mapped and
+     * extended.
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private synchronized void compact() throws IOException {
+        long next = generation + 1;
+        Path file = file(path, next);
+        int capacity = minCapacity;
+
+        while (true) {
+            MappedByteBuffer compacted;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                compacted = channel.map(MapMode.READ_WRITE, 0, capacity);
+            }
+            // the file isn't a valid log until it is complete
+            compacted.putInt(0, 0);
+            compacted.force();
+            compacted.position(4);
+            compacted.putLong(next).put(compacted.position(), END);
+
+            boolean[] full = new boolean[1];
+            store.forEach(session -> {
+                if (full[0] || session.isRemoved() || session.getParameters().isEmpty())
+                    return;
+
+                session.getParameters().forEach((name, value) -> {
+                    full[0] |= !append(compacted, PUT, session.getSID(), name, value);
+                });
+                full[0] |= !append(compacted, TOUCH, session.getSID(), null,
+                        String.valueOf(session.getValidUntil()));
+            });
+
+            if (!full[0] && compacted.position() <= capacity / 2) {
+                compacted.force();
+                compacted.putInt(0, MAGIC);
+                compacted.force();
+
+                buffer = compacted;
+                generation = next;
+                compactions++;
+                return;
+            }
+
+            capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2L * compacted.position(), 2L * capacity));
+        }
+    }
+
+    /**
+     * Flushes the log to the disk.
+     */
+    private synchronized void flush() {
+        buffer.force();
+    }
+
+    /**
+     * Encodes the string in UTF-8.
+     *
+     * @param string
+     *            the string or {@code null}
+     * @return the bytes or {@code null} if the string is {@code null}
+     */
+    private static byte[] bytes(String string) {
+        return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a string encoded in UTF-8 and preceded by its length.
+     *
+     * @param buffer
+     *            the buffer
+     * @return the string
+     * @throws IllegalArgumentException
+     *             if the length is invalid
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid length: " + length);
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@code LoggedSession} is a session as it was recorded in the log.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    static class LoggedSession {
+
+        /** Persistent parameters of the session. */
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        /** Time in milliseconds until the session is valid; unknown if it wasn't logged. */
+        long validUntil = Long.MAX_VALUE;
+
+    }
+
+    /**
+     * {@code Change} is a change of a session which hasn't been written yet.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    private static class Change {
+
+        /** The changed session. */
+        final SessionStore.Entry session;
+        /** Name of the changed parameter or {@code null} if the session was removed. */
+        final String name;
+
+        /**
+         * Constructs a new {@code Change}.
+         *
+         * @param session
+         *            the changed session
+         * @param name
+         *            name of the changed parameter or {@code null} if the
+         *            session was removed
+         */
+        Change(SessionStore.Entry session, String name) {
+            this.session = session;
+            this.name = name;
+        }
+
+    }
+
+}
@@ -0,0 +1,188 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code SessionParameters} is a thread-safe map of persistent parameters of
+ * a session which keeps an estimate of the heap memory used by its entries.
+ * Every change of an entry is reported to a listener together with the change
+ * of the estimate, so the total memory of all sessions can be bounded and the
+ * changes can be persisted.
+ * <p>
+ * The estimate counts the characters of keys and values and a fixed overhead
+ * per entry. Entries can't be changed through the views of the map.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+final class SessionParameters extends AbstractMap<String, String> implements ConcurrentMap<String, String> {
+
+    /** Estimated number of bytes of an entry besides its characters. */
+    static final int ENTRY_OVERHEAD = 96;
+
+    /** Parameters of the session. */
+    private final ConcurrentMap<String, String> parameters = new ConcurrentHashMap<>();
+    /** Estimated number of bytes used by the entries. */
+    private final AtomicLong estimatedSize = new AtomicLong();
+    /** Listener notified of every change of an entry. */
+    private final Listener listener;
+
+    /**
+     * Constructs a new empty {@code SessionParameters}.
+     *
+     * @param listener
+     *            listener notified after every change of an entry
+     */
+    SessionParameters(Listener listener) {
+        this.listener = Objects.requireNonNull(listener, "Listener cannot be a null reference!");
+    }
+
+    /**
+     * Returns the estimated number of bytes of an entry.
+     *
+     * @param key
+     *            key of the entry
+     * @param value
+     *            value of the entry or {@code null} if there is no entry
+     * @return estimated number of bytes
+     */
+    static long estimate(Object key, String value) {
+        return value == null ? 0 : ENTRY_OVERHEAD + 2L * (((String) key).length() + value.length());
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the entries.
+     *
+     * @return estimated number of bytes
+     */
+    long getEstimatedSize() {
+        return estimatedSize.get();
+    }
+
+    /**
+     * Records that the entry with specified key has changed.
+     *
+     * @param key
+     *            key of the entry
+     * @param oldValue
+     *            old value or {@code null} if the entry didn't exist
+     * @param newValue
+     *            new value or {@code null} if the entry was removed
+     */
+    private void changed(Object key, String oldValue, String newValue) {
+        long delta = estimate(key, newValue) - estimate(key, oldValue);
+        if (delta != 0) {
+            estimatedSize.addAndGet(delta);
+        }
+
+        listener.changed((String) key, delta);
+    }
+
+    @Override
+    public String get(Object key) {
+        return parameters.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return parameters.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return parameters.size();
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String old = parameters.put(key, value);
+        changed(key, old, value);
+        return old;
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        String old = parameters.putIfAbsent(key, value);
+        if (old == null) {
+            changed(key, null, value);
+        }
+        return old;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String old = parameters.remove(key);
+        if (old != null) {
+            changed(key, old, null);
+        }
+        return old;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (!parameters.remove(key, value))
+            return false;
+
+        changed(key, (String) value, null);
+        return true;
+    }
+
+    @Override
+    public boolean replace(String key, String oldValue, String newValue) {
+        if (!parameters.replace(key, oldValue, newValue))
+            return false;
+
+        changed(key, oldValue, newValue);
+        return true;
+    }
+
+    @Override
+    public String replace(String key, String value) {
+        String old = parameters.replace(key, value);
+        if (old != null) {
+            changed(key, old, value);
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        for (String key : parameters.keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return Collections.unmodifiableMap(parameters).entrySet();
+    }
+
+    /**
+     * {@code Listener} is notified after an entry of {@link SessionParameters}
+     * is added, changed or removed.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    @FunctionalInterface
+    interface Listener {
+
+        /**
+         * Called after the entry with specified key has changed.
+         *
+         * @param key
+         *            key of the entry
+         * @param delta
+         *            change of the estimated size in bytes
+         */
+        void changed(String key, long delta);
+
+    }
+
+}
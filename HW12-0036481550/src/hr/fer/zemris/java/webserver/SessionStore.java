@@ -0,0 +1,640 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * {@code SessionStore} is a thread-safe store of sessions keyed by their
+ * session IDs. Sessions are kept in a {@link ConcurrentHashMap}, so requests
+ * of different sessions never wait for each other, and a session is created
+ * or touched atomically, so concurrent requests with the same session ID
+ * always share one session.
+ * <p>
+ * Persistent parameters of a session are kept in a concurrent map, so they
+ * can be changed by concurrent requests of the session without losing any
+ * update.
+ * <p>
+ * Expired sessions are removed when they are accessed, and sessions of clients
+ * which never return are removed by {@link #expire(long)}, which should be
+ * called periodically. New sessions are handed over to a {@link TimingWheel}
+ * through a lock-free queue, so expiring sessions never scans the whole store
+ * and never blocks the requests.
+ * <p>
+ * The store is bounded by the number of sessions and by the estimated number
+ * of bytes of their persistent parameters. When either bound is exceeded, the
+ * least recently used sessions are evicted. Sessions are ordered in the timing
+ * wheel by their deadlines, which are their last accesses shifted by the
+ * timeout, so the least recently used ones are found in the earliest slots.
+ * Only one thread evicts at a time, and the others don't wait for it, so the
+ * store may briefly exceed its bounds while many sessions are created at
+ * once. Such overshoot is evicted by the thread already evicting, or at the
+ * latest by the next {@link #expire(long)}.
+ * <p>
+ * Changes of persistent parameters and removals of sessions can be observed
+ * by a {@link Listener}, e.g. to persist the sessions.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+public class SessionStore {
+
+    /** Default length of a tick of the timing wheel in milliseconds. */
+    public static final long DEFAULT_TICK = 1000;
+    /** Estimated number of bytes of a session without its parameters. */
+    public static final int SESSION_OVERHEAD = 256;
+
+    /** Number of milliseconds a session is valid after its last access. */
+    private final long timeout;
+    /** Length of a tick of the timing wheel in milliseconds. */
+    private final long tick;
+    /** Maximum number of sessions. */
+    private final int maxSessions;
+    /** Maximum estimated number of bytes of parameters of all sessions. */
+    private final long maxParameterBytes;
+    /** Map of all sessions. */
+    private final ConcurrentMap<String, Entry> sessions = new ConcurrentHashMap<>();
+    /** New sessions which aren't in the timing wheel yet. */
+    private final Queue<Entry> created = new ConcurrentLinkedQueue<>();
+    /** Timing wheel of the sessions; {@code null} until it is first needed. */
+    private TimingWheel<Entry> wheel;
+    /** Lock guarding the timing wheel. */
+    private final Lock wheelLock = new ReentrantLock();
+    /** Estimated number of bytes of parameters of all sessions. */
+    private final AtomicLong parameterBytes = new AtomicLong();
+    /** Number of sessions removed when they were accessed after they expired. */
+    private final AtomicLong expiredOnAccess = new AtomicLong();
+    /** Number of sessions removed by the timing wheel. */
+    private final AtomicLong expiredInBackground = new AtomicLong();
+    /** Number of sessions evicted because the store was full. */
+    private final AtomicLong evicted = new AtomicLong();
+    /** Listener of changes of sessions; {@code null} if there is none. */
+    private volatile Listener listener;
+
+    /**
+     * Constructs a new unbounded {@code SessionStore} with specified session
+     * timeout and the {@linkplain #DEFAULT_TICK default} tick of the timing
+     * wheel.
+     *
+     * @param timeout
+     *            number of milliseconds a session is valid after its last
+     *            access
+     * @throws IllegalArgumentException
+     *             if {@code timeout} is less than 1
+     */
+    public SessionStore(long timeout) {
+        this(timeout, DEFAULT_TICK);
+    }
+
+    /**
+     * Constructs a new unbounded {@code SessionStore} with specified session
+     * timeout and tick of the timing wheel. A session is removed by
+     * {@link #expire(long)} at most one tick after it expires.
+     *
+     * @param timeout
+     *            number of milliseconds a session is valid after its last
+     *            access
+     * @param tick
+     *            length of a tick of the timing wheel in milliseconds
+     * @throws IllegalArgumentException
+     *             if {@code timeout} or {@code tick} is less than 1
+     */
+    public SessionStore(long timeout, long tick) {
+        this(timeout, tick, Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a new bounded {@code SessionStore} with specified session
+     * timeout, tick of the timing wheel and bounds.
+     *
+     * @param timeout
+     *            number of milliseconds a session is valid after its last
+     *            access
+     * @param tick
+     *            length of a tick of the timing wheel in milliseconds
+     * @param maxSessions
+     *            maximum number of sessions
+     * @param maxParameterBytes
+     *            maximum estimated number of bytes of persistent parameters
+     *            of all sessions
+     * @throws IllegalArgumentException
+     *             if any argument is less than 1
+     */
+    public SessionStore(long timeout, long tick, int maxSessions, long maxParameterBytes) {
+        if (timeout < 1)
+            throw new IllegalArgumentException("Session timeout should be positive: " + timeout);
+        if (tick < 1)
+            throw new IllegalArgumentException("Length of a tick should be positive: " + tick);
+        if (maxSessions < 1)
+            throw new IllegalArgumentException("Maximum number of sessions should be positive: " + maxSessions);
+        if (maxParameterBytes < 1)
+            throw new IllegalArgumentException("Maximum size of parameters should be positive: " + maxParameterBytes);
+
+        this.timeout = timeout;
+        this.tick = tick;
+        this.maxSessions = maxSessions;
+        this.maxParameterBytes = maxParameterBytes;
+    }
+
+    /**
+     * Returns the valid session with specified session ID and extends its
+     * validity, or {@code null} if there is no such session. An expired
+     * session is removed.
+     *
+     * @param sid
+     *            session ID
+     * @param now
+     *            current time in milliseconds
+     * @return the session or {@code null} if it doesn't exist or has expired
+     */
+    public Entry get(String sid, long now) {
+        return sessions.computeIfPresent(sid, (key, entry) -> {
+            if (!entry.isExpired(now))
+                return entry.touch(now);
+
+            expiredOnAccess.incrementAndGet();
+            removed(entry);
+            return null;
+        });
+    }
+
+    /**
+     * Returns the valid session with specified session ID and extends its
+     * validity. If there is no such session or it has expired, a new empty
+     * session with the same ID is created, and if the store is full, the
+     * least recently used sessions are evicted.
+     *
+     * @param sid
+     *            session ID
+     * @param now
+     *            current time in milliseconds
+     * @return the session
+     */
+    public Entry getOrCreate(String sid, long now) {
+        Entry entry = get(sid, now);
+        if (entry != null)
+            return entry;
+
+        entry = sessions.compute(sid, (key, old) -> {
+            if (old != null) {
+                if (!old.isExpired(now))
+                    return old.touch(now);
+                expiredOnAccess.incrementAndGet();
+                removed(old);
+            }
+
+            Entry session = new Entry(key, now + timeout);
+            created.add(session);
+            return session;
+        });
+
+        if (sessions.size() > maxSessions) {
+            evict(now);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Adds a session with specified session ID and persistent parameters,
+     * e.g. one which was persisted before the server was restarted. It is
+     * valid for the whole timeout from the specified time and replaces an
+     * existing session with the same ID.
+     *
+     * @param sid
+     *            session ID
+     * @param parameters
+     *            persistent parameters of the session
+     * @param now
+     *            current time in milliseconds
+     * @return the added session
+     */
+    public Entry restore(String sid, Map<String, String> parameters, long now) {
+        return restore(sid, parameters, now, now + timeout);
+    }
+
+    /**
+     * Adds a session with specified session ID and persistent parameters,
+     * which is valid until the specified time, but at most for the whole
+     * timeout from now. It replaces an existing session with the same ID. A
+     * session which has already expired isn't added.
+     *
+     * @param sid
+     *            session ID
+     * @param parameters
+     *            persistent parameters of the session
+     * @param now
+     *            current time in milliseconds
+     * @param validUntil
+     *            time in milliseconds until the session is valid
+     * @return the added session or {@code null} if it has expired
+     */
+    public Entry restore(String sid, Map<String, String> parameters, long now, long validUntil) {
+        if (validUntil < now)
+            return null;
+
+        Entry entry = new Entry(sid, Math.min(validUntil, now + timeout));
+        entry.parameters.putAll(parameters);
+
+        Entry old = sessions.put(sid, entry);
+        if (old != null) {
+            removed(old);
+        }
+        created.add(entry);
+
+        if (sessions.size() > maxSessions || parameterBytes.get() > maxParameterBytes) {
+            evict(now);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Performs the action for each session in the store. Sessions added or
+     * removed concurrently may or may not be visited.
+     *
+     * @param action
+     *            action performed for each session
+     */
+    public void forEach(Consumer<Entry> action) {
+        sessions.values().forEach(action);
+    }
+
+    /**
+     * Sets the listener of changes of sessions.
+     *
+     * @param listener
+     *            the listener or {@code null} to remove it
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Removes all sessions which have expired by the specified time. Only the
+     * sessions whose slots in the timing wheel have come up are checked.
+     * Afterwards the least recently used sessions are evicted if the store is
+     * over its bounds. This method is meant to be called by a single
+     * background thread.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @return the number of removed expired sessions
+     */
+    public int expire(long now) {
+        wheelLock.lock();
+        try {
+            long expired = expiredInBackground.get();
+            getWheel(now).advance(now, entry -> remove(entry, now));
+            evictLocked(now);
+
+            return (int) (expiredInBackground.get() - expired);
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least recently used sessions until the store is within its
+     * bounds, unless another thread is already evicting or expiring sessions.
+     *
+     * @param now
+     *            current time in milliseconds
+     */
+    private void evict(long now) {
+        if (!wheelLock.tryLock())
+            return;
+
+        try {
+            evictLocked(now);
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least recently used sessions until the store is within its
+     * bounds. The caller must hold the lock of the timing wheel.
+     *
+     * @param now
+     *            current time in milliseconds
+     */
+    private void evictLocked(long now) {
+        TimingWheel<Entry> wheel = getWheel(now);
+
+        while (sessions.size() > maxSessions || parameterBytes.get() > maxParameterBytes) {
+            Entry entry = wheel.poll();
+            if (entry == null)
+                return;
+
+            if (sessions.remove(entry.sid, entry)) {
+                evicted.incrementAndGet();
+                removed(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the timing wheel with all sessions created so far, creating it
+     * if it doesn't exist yet. The caller must hold the lock of the timing
+     * wheel.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @return the timing wheel
+     */
+    private TimingWheel<Entry> getWheel(long now) {
+        if (wheel == null) {
+            wheel = new TimingWheel<>(tick, Entry::getValidUntil, now);
+        }
+
+        for (Entry entry; (entry = created.poll()) != null;) {
+            wheel.schedule(entry);
+        }
+
+        return wheel;
+    }
+
+    /**
+     * Removes the session if it is still in the store and has expired.
+     *
+     * @param entry
+     *            the session
+     * @param now
+     *            current time in milliseconds
+     * @return {@code true} if the session should be dropped from the timing
+     *         wheel; {@code false} if it is still valid
+     */
+    private boolean remove(Entry entry, long now) {
+        return sessions.computeIfPresent(entry.sid, (key, old) -> {
+            if (old != entry || !old.isExpired(now))
+                return old;
+
+            expiredInBackground.incrementAndGet();
+            removed(old);
+            return null;
+        }) != entry;
+    }
+
+    /**
+     * Records that the session was removed from the store, so its parameters
+     * are no longer counted.
+     *
+     * @param entry
+     *            the removed session
+     */
+    private void removed(Entry entry) {
+        synchronized (entry) {
+            entry.removed = true;
+            parameterBytes.addAndGet(-entry.countedBytes);
+        }
+
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.sessionRemoved(entry);
+        }
+    }
+
+    /**
+     * Records a change of a persistent parameter of a session, and evicts the
+     * least recently used sessions if the store has grown too large.
+     *
+     * @param entry
+     *            the session
+     * @param name
+     *            name of the parameter
+     * @param delta
+     *            change of the estimated size in bytes
+     */
+    private void changed(Entry entry, String name, long delta) {
+        long total;
+        synchronized (entry) {
+            // a removed session is no longer counted
+            if (entry.removed)
+                return;
+            entry.countedBytes += delta;
+            total = parameterBytes.addAndGet(delta);
+        }
+
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.parameterChanged(entry, name);
+        }
+
+        if (delta > 0 && total > maxParameterBytes) {
+            evict(entry.validUntil - timeout);
+        }
+    }
+
+    /**
+     * Removes the session with specified session ID.
+     *
+     * @param sid
+     *            session ID
+     * @return the removed session or {@code null} if it didn't exist
+     */
+    public Entry remove(String sid) {
+        Entry entry = sessions.remove(sid);
+        if (entry != null) {
+            removed(entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the number of sessions in the store, including the expired ones
+     * which haven't been removed yet.
+     *
+     * @return the number of sessions
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes of persistent parameters of all
+     * sessions.
+     *
+     * @return estimated number of bytes of parameters
+     */
+    public long getParameterBytes() {
+        return parameterBytes.get();
+    }
+
+    /**
+     * Returns the estimated number of bytes of heap used by all sessions,
+     * including their parameters.
+     *
+     * @return estimated number of bytes
+     */
+    public long getEstimatedSize() {
+        return (long) sessions.size() * SESSION_OVERHEAD + parameterBytes.get();
+    }
+
+    /**
+     * Returns the number of expired sessions which were removed when their
+     * clients returned.
+     *
+     * @return the number of sessions expired on access
+     */
+    public long getExpiredOnAccess() {
+        return expiredOnAccess.get();
+    }
+
+    /**
+     * Returns the number of expired sessions which were removed by
+     * {@link #expire(long)}.
+     *
+     * @return the number of sessions expired in background
+     */
+    public long getExpiredInBackground() {
+        return expiredInBackground.get();
+    }
+
+    /**
+     * Returns the number of sessions which were evicted because the store was
+     * full.
+     *
+     * @return the number of evicted sessions
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * {@code Entry} is a session, consisting of its ID, the time until it is
+     * valid and its persistent parameters.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    public class Entry {
+
+        /** Session ID. */
+        private final String sid;
+        /** Time in milliseconds until this session is valid. */
+        private volatile long validUntil;
+        /** Map of persistent parameters. */
+        private final SessionParameters parameters = new SessionParameters(
+                (name, delta) -> changed(this, name, delta));
+        /** Indicates whether this session was removed from the store. */
+        private boolean removed;
+        /** Number of bytes of parameters counted in the total of the store. */
+        private long countedBytes;
+
+        /**
+         * Constructs a new {@code Entry}.
+         *
+         * @param sid
+         *            session ID
+         * @param validUntil
+         *            time in milliseconds until the session is valid
+         */
+        private Entry(String sid, long validUntil) {
+            this.sid = sid;
+            this.validUntil = validUntil;
+        }
+
+        /**
+         * Returns the session ID.
+         *
+         * @return the session ID
+         */
+        public String getSID() {
+            return sid;
+        }
+
+        /**
+         * Returns the time until this session is valid.
+         *
+         * @return time in milliseconds
+         */
+        public long getValidUntil() {
+            return validUntil;
+        }
+
+        /**
+         * Returns the map of persistent parameters of this session. It is safe
+         * for concurrent use and is shared by all requests of the session.
+         *
+         * @return map of persistent parameters
+         */
+        public Map<String, String> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Checks whether this session was removed from the store.
+         *
+         * @return {@code true} if the session was removed; {@code false}
+         *         otherwise
+         */
+        public synchronized boolean isRemoved() {
+            return removed;
+        }
+
+        /**
+         * Checks whether this session has expired.
+         *
+         * @param now
+         *            current time in milliseconds
+         * @return {@code true} if the session has expired; {@code false}
+         *         otherwise
+         */
+        boolean isExpired(long now) {
+            return validUntil < now;
+        }
+
+        /**
+         * Extends the validity of this session from the specified time.
+         *
+         * @param now
+         *            current time in milliseconds
+         * @return this session
+         */
+        private Entry touch(long now) {
+            validUntil = now + timeout;
+            return this;
+        }
+
+    }
+
+    /**
+     * {@code Listener} is notified of changes of the sessions in a
+     * {@link SessionStore}. It is called by the threads which change the
+     * sessions, so it should return quickly.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    public interface Listener {
+
+        /**
+         * Called after a persistent parameter of a session was set or
+         * removed.
+         *
+         * @param session
+         *            the session
+         * @param name
+         *            name of the parameter
+         */
+        void parameterChanged(Entry session, String name);
+
+        /**
+         * Called after a session was removed from the store.
+         *
+         * @param session
+         *            the removed session
+         */
+        void sessionRemoved(Entry session);
+
+    }
+
+}
@@ -1,32 +1,40 @@
 package hr.fer.zemris.java.webserver;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Properties;
-import java.util.Random;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
-import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
 
 /**
@@ -39,6 +47,8 @@ public class SmartHttpServer {
 
     /** Source directory of workers. */
     private static Path WORKERS_SOURCE = Paths.get("src/hr/fer/zemris/java/webserver/workers");
+    /** Maximum length of the queue of connections waiting to be accepted. */
+    private static final int BACKLOG = 1024;
 
     /** Address of the server. */
     private String address;
@@ -46,6 +56,16 @@ public class SmartHttpServer {
     private int port;
     /** Number of worker threads. */
     private int workerThreads;
+    /** Engine used for accepting connections ({@code blocking} or {@code nio}). */
+    private String engine;
+    /** Executor running the workers ({@code platform} or {@code virtual}). */
+    private String executor;
+    /** Number of seconds an idle persistent connection is kept open. */
+    private int keepAliveTimeout;
+    /** Maximum number of requests served over one connection. */
+    private int maxRequestsPerConnection;
+    /** Size of the response buffer in bytes. */
+    private int responseBufferSize;
     /** Number of seconds until session timeout. */
     private int sessionTimeout;
     /** Map of all mime types. */
@@ -58,10 +78,22 @@ public class SmartHttpServer {
     private ExecutorService threadPool;
     /** Document root directory. */
     private Path documentRoot;
-    /** Map of all sessions. */
-    private Map<String, SessionMapEntry> sessions = new HashMap<String, SmartHttpServer.SessionMapEntry>();
-    /** Session random number generator. */
-    private Random sessionRandom = new Random();
+    /** Cache of parsed scripts. */
+    private SmartScriptCache scriptCache;
+    /** Cache of static files; {@code null} if static files aren't cached. */
+    private StaticFileCache staticCache;
+    /** Deflaters compressing the responses; {@code null} if responses aren't compressed. */
+    private DeflaterPool deflaters;
+    /** Minimum length of a compressed response in bytes. */
+    private int compressionThreshold;
+    /** Index of static files with a compressed sibling; {@code null} if siblings aren't served. */
+    private PrecompressedFiles precompressed;
+    /** Store of all sessions. */
+    private SessionStore sessions;
+    /** Thread removing the expired sessions. */
+    private Thread sessionExpiry;
+    /** Log persisting the sessions; {@code null} if sessions aren't persisted. */
+    private SessionLog sessionLog;
 
     /**
      * Constructs a new {@code SmartHttpServer} with specified configuration
@@ -71,43 +103,179 @@ public class SmartHttpServer {
      *            configuration file name
      */
     public SmartHttpServer(String configFileName) {
-        Properties properties = new Properties();
-        try {
-            properties.load(Files.newInputStream(Paths.get(configFileName)));
-        } catch (IOException ignorable) {
-        }
+        this(loadProperties(Paths.get(configFileName)));
+    }
 
+    /**
+     * Constructs a new {@code SmartHttpServer} with specified configuration.
+     * 
+     * @param properties
+     *            configuration of the server
+     */
+    public SmartHttpServer(Properties properties) {
         address = properties.getProperty("server.address");
         port = Integer.valueOf(properties.getProperty("server.port"));
         workerThreads = Integer.valueOf(properties.getProperty("server.workerThreads"));
+        engine = properties.getProperty("server.engine", "blocking").trim();
+        executor = properties.getProperty("server.executor", "platform").trim();
+        keepAliveTimeout = Integer.valueOf(properties.getProperty("server.keepAliveTimeout", "5").trim());
+        maxRequestsPerConnection = Integer
+                .valueOf(properties.getProperty("server.maxRequestsPerConnection", "100").trim());
+        responseBufferSize = Integer.valueOf(properties
+                .getProperty("server.responseBufferSize", String.valueOf(RequestContext.DEFAULT_BUFFER_SIZE)).trim());
         sessionTimeout = Integer.valueOf(properties.getProperty("session.timeout"));
+        sessions = new SessionStore(sessionTimeout * 1000L, SessionStore.DEFAULT_TICK,
+                Integer.valueOf(properties.getProperty("session.maxSessions", "100000").trim()),
+                Long.valueOf(properties.getProperty("session.maxParameterBytes", "67108864").trim()));
+
+        String sessionLogPath = properties.getProperty("session.log", "").trim();
+        if (!sessionLogPath.isEmpty()) {
+            try {
+                sessionLog = new SessionLog(Paths.get(sessionLogPath),
+                        Integer.valueOf(properties.getProperty("session.logCapacity", "16777216").trim()), sessions);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Sessions couldn't be restored from the log: " + sessionLogPath, e);
+            }
+        }
         documentRoot = Paths.get(properties.getProperty("server.documentRoot"));
+        scriptCache = new SmartScriptCache(
+                Integer.valueOf(properties.getProperty("server.scriptCacheSize", "256").trim()),
+                Integer.valueOf(properties.getProperty("server.scriptCompileThreshold", "100").trim()));
+
+        long staticCacheSize = Long.valueOf(properties.getProperty("server.staticCacheSize", "33554432").trim());
+        if (staticCacheSize > 0) {
+            staticCache = new StaticFileCache(staticCacheSize,
+                    Long.valueOf(properties.getProperty("server.staticCacheMaxFileSize", "1048576").trim()));
+        }
+
+        compressionThreshold = Integer.valueOf(properties.getProperty("server.compressionThreshold", "1024").trim());
+        if (compressionThreshold >= 0) {
+            deflaters = new DeflaterPool(workerThreads,
+                    Integer.valueOf(properties.getProperty("server.compressionLevel", "6").trim()));
+        }
 
         loadMimeTypes(Paths.get(properties.getProperty("server.mimeConfig")));
+
+        if (Boolean.parseBoolean(properties.getProperty("server.precompressed", "true").trim())) {
+            try {
+                if (Boolean.parseBoolean(properties.getProperty("server.generatePrecompressed", "false").trim())) {
+                    PrecompressedFiles.generate(documentRoot, file -> PrecompressedFiles.isTextual(file, mimeTypes::get),
+                            Deflater.BEST_COMPRESSION);
+                }
+                precompressed = new PrecompressedFiles(documentRoot);
+            } catch (IOException e) {
+                System.err.println("Compressed siblings of static files couldn't be indexed: " + e.getMessage());
+            }
+        }
         loadWebWorkers(Paths.get(properties.getProperty("server.workers")));
 
         serverThread = new ServerThread();
     }
 
+    /**
+     * Loads the properties from the specified configuration file.
+     * 
+     * @param configPath
+     *            the path to configuration file
+     * @return loaded properties
+     */
+    private static Properties loadProperties(Path configPath) {
+        Properties properties = new Properties();
+
+        try {
+            properties.load(Files.newInputStream(configPath));
+        } catch (IOException ignorable) {
+        }
+
+        return properties;
+    }
+
     /**
      * Starts the server.
+     * 
+     * @throws UncheckedIOException
+     *             if the session log couldn't be reopened after the server was
+     *             stopped
      */
     protected synchronized void start() {
         if (threadPool != null)
             return;
 
-        serverThread = new ServerThread();
+        if (sessionLog != null) {
+            try {
+                sessionLog.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Session log couldn't be reopened.", e);
+            }
+        }
+
+        threadPool = executor.equals("virtual") ? newVirtualThreadExecutor() : null;
+        if (threadPool == null) {
+            threadPool = Executors.newFixedThreadPool(workerThreads, r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        serverThread = engine.equals("nio") ? new NioServerThread() : new ServerThread();
         serverThread.start();
 
-        threadPool = Executors.newFixedThreadPool(workerThreads, r -> {
-            Thread t = new Thread(r);
-            t.setDaemon(true);
-            return t;
-        });
+        sessionExpiry = new Thread(this::expireSessions, "Session expiry");
+        sessionExpiry.setDaemon(true);
+        sessionExpiry.start();
     }
 
     /**
-     * Stops the server.
+     * Removes the expired sessions once every tick of the session store until
+     * the thread is interrupted.
+     */
+    private void expireSessions() {
+        while (true) {
+            try {
+                Thread.sleep(SessionStore.DEFAULT_TICK);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            sessions.expire(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Returns the store of all sessions, e.g. for reading how many sessions
+     * are live and how many have expired.
+     * 
+     * @return the session store
+     */
+    public SessionStore getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Returns the executor that starts a new virtual thread for each task or
+     * {@code null} if the running Java platform doesn't support virtual
+     * threads. The executor is obtained reflectively so the server still runs
+     * on older platforms.
+     * <p>
+     * This mode is untested: it was only run on platforms without virtual
+     * threads, where the server falls back to the fixed thread pool.
+     * 
+     * @return executor with a virtual thread per task or {@code null}
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads aren't supported, fixed thread pool is used instead!");
+            return null;
+        }
+    }
+
+    /**
+     * Stops the server. The session log is flushed and closed, and the static
+     * files are no longer watched; both are reopened if the server is started
+     * again.
      */
     protected synchronized void stop() {
         if (threadPool == null)
@@ -115,8 +283,17 @@ public class SmartHttpServer {
 
         serverThread.stopServer();
         serverThread = null;
+        sessionExpiry.interrupt();
+        sessionExpiry = null;
         threadPool.shutdown();
         threadPool = null;
+
+        if (sessionLog != null) {
+            sessionLog.close();
+        }
+        if (staticCache != null) {
+            staticCache.close();
+        }
     }
 
     /**
@@ -193,23 +370,29 @@ public class SmartHttpServer {
     protected class ServerThread extends Thread {
 
         /** Indicates whether this thread is stopped from accepting requests. */
-        private boolean stop;
+        protected volatile boolean stop;
+        /**
+         * Server channel on which the connections are accepted. Sockets
+         * accepted by a channel have their own channels, so files can be
+         * transferred to them directly.
+         */
+        private volatile ServerSocketChannel serverChannel;
 
         @Override
         public void run() {
-            ServerSocket serverSocket = null;
-
             try {
-                serverSocket = new ServerSocket();
+                serverChannel = ServerSocketChannel.open();
 
-                serverSocket.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+                serverChannel.bind(new InetSocketAddress(InetAddress.getByName(address), port), BACKLOG);
             } catch (IOException e) {
+                System.err.println("Server couldn't be started on " + address + ":" + port + "!");
+                return;
             }
 
             while (!stop) {
                 Socket client = null;
                 try {
-                    client = serverSocket.accept();
+                    client = serverChannel.accept().socket();
                 } catch (IOException e) {
                     continue;
                 }
@@ -223,6 +406,15 @@ public class SmartHttpServer {
          */
         public void stopServer() {
             stop = true;
+
+            ServerSocketChannel serverChannel = this.serverChannel;
+            if (serverChannel != null) {
+                try {
+                    serverChannel.close();
+                } catch (IOException ignorable) {
+                }
+            }
+
             try {
                 join();
             } catch (InterruptedException e) {
@@ -231,6 +423,360 @@ public class SmartHttpServer {
         }
     }
 
+    /**
+     * {@code NioServerThread} is a server thread that multiplexes all
+     * connections on a single {@link Selector}. Request heads are read without
+     * blocking and only a fully read request is handed to the
+     * {@code ClientWorker} in the thread pool, so idle or slow clients don't
+     * occupy worker threads.
+     * 
+     * @author Karlo Vrbić
+     * @version 1.0
+     * @see ServerThread
+     */
+    protected class NioServerThread extends ServerThread {
+
+        /** Initial size of the buffer for a request head. */
+        private static final int INITIAL_HEAD_SIZE = 512;
+        /** Maximum size of a request head. */
+        private static final int MAX_HEAD_SIZE = RequestHead.MAX_SIZE;
+
+        /** Selector on which all the channels are registered. */
+        private volatile Selector selector;
+        /** Connections whose request heads have been read completely. */
+        private List<SelectionKey> completed = new ArrayList<>();
+        /** Persistent connections returned by the workers after a response. */
+        private Queue<NioConnection> resumed = new ConcurrentLinkedQueue<>();
+        /** Time of the last check for idle connections. */
+        private long lastIdleCheck;
+
+        @Override
+        public void run() {
+            ServerSocketChannel serverChannel = null;
+
+            try {
+                selector = Selector.open();
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.configureBlocking(false);
+                serverChannel.bind(new InetSocketAddress(InetAddress.getByName(address), port), BACKLOG);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                System.err.println("Server couldn't be started on " + address + ":" + port + "!");
+                return;
+            }
+
+            while (!stop) {
+                try {
+                    selector.select(1000);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                registerResumed();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        accept(serverChannel);
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+
+                dispatchCompleted();
+                closeIdle();
+            }
+
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException ignorable) {
+            }
+            closeResumed();
+        }
+
+        @Override
+        public void stopServer() {
+            stop = true;
+
+            Selector selector = this.selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+
+            super.stopServer();
+        }
+
+        /**
+         * Returns the persistent connection to this thread, so it waits for
+         * the next request without occupying a worker thread. If the thread is
+         * stopped, the connection is closed instead.
+         * 
+         * @param connection
+         *            the connection
+         * @param leftover
+         *            bytes of the next request already read from the socket
+         */
+        public void resume(NioConnection connection, byte[] leftover) {
+            try {
+                connection.channel.configureBlocking(false);
+            } catch (IOException e) {
+                closeQuietly(connection.channel);
+                return;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(INITIAL_HEAD_SIZE, leftover.length));
+            buffer.put(leftover);
+            connection.buffer = buffer;
+            connection.lastActive = System.currentTimeMillis();
+
+            resumed.add(connection);
+            if (stop) {
+                // the thread may have already closed the resumed connections
+                closeResumed();
+            } else {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Closes the connections returned by the workers which weren't
+         * registered for reading.
+         */
+        private void closeResumed() {
+            NioConnection connection;
+            while ((connection = resumed.poll()) != null) {
+                closeQuietly(connection.channel);
+            }
+        }
+
+        /**
+         * Registers the connections returned by the workers for reading.
+         */
+        private void registerResumed() {
+            NioConnection connection;
+            while ((connection = resumed.poll()) != null) {
+                SelectionKey key;
+                try {
+                    key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    closeQuietly(connection.channel);
+                    continue;
+                }
+
+                if (isHeadComplete(connection.buffer, 0)) {
+                    key.interestOps(0);
+                    completed.add(key);
+                }
+            }
+        }
+
+        /**
+         * Closes the connections which weren't active for longer than the
+         * keep-alive timeout. Check is done at most once per second.
+         */
+        private void closeIdle() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < 1000)
+                return;
+
+            lastIdleCheck = now;
+            long limit = now - keepAliveTimeout * 1000L;
+
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof NioConnection && ((NioConnection) attachment).lastActive < limit) {
+                    close(key);
+                }
+            }
+        }
+
+        /**
+         * Accepts all pending connections and registers them for reading.
+         * 
+         * @param serverChannel
+         *            server socket channel
+         */
+        private void accept(ServerSocketChannel serverChannel) {
+            try {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.register(selector, SelectionKey.OP_READ, new NioConnection(channel, INITIAL_HEAD_SIZE));
+                }
+            } catch (IOException ignorable) {
+            }
+        }
+
+        /**
+         * Reads available bytes of a request head from the channel of the
+         * specified key.
+         * 
+         * @param key
+         *            selection key of the channel
+         */
+        private void read(SelectionKey key) {
+            NioConnection connection = (NioConnection) key.attachment();
+            ByteBuffer buffer = connection.buffer;
+
+            try {
+                int start = buffer.position();
+                if (connection.channel.read(buffer) == -1) {
+                    close(key);
+                    return;
+                }
+
+                connection.lastActive = System.currentTimeMillis();
+
+                if (isHeadComplete(buffer, start)) {
+                    key.interestOps(0);
+                    completed.add(key);
+                } else if (!buffer.hasRemaining()) {
+                    if (buffer.capacity() >= MAX_HEAD_SIZE) {
+                        close(key);
+                        return;
+                    }
+
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_HEAD_SIZE));
+                    buffer.flip();
+                    bigger.put(buffer);
+                    connection.buffer = bigger;
+                }
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+
+        /**
+         * Checks whether the buffer contains the empty line that ends the
+         * request head. Only the newly read bytes (and the few bytes before
+         * them) are scanned.
+         * 
+         * @param buffer
+         *            buffer with the request head
+         * @param start
+         *            position from which new bytes were read
+         * @return {@code true} if the request head is complete; {@code false}
+         *         otherwise
+         */
+        private boolean isHeadComplete(ByteBuffer buffer, int start) {
+            byte[] data = buffer.array();
+            int end = buffer.position();
+
+            for (int i = Math.max(1, start - 3); i < end; i++) {
+                if (data[i] != '\n')
+                    continue;
+
+                if (data[i - 1] == '\n' || (i >= 2 && data[i - 1] == '\r' && data[i - 2] == '\n')) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Deregisters the channels whose request heads are complete, switches
+         * them back into blocking mode and submits them to the thread pool.
+         */
+        private void dispatchCompleted() {
+            if (completed.isEmpty())
+                return;
+
+            for (SelectionKey key : completed) {
+                key.cancel();
+            }
+
+            try {
+                selector.selectNow();
+            } catch (IOException ignorable) {
+            }
+
+            for (SelectionKey key : completed) {
+                NioConnection connection = (NioConnection) key.attachment();
+
+                try {
+                    connection.channel.configureBlocking(true);
+                } catch (IOException e) {
+                    close(key);
+                    continue;
+                }
+
+                byte[] head = Arrays.copyOf(connection.buffer.array(), connection.buffer.position());
+                connection.buffer = null;
+                threadPool.submit(new ClientWorker(connection, head, this));
+            }
+
+            completed.clear();
+        }
+
+        /**
+         * Closes the channel of the specified key.
+         * 
+         * @param key
+         *            selection key of the channel
+         */
+        private void close(SelectionKey key) {
+            key.cancel();
+            closeQuietly(key.channel());
+        }
+
+        /**
+         * Closes the specified channel and ignores any errors.
+         * 
+         * @param channel
+         *            the channel
+         */
+        private void closeQuietly(Channel channel) {
+            try {
+                channel.close();
+            } catch (IOException ignorable) {
+            }
+        }
+    }
+
+    /**
+     * {@code NioConnection} holds the state of a connection handled by the
+     * {@link NioServerThread}.
+     * 
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    private static class NioConnection {
+
+        /** Channel of the connection. */
+        SocketChannel channel;
+        /** Buffer for the request head. */
+        ByteBuffer buffer;
+        /** Number of requests served over this connection. */
+        int served;
+        /** Time of the last activity on this connection. */
+        long lastActive;
+
+        /**
+         * Constructs a new {@code NioConnection} for the specified channel.
+         * 
+         * @param channel
+         *            channel of the connection
+         * @param bufferSize
+         *            initial size of the buffer for the request head
+         */
+        NioConnection(SocketChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(bufferSize);
+            this.lastActive = System.currentTimeMillis();
+        }
+
+    }
+
     /**
      * {@code ClientWorker} is a class handles client requests,
      * 
@@ -242,8 +788,16 @@ public class SmartHttpServer {
 
         /** Client socket. */
         private Socket csocket;
+        /** Bytes of the request that were already read from the socket. */
+        private byte[] head;
+        /** Head of the current request. */
+        private RequestHead requestHead;
+        /** Connection of the NIO engine; {@code null} for blocking engine. */
+        private NioConnection connection;
+        /** Server thread of the NIO engine to which the connection is returned. */
+        private NioServerThread owner;
         /** Input stream. */
-        private PushbackInputStream istream;
+        private InputStream istream;
         /** Output stream. */
         private OutputStream ostream;
         /** Version of the HTTP. */
@@ -251,11 +805,11 @@ public class SmartHttpServer {
         /** Method of the request. */
         private String method;
         /** Map of all parameters. */
-        private Map<String, String> params = new LinkedHashMap<String, String>();
+        private Map<String, String> params;
         /** Map of all persistent parameters. */
-        private Map<String, String> permParams = new LinkedHashMap<String, String>();
+        private Map<String, String> permParams;
         /** Map of all output cookies. */
-        private List<RCCookie> outputCookies = new ArrayList<RequestContext.RCCookie>();
+        private List<RCCookie> outputCookies;
         /** Session ID. */
         private String SID;
 
@@ -270,40 +824,109 @@ public class SmartHttpServer {
             this.csocket = csocket;
         }
 
+        /**
+         * Constructs a new {@code ClientWorker} which serves one request from
+         * the specified connection of the NIO engine and then returns the
+         * connection to the engine if it stays open.
+         * 
+         * @param connection
+         *            connection of the NIO engine
+         * @param head
+         *            bytes already read from the connection
+         * @param owner
+         *            server thread to which the connection is returned
+         */
+        public ClientWorker(NioConnection connection, byte[] head, NioServerThread owner) {
+            this(connection.channel.socket());
+            this.connection = connection;
+            this.head = head;
+            this.owner = owner;
+        }
+
         @Override
         public void run() {
+            boolean keepAlive = false;
+
             try {
-                istream = new PushbackInputStream(csocket.getInputStream());
+                istream = csocket.getInputStream();
+                requestHead = head != null ? new RequestHead(head) : new RequestHead();
                 ostream = csocket.getOutputStream();
+                // responses are written in as few writes as possible, so the
+                // last segment of one shouldn't wait for an acknowledgement
+                csocket.setTcpNoDelay(true);
+
+                if (connection == null) {
+                    csocket.setSoTimeout(keepAliveTimeout * 1000);
+
+                    int served = 0;
+                    do {
+                        served++;
+                    } while (serveRequest(served < maxRequestsPerConnection));
+                } else {
+                    connection.served++;
+                    keepAlive = serveRequest(connection.served < maxRequestsPerConnection);
+                }
             } catch (IOException ignorable) {
+            } finally {
+                if (keepAlive) {
+                    owner.resume(connection, requestHead.remaining());
+                } else {
+                    try {
+                        csocket.close();
+                    } catch (IOException ignorable) {
+                    }
+                }
             }
+        }
 
-            List<String> request = readRequest();
-
-            if (request.size() < 1) {
-                sendError(ostream, 400, "Bad Request");
-                return;
+        /**
+         * Reads one request from the client and writes the response.
+         * 
+         * @param mayKeepAlive
+         *            indicates whether another request can be served over
+         *            this connection
+         * @return {@code true} if the connection stays open for the next
+         *         request; {@code false} otherwise
+         * @throws IOException
+         *             if an I/O error occurs
+         */
+        private boolean serveRequest(boolean mayKeepAlive) throws IOException {
+            params = new LinkedHashMap<String, String>();
+            permParams = null;
+            outputCookies = new ArrayList<RequestContext.RCCookie>();
+            SID = null;
+
+            if (!requestHead.read(istream)) {
+                return false;
             }
 
-            String firstLine = request.get(0);
+            String target = requestHead.getTarget();
 
-            String[] parts = firstLine.split(" ");
+            if (target == null || !target.startsWith("/")) {
+                sendError(ostream, 400, "Bad Request");
+                return false;
+            }
 
-            method = parts[0];
-            String requestedPath = parts[1].substring(1);
-            version = parts[2];
+            method = requestHead.getMethod();
+            String requestedPath = target.substring(1);
+            version = requestHead.getVersion();
 
             if (!method.equals("GET")) {
                 sendError(ostream, 400, "Bad Request");
-                return;
+                return false;
             }
 
             if (!(version.equals("HTTP/1.0") || version.equals("HTTP/1.1"))) {
                 sendError(ostream, 400, "Bad Request");
-                return;
+                return false;
             }
 
-            processSession(request);
+            Map<String, String> headers = requestHead.getHeaders();
+            boolean keepAlive = mayKeepAlive && (version.equals("HTTP/1.1")
+                    ? !requestHead.hasToken("Connection", "close")
+                    : requestHead.hasToken("Connection", "keep-alive"));
+
+            processSession();
 
             String path = null;
             String paramString = null;
@@ -312,7 +935,7 @@ public class SmartHttpServer {
                 String[] pathAndParams = requestedPath.split("\\?");
 
                 path = pathAndParams[0];
-                paramString = pathAndParams[1];
+                paramString = pathAndParams.length > 1 ? pathAndParams[1] : null;
 
                 parseParameters(paramString);
             } else {
@@ -322,141 +945,147 @@ public class SmartHttpServer {
             Path reqPath = documentRoot.resolve(path);
 
             if (reqPath.toString().length() < documentRoot.toString().length()) {
-                sendError(ostream, 403, "Forbidden");
-                return;
+                sendError(ostream, 403, "Forbidden", keepAlive);
+                return keepAlive;
             }
+            String extension = path.substring(path.lastIndexOf('.') + 1);
+
+            String mimeType = mimeTypes.get(extension);
+
+            Path file = reqPath;
+            String contentEncoding = null;
+            Path sibling = precompressed == null ? null : precompressed.getSibling(reqPath);
+            if (sibling != null) {
+                // the file may have changed since the document root was indexed
+                boolean gzip = RequestContext.acceptsGzip(headers.get("Accept-Encoding"))
+                        && PrecompressedFiles.isCurrent(reqPath, sibling);
+
+                file = gzip ? sibling : reqPath;
+                contentEncoding = gzip ? "gzip" : "identity";
+            }
+
             IWebWorker worker = null;
+            StaticFileCache.Entry cached = null;
 
             if (path.startsWith("ext/") || workersMap.containsKey("/" + path)) {
                 worker = workersMap.get("/" + path);
+            } else if (staticCache != null && !extension.equals("smscr") && !headers.containsKey("Range")
+                    && (cached = staticCache.get(file, mimeType, contentEncoding)) != null) {
+                boolean notModified = RequestContext.isNotModified(headers.get("If-None-Match"),
+                        headers.get("If-Modified-Since"), cached.getETag(), cached.getLastModified());
+
+                writeResponse(cached.getResponse(keepAlive, notModified, outputCookies));
+                return keepAlive;
             } else if (!(Files.exists(reqPath) && Files.isReadable(reqPath))) {
-                sendError(ostream, 404, "Not Found");
-                return;
+                sendError(ostream, 404, "Not Found", keepAlive);
+                return keepAlive;
             }
 
-            String extension = path.substring(requestedPath.lastIndexOf('.') + 1);
-
-            String mimeType = mimeTypes.get(extension);
-
-            RequestContext rc = new RequestContext(ostream, params, permParams, outputCookies);
+            RequestContext rc = new RequestContext(ostream, params, permParams, outputCookies, responseBufferSize);
 
             rc.setMimeType(mimeType);
             rc.setStatusCode(200);
             rc.setStatusText("OK");
+            rc.setHttpVersion(version);
+            rc.setKeepAlive(keepAlive);
+            rc.setOutputChannel(csocket.getChannel());
+            rc.setRequestHeaders(headers);
+            rc.setCompression(deflaters, compressionThreshold);
 
-            if (worker != null) {
-                worker.processRequest(rc);
-            } else if (extension.equals("smscr")) {
-                getSmartScriptEngine(reqPath, rc).execute();
-            } else {
+            if (worker != null || extension.equals("smscr")) {
                 try {
-                    byte[] bytes = Files.readAllBytes(reqPath);
-
-                    rc.write(bytes);
-                } catch (IOException e) {
+                    if (worker != null) {
+                        worker.processRequest(rc);
+                    } else {
+                        scriptCache.getScript(reqPath).execute(rc);
+                    }
+                } catch (RuntimeException e) {
+                    // the response is incomplete, so the connection can't be reused
+                    if (!rc.isHeaderWritten()) {
+                        sendError(ostream, 500, "Internal Server Error");
+                    }
+                    return false;
                 }
-            }
-
-            try {
-                csocket.close();
-            } catch (IOException ignorable) {
-            }
-        }
-
-        /**
-         * Processes the session.
-         * 
-         * @param request
-         *            list of lines of a HTTP request
-         */
-        private synchronized void processSession(List<String> request) {
-            String sidCandidate = checkSession(request);
-
-            if (sidCandidate == null) {
-                SessionMapEntry entry = generateSessionEntry();
-
-                sessions.put(entry.sid, entry);
-                outputCookies.add(new RequestContext.RCCookie("sid", entry.sid, null, address, "/", true));
             } else {
-                SessionMapEntry entry = sessions.get(sidCandidate);
-
-                if (entry == null || entry.validUntil < System.currentTimeMillis()) {
-                    SessionMapEntry newEntry = generateSessionEntry(sidCandidate);
+                if (file != reqPath && !Files.isReadable(file)) {
+                    // the sibling was deleted after the document root was indexed
+                    file = reqPath;
+                    contentEncoding = "identity";
+                }
+                if (contentEncoding != null) {
+                    rc.setNegotiatedEncoding(contentEncoding);
+                }
 
-                    sessions.put(newEntry.sid, newEntry);
-                    outputCookies.add(new RequestContext.RCCookie("sid", newEntry.sid, null, address, "/", true));
-                } else {
-                    SID = entry.sid;
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                long lastModified = attributes.lastModifiedTime().toMillis();
 
-                    entry.validUntil = System.currentTimeMillis() + sessionTimeout * 1000;
-                    permParams = entry.map;
+                if (!rc.checkNotModified(StaticFileCache.getETag(lastModified, attributes.size()), lastModified)) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        rc.writeFile(channel);
+                    }
                 }
             }
-        }
 
-        /**
-         * Checks if there is a cookie with a sid parameter and returns it if it
-         * exists.
-         * 
-         * @param request
-         *            list of lines of a HTTP request
-         * @return sid parameter if exists; {@code null} otherwise
-         */
-        private String checkSession(List<String> request) {
-            String sidLine = request.stream()
-                    .filter(x -> x.matches("Cookie: sid=([A-Z]*)"))
-                    .findFirst().orElse(null);
-
-            String sidCandidate = null;
-            if (sidLine != null) {
-                sidCandidate = sidLine.substring(sidLine.indexOf('=') + 1);
-            }
+            rc.finish();
 
-            return sidCandidate;
+            return rc.isKeepAlive();
         }
 
         /**
-         * Generate random session ID and returns it.
+         * Writes the buffers of a prepared response to the client. If the
+         * channel of the client is known, all buffers are written by one
+         * gathering write.
          * 
-         * @return random session ID
+         * @param buffers
+         *            buffers of the response
+         * @throws IOException
+         *             if an I/O error occurs
          */
-        private String generateSID() {
-            StringBuilder sb = new StringBuilder();
+        private void writeResponse(ByteBuffer[] buffers) throws IOException {
+            SocketChannel channel = csocket.getChannel();
 
-            sessionRandom.ints(65, 90)
-                    .limit(20)
-                    .forEach(c -> sb.append((char) c));
+            if (channel == null) {
+                for (ByteBuffer buffer : buffers) {
+                    ostream.write(buffer.array(), buffer.position(), buffer.remaining());
+                }
+                ostream.flush();
+                return;
+            }
 
-            return sb.toString();
+            ByteBuffer last = buffers[buffers.length - 1];
+            do {
+                channel.write(buffers);
+            } while (last.hasRemaining());
         }
 
         /**
-         * Generates the session entry with specified sid and returns it.
-         * 
-         * @param sid
-         *            session ID
-         * @return session entry
+         * Processes the session. The session of the request is touched or
+         * created atomically by the session store, so no lock is needed. A
+         * cookie is sent only with a newly generated session ID.
          */
-        private SessionMapEntry generateSessionEntry(String sid) {
-            Objects.requireNonNull(sid, "You cannot generate session entry with a null reference as a SID!");
+        private void processSession() {
+            String sidCandidate = checkSession();
+            String sid = sidCandidate != null ? sidCandidate : SessionIdGenerator.generate();
 
-            SessionMapEntry entry = new SessionMapEntry();
-            entry.sid = sid;
-            entry.map = permParams;
-            entry.validUntil = System.currentTimeMillis() + sessionTimeout * 1000;
-
-            SID = entry.sid;
+            SessionStore.Entry entry = sessions.getOrCreate(sid, System.currentTimeMillis());
+            if (sidCandidate == null) {
+                outputCookies.add(new RequestContext.RCCookie("sid", sid, null, address, "/", true));
+            }
 
-            return entry;
+            SID = entry.getSID();
+            permParams = entry.getParameters();
         }
 
         /**
-         * Generates the session entry with random sid.
+         * Checks if there is a cookie with a sid parameter and returns it if it
+         * exists and is a valid session ID.
          * 
-         * @return session entry
+         * @return sid parameter if exists and is valid; {@code null} otherwise
          */
-        private SessionMapEntry generateSessionEntry() {
-            return generateSessionEntry(generateSID());
+        private String checkSession() {
+            String sidCandidate = requestHead.getCookie("sid");
+
+            return SessionIdGenerator.isValid(sidCandidate) ? sidCandidate : null;
         }
 
         /**
@@ -479,100 +1108,18 @@ public class SmartHttpServer {
         }
 
         /**
-         * Reads HTTP request and returns the list of all lines.
-         * 
-         * @return the list of all lines from HTTP request
-         */
-        private List<String> readRequest() {
-            byte[] request = null;
-
-            try {
-                request = readRequest(istream);
-            } catch (IOException e) {
-            }
-
-            if (request == null) {
-                sendError(ostream, 400, "Bad request");
-                return null;
-            }
-
-            String requestStr = new String(request, StandardCharsets.US_ASCII);
-
-            List<String> headers = new ArrayList<String>();
-            String currentLine = null;
-
-            for (String s : requestStr.split("\n")) {
-                if (s.isEmpty())
-                    break;
-                char c = s.charAt(0);
-                if (c == 9 || c == 32) {
-                    currentLine += s;
-                } else {
-                    if (currentLine != null) {
-                        headers.add(currentLine);
-                    }
-                    currentLine = s;
-                }
-            }
-            if (!currentLine.isEmpty()) {
-                headers.add(currentLine);
-            }
-            return headers;
-        }
-
-        /**
-         * Reads HTTP request.
+         * Sends the error response on specified output stream and with
+         * specified status code and status text.
          * 
-         * @param is
-         *            input stream
-         * @return bytes representation of a request
-         * @throws IOException
-         *             if an I/O error occurs
+         * @param cos
+         *            client output stream
+         * @param statusCode
+         *            HTTP status code
+         * @param statusText
+         *            status text
          */
-        private byte[] readRequest(InputStream is) throws IOException {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            int state = 0;
-            l: while (true) {
-                int b = is.read();
-                if (b == -1)
-                    return null;
-                if (b != 13) {
-                    bos.write(b);
-                }
-                switch (state) {
-                    case 0:
-                        if (b == 13) {
-                            state = 1;
-                        } else if (b == 10)
-                            state = 4;
-                        break;
-                    case 1:
-                        if (b == 10) {
-                            state = 2;
-                        } else
-                            state = 0;
-                        break;
-                    case 2:
-                        if (b == 13) {
-                            state = 3;
-                        } else
-                            state = 0;
-                        break;
-                    case 3:
-                        if (b == 10) {
-                            break l;
-                        } else
-                            state = 0;
-                        break;
-                    case 4:
-                        if (b == 10) {
-                            break l;
-                        } else
-                            state = 0;
-                        break;
-                }
-            }
-            return bos.toByteArray();
+        private void sendError(OutputStream cos, int statusCode, String statusText) {
+            sendError(cos, statusCode, statusText, false);
         }
 
         /**
@@ -585,79 +1132,24 @@ public class SmartHttpServer {
          *            HTTP status code
          * @param statusText
          *            status text
+         * @param keepAlive
+         *            indicates whether the connection stays open after the
+         *            response
          */
-        private void sendError(OutputStream cos, int statusCode, String statusText) {
+        private void sendError(OutputStream cos, int statusCode, String statusText, boolean keepAlive) {
             try {
                 cos.write(
                         ("HTTP/1.1 " + statusCode + " " + statusText + "\r\n" +
                                 "Server: simple java server\r\n" +
                                 "Content-Type: text/plain;charset=UTF-8\r\n" +
                                 "Content-Length: 0\r\n" +
-                                "Connection: close\r\n" +
+                                "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
                                 "\r\n").getBytes(StandardCharsets.US_ASCII));
 
                 cos.flush();
             } catch (IOException e) {
             }
         }
-
-        /**
-         * Returns the {@linkplain SmartScriptEngine} for specified path of a
-         * script and request context.
-         * 
-         * @param path
-         *            path of a script
-         * @param rc
-         *            request context
-         * @return {@linkplain SmartScriptEngine}
-         */
-        private SmartScriptEngine getSmartScriptEngine(Path path, RequestContext rc) {
-            String documentBody = readFromDisk(path);
-
-            return new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc);
-        }
-
-        /**
-         * Reads a file from disk at the specified path.
-         * 
-         * @param path
-         *            path of the file
-         * @return a string of a file
-         */
-        private String readFromDisk(Path path) {
-            if (!Files.exists(path) || !Files.isRegularFile(path)) {
-                System.err.println("Path " + path.toAbsolutePath().toString() + " doesn't exists or isn't a file!");
-                return null;
-            }
-
-            byte[] data = null;
-            try {
-                data = Files.readAllBytes(path);
-            } catch (IOException e) {
-                System.err.println("Some I/O error occured while reading from the file" + path.toAbsolutePath() + "!");
-                return null;
-            }
-
-            return new String(data, StandardCharsets.UTF_8);
-        }
-    }
-
-    /**
-     * {@code SessionMapEntry} is a class that contains the information about
-     * sessions.
-     * 
-     * @author Karlo Vrbić
-     * @version 1.0
-     */
-    private static class SessionMapEntry {
-
-        /** Sessio ID. */
-        String sid;
-        /** Indicates time until this session is valid. */
-        long validUntil;
-        /** Map of parameters. */
-        Map<String, String> map;
-
     }
 
     /**
@@ -0,0 +1,303 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+/**
+ * {@code SmartScriptCache} is a thread-safe cache of parsed {@code SmartScript}
+ * documents keyed by their path.
+ * <p>
+ * An entry is valid as long as last modified time and size of its file are
+ * unchanged. When the cache holds more than the maximum number of entries, the
+ * least recently used one is evicted.
+ * <p>
+ * Parsed scripts are compiled into closures by
+ * {@link SmartScriptEngine#compile(DocumentNode)}. When a script is executed as
+ * many times as the compile threshold says, it is also compiled by the
+ * {@link ScriptCompiler} in the background and the compiled class is used from
+ * then on.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+public class SmartScriptCache {
+
+    /** Thread which compiles the scripts. */
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "SmartScript compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Maximum number of cached documents. */
+    private final int maxEntries;
+    /** Number of executions after which a script is compiled. */
+    private final int compileThreshold;
+    /** Function compiling a document or returning {@code null} if it can't. */
+    private final Function<DocumentNode, CompiledScript> compiler;
+    /** Map of all cached documents. */
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    /** Counter used for ordering the accesses of entries. */
+    private final AtomicLong clock = new AtomicLong();
+    /** Number of requests served from cache. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Number of requests which needed parsing. */
+    private final AtomicLong misses = new AtomicLong();
+    /** Number of compiled scripts. */
+    private final AtomicLong compiled = new AtomicLong();
+
+    /**
+     * Constructs a new {@code SmartScriptCache} with specified maximum number
+     * of entries. Scripts are never compiled.
+     *
+     * @param maxEntries
+     *            maximum number of cached documents
+     * @throws IllegalArgumentException
+     *             if {@code maxEntries} is less than 1
+     */
+    public SmartScriptCache(int maxEntries) {
+        this(maxEntries, 0);
+    }
+
+    /**
+     * Constructs a new {@code SmartScriptCache} with specified maximum number
+     * of entries and compile threshold.
+     *
+     * @param maxEntries
+     *            maximum number of cached documents
+     * @param compileThreshold
+     *            number of executions after which a script is compiled or 0 if
+     *            scripts shouldn't be compiled
+     * @throws IllegalArgumentException
+     *             if {@code maxEntries} is less than 1 or
+     *             {@code compileThreshold} is negative
+     */
+    public SmartScriptCache(int maxEntries, int compileThreshold) {
+        this(maxEntries, compileThreshold, ScriptCompiler::compile);
+    }
+
+    /**
+     * Constructs a new {@code SmartScriptCache} with specified maximum number
+     * of entries, compile threshold and function which compiles the scripts.
+     * A script for which the function returns {@code null} stays a tree of
+     * closures.
+     *
+     * @param maxEntries
+     *            maximum number of cached documents
+     * @param compileThreshold
+     *            number of executions after which a script is compiled or 0 if
+     *            scripts shouldn't be compiled
+     * @param compiler
+     *            function compiling a document
+     * @throws IllegalArgumentException
+     *             if {@code maxEntries} is less than 1 or
+     *             {@code compileThreshold} is negative
+     */
+    SmartScriptCache(int maxEntries, int compileThreshold, Function<DocumentNode, CompiledScript> compiler) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("Maximum number of entries should be positive: " + maxEntries);
+        if (compileThreshold < 0)
+            throw new IllegalArgumentException("Compile threshold shouldn't be negative: " + compileThreshold);
+
+        this.maxEntries = maxEntries;
+        this.compileThreshold = compileThreshold;
+        this.compiler = compiler;
+    }
+
+    /**
+     * Returns the parsed document of a script at the specified path. The
+     * script is read and parsed only if it isn't cached or it has changed
+     * since it was cached.
+     *
+     * @param path
+     *            path of a script
+     * @return parsed document
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public DocumentNode get(Path path) throws IOException {
+        return entry(path).document;
+    }
+
+    /**
+     * Returns the executable script at the specified path. The script is
+     * executed as a tree of closures until it reaches the compile threshold
+     * and then it is compiled into a class in the background.
+     *
+     * @param path
+     *            path of a script
+     * @return executable script
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public CompiledScript getScript(Path path) throws IOException {
+        Entry entry = entry(path);
+
+        if (compileThreshold > 0 && entry.executions.incrementAndGet() == compileThreshold) {
+            COMPILER.execute(() -> {
+                CompiledScript script = compiler.apply(entry.document);
+
+                if (script != null) {
+                    entry.script = script;
+                    compiled.incrementAndGet();
+                }
+            });
+        }
+
+        return entry.script;
+    }
+
+    /**
+     * Returns the valid entry for a script at the specified path, parsing the
+     * script if needed.
+     *
+     * @param path
+     *            path of a script
+     * @return entry of a script
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private Entry entry(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.lastModified == lastModified && entry.size == size) {
+            entry.lastAccess = clock.incrementAndGet();
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        misses.incrementAndGet();
+
+        String documentBody = new String(Files.readAllBytes(key), StandardCharsets.UTF_8);
+        entry = new Entry(new SmartScriptParser(documentBody).getDocumentNode(), lastModified, size);
+        entry.lastAccess = clock.incrementAndGet();
+
+        entries.put(key, entry);
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is within its
+     * bounds.
+     */
+    private synchronized void evict() {
+        while (entries.size() > maxEntries) {
+            Path eldest = null;
+            long eldestAccess = Long.MAX_VALUE;
+
+            for (Map.Entry<Path, Entry> e : entries.entrySet()) {
+                if (e.getValue().lastAccess < eldestAccess) {
+                    eldest = e.getKey();
+                    eldestAccess = e.getValue().lastAccess;
+                }
+            }
+
+            if (eldest == null)
+                return;
+
+            entries.remove(eldest);
+        }
+    }
+
+    /**
+     * Returns the number of requests served from cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests for which the script had to be parsed.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of scripts which were compiled.
+     *
+     * @return the number of compiled scripts
+     */
+    public long getCompiled() {
+        return compiled.get();
+    }
+
+    /**
+     * Returns the number of cached documents.
+     *
+     * @return the number of cached documents
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * {@code Entry} is a cached document together with the attributes of its
+     * file at the time it was parsed.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    private static class Entry {
+
+        /** Parsed document. */
+        final DocumentNode document;
+        /** Last modified time of the file in milliseconds. */
+        final long lastModified;
+        /** Size of the file in bytes. */
+        final long size;
+        /** Value of the clock at the last access of this entry. */
+        volatile long lastAccess;
+        /** Number of executions of the script. */
+        final AtomicInteger executions = new AtomicInteger();
+        /** Script which is executed, either closures or a compiled class. */
+        volatile CompiledScript script;
+
+        /**
+         * Constructs a new {@code Entry} with specified parameters.
+         *
+         * @param document
+         *            parsed document
+         * @param lastModified
+         *            last modified time of the file in milliseconds
+         * @param size
+         *            size of the file in bytes
+         */
+        Entry(DocumentNode document, long lastModified, long size) {
+            this.document = document;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.script = SmartScriptEngine.compile(document);
+        }
+
+    }
+
+}
@@ -0,0 +1,570 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+/**
+ * {@code StaticFileCache} is a thread-safe cache of complete responses for
+ * static files keyed by their path. A cached response consists of the bytes of
+ * the file and of the header, which is built once when the file is read, so
+ * serving a cached file needs neither the file system nor building of the
+ * header.
+ * <p>
+ * The cache is bounded by the total number of bytes of cached responses. When
+ * it grows over its maximum size, the least recently used entries are evicted.
+ * Files larger than the maximum file size are never cached.
+ * <p>
+ * Directories of cached files are watched by a {@link WatchService}, so an
+ * entry is removed as soon as its file is changed, deleted or replaced. If the
+ * file system doesn't support watching, nothing is cached.
+ * <p>
+ * Responses carry the validators of their files, so the headers of the
+ * {@code 304 Not Modified} responses are prepared as well.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ */
+public class StaticFileCache {
+
+    /** Maximum total size of cached responses in bytes. */
+    private final long maxSize;
+    /** Maximum size of a cached file in bytes. */
+    private final long maxFileSize;
+    /** Map of all cached responses. */
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    /** Total size of cached responses in bytes. */
+    private final AtomicLong size = new AtomicLong();
+    /** Counter used for ordering the accesses of entries. */
+    private final AtomicLong clock = new AtomicLong();
+    /** Number of changes of watched directories, used to detect stale reads. */
+    private final AtomicLong changes = new AtomicLong();
+    /** Number of requests served from cache. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Number of requests for which the file had to be read. */
+    private final AtomicLong misses = new AtomicLong();
+    /** Map of watched directories and their keys. */
+    private final Map<Path, WatchKey> watched = new HashMap<>();
+    /** Service watching the directories of cached files. */
+    private WatchService watchService;
+    /** Indicates whether watching isn't supported, so nothing is cached. */
+    private volatile boolean disabled;
+
+    /**
+     * Constructs a new {@code StaticFileCache} with specified maximum total
+     * size and maximum size of a cached file.
+     *
+     * @param maxSize
+     *            maximum total size of cached responses in bytes
+     * @param maxFileSize
+     *            maximum size of a cached file in bytes
+     * @throws IllegalArgumentException
+     *             if {@code maxSize} is less than 1 or {@code maxFileSize} is
+     *             negative
+     */
+    public StaticFileCache(long maxSize, long maxFileSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Maximum size should be positive: " + maxSize);
+        if (maxFileSize < 0)
+            throw new IllegalArgumentException("Maximum file size shouldn't be negative: " + maxFileSize);
+
+        this.maxSize = maxSize;
+        this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Returns the cached response for a file at the specified path. The file
+     * is read only if it isn't cached yet. If the path isn't a readable
+     * regular file or the file is too large, {@code null} is returned and the
+     * file should be served from the disk.
+     *
+     * @param path
+     *            path of a file
+     * @param mimeType
+     *            mime type of the file or {@code null} for the default one
+     * @return cached response or {@code null} if the file isn't cached
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public Entry get(Path path, String mimeType) throws IOException {
+        return get(path, mimeType, null);
+    }
+
+    /**
+     * Returns the cached response for a file at the specified path which is a
+     * variant of an entity chosen by the {@code Accept-Encoding} header, e.g. a
+     * precompressed file. Otherwise it works as {@link #get(Path, String)}.
+     *
+     * @param path
+     *            path of a file
+     * @param mimeType
+     *            mime type of the entity or {@code null} for the default one
+     * @param contentEncoding
+     *            content coding of the file, {@code identity} if it isn't
+     *            encoded, or {@code null} if the response doesn't depend on
+     *            {@code Accept-Encoding} header
+     * @return cached response or {@code null} if the file isn't cached
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public Entry get(Path path, String mimeType, String contentEncoding) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+
+        Entry entry = entries.get(key);
+        if (entry != null && Objects.equals(entry.mimeType, mimeType)
+                && Objects.equals(entry.contentEncoding, contentEncoding)) {
+            entry.lastAccess = clock.incrementAndGet();
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        if (disabled)
+            return null;
+
+        long changesBefore = changes.get();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        if (!attributes.isRegularFile() || attributes.size() > maxFileSize || !Files.isReadable(key)
+                || !watch(key.getParent())) {
+            return null;
+        }
+
+        misses.incrementAndGet();
+
+        byte[] body = Files.readAllBytes(key);
+        if (body.length > maxFileSize)
+            return null;
+
+        entry = new Entry(body, mimeType, contentEncoding, attributes.lastModifiedTime().toMillis());
+        entry.lastAccess = clock.incrementAndGet();
+
+        Entry previous = entries.put(key, entry);
+        size.addAndGet(entry.size() - (previous == null ? 0 : previous.size()));
+
+        if (changes.get() != changesBefore) {
+            // the file may have changed or the cache was closed while it was read
+            remove(key);
+        }
+
+        if (size.get() > maxSize) {
+            evict();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the entity tag of a file with specified last modified time and
+     * size. It changes whenever the file is modified, without reading it.
+     *
+     * @param lastModified
+     *            last modified time of the file in milliseconds
+     * @param size
+     *            size of the file in bytes
+     * @return the quoted entity tag
+     */
+    public static String getETag(long lastModified, long size) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+    }
+
+    /**
+     * Starts watching the specified directory if it isn't watched already.
+     *
+     * @param directory
+     *            directory of a cached file
+     * @return {@code true} if the directory is watched; {@code false} if
+     *         watching isn't supported
+     */
+    private synchronized boolean watch(Path directory) {
+        if (watched.containsKey(directory))
+            return true;
+
+        try {
+            if (watchService == null) {
+                WatchService service = directory.getFileSystem().newWatchService();
+                watchService = service;
+
+                Thread watcher = new Thread(() -> processEvents(service), "Static file watcher");
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+
+            watched.put(directory, directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            disabled = true;
+            return false;
+        }
+    }
+
+    /**
+     * Removes the entries of changed files until the watch service is closed.
+     *
+     * @param watchService
+     *            the watch service
+     */
+    private void processEvents(WatchService watchService) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = (Path) key.watchable();
+            changes.incrementAndGet();
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    removeAll(directory);
+                } else {
+                    remove(directory.resolve((Path) event.context()));
+                }
+            }
+
+            if (!key.reset()) {
+                synchronized (this) {
+                    watched.remove(directory);
+                }
+
+                removeAll(directory);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of the file at the specified path.
+     *
+     * @param key
+     *            absolute and normalized path of a file
+     */
+    private void remove(Path key) {
+        Entry entry = entries.remove(key);
+
+        if (entry != null) {
+            size.addAndGet(-entry.size());
+        }
+    }
+
+    /**
+     * Removes the entries of all files in the specified directory.
+     *
+     * @param directory
+     *            absolute and normalized path of a directory
+     */
+    private void removeAll(Path directory) {
+        for (Path path : entries.keySet()) {
+            if (directory.equals(path.getParent())) {
+                remove(path);
+            }
+        }
+    }
+
+    /**
+     * Closes the watch service and removes all entries, since changes of their
+     * files wouldn't be noticed anymore. The cache can still be used; the
+     * directories of the files cached afterwards are watched by a new watch
+     * service.
+     */
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignorable) {
+            }
+            watchService = null;
+        }
+        watched.clear();
+        changes.incrementAndGet();
+
+        for (Path path : entries.keySet()) {
+            remove(path);
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is within its
+     * bounds.
+     */
+    private synchronized void evict() {
+        while (size.get() > maxSize) {
+            Path eldest = null;
+            long eldestAccess = Long.MAX_VALUE;
+
+            for (Map.Entry<Path, Entry> e : entries.entrySet()) {
+                if (e.getValue().lastAccess < eldestAccess) {
+                    eldest = e.getKey();
+                    eldestAccess = e.getValue().lastAccess;
+                }
+            }
+
+            if (eldest == null)
+                return;
+
+            remove(eldest);
+        }
+    }
+
+    /**
+     * Returns the number of requests served from cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests for which the file had to be read.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the total size of cached responses in bytes.
+     *
+     * @return the size of the cache
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of cached files.
+     *
+     * @return the number of cached files
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * {@code Entry} is a cached response for a static file. The header is the
+     * same one {@link RequestContext} would send for the file, prepared for
+     * both persistent and non-persistent connections and for both the full
+     * response and {@code 304 Not Modified}.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     */
+    public static class Entry {
+
+        /** Bytes of the file. */
+        private final byte[] body;
+        /** Mime type of the file. */
+        private final String mimeType;
+        /** Content coding of the file or {@code null} if the response isn't negotiated. */
+        private final String contentEncoding;
+        /** Entity tag of the file. */
+        private final String etag;
+        /** Last modified time of the file in milliseconds. */
+        private final long lastModified;
+        /** Header for a connection which stays open. */
+        private final byte[] keepAliveHeader;
+        /** Header for a connection which is closed after the response. */
+        private final byte[] closeHeader;
+        /** Header of {@code 304} for a connection which stays open. */
+        private final byte[] keepAliveNotModified;
+        /** Header of {@code 304} for a connection which is closed after it. */
+        private final byte[] closeNotModified;
+        /** Value of the clock at the last access of this entry. */
+        volatile long lastAccess;
+
+        /**
+         * Constructs a new {@code Entry} with specified body, mime type,
+         * content coding and last modified time.
+         *
+         * @param body
+         *            bytes of the file
+         * @param mimeType
+         *            mime type of the file or {@code null} for the default one
+         * @param contentEncoding
+         *            content coding of the file or {@code null} if the
+         *            response isn't negotiated
+         * @param lastModified
+         *            last modified time of the file in milliseconds
+         */
+        Entry(byte[] body, String mimeType, String contentEncoding, long lastModified) {
+            this.body = body;
+            this.mimeType = mimeType;
+            this.contentEncoding = contentEncoding;
+            this.etag = StaticFileCache.getETag(lastModified, body.length);
+            this.lastModified = lastModified;
+            this.keepAliveHeader = header(mimeType, true, false);
+            this.closeHeader = header(mimeType, false, false);
+            this.keepAliveNotModified = header(mimeType, true, true);
+            this.closeNotModified = header(mimeType, false, true);
+        }
+
+        /**
+         * Returns the header which {@link RequestContext} sends for this file.
+         *
+         * @param mimeType
+         *            mime type of the file or {@code null} for the default one
+         * @param keepAlive
+         *            indicates whether the connection stays open
+         * @param notModified
+         *            indicates whether the response is {@code 304 Not Modified}
+         * @return the header of the response
+         */
+        private byte[] header(String mimeType, boolean keepAlive, boolean notModified) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            RequestContext rc = new RequestContext(os, null, null, null);
+
+            rc.setMimeType(mimeType);
+            rc.setKeepAlive(keepAlive);
+            rc.setContentLength(body.length);
+            rc.setETag(etag);
+            rc.setLastModified(lastModified);
+            rc.setAcceptRanges(true);
+            if (contentEncoding != null) {
+                rc.setNegotiatedEncoding(contentEncoding);
+            }
+            if (notModified) {
+                rc.setStatusCode(RequestContext.NOT_MODIFIED);
+                rc.setStatusText("Not Modified");
+            }
+
+            try {
+                rc.finish();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return os.toByteArray();
+        }
+
+        /**
+         * Returns the position in the header where the cookies are inserted,
+         * right after the status line and the content type.
+         *
+         * @param header
+         *            header of a response
+         * @return the position of the cookies
+         */
+        private static int getCookieOffset(byte[] header) {
+            int offset = getNextLine(header, 0);
+
+            String contentType = "Content-Type:";
+            if (new String(header, offset, contentType.length(), StandardCharsets.ISO_8859_1).equals(contentType)) {
+                offset = getNextLine(header, offset);
+            }
+
+            return offset;
+        }
+
+        /**
+         * Returns the position of the line following the one at the specified
+         * position.
+         *
+         * @param header
+         *            header of a response
+         * @param offset
+         *            position of a line
+         * @return the position of the next line
+         */
+        private static int getNextLine(byte[] header, int offset) {
+            while (header[offset] != '\n') {
+                offset++;
+            }
+
+            return offset + 1;
+        }
+
+        /**
+         * Returns the bytes of the file.
+         *
+         * @return the body of the response
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Returns the entity tag of the file.
+         *
+         * @return the quoted entity tag
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * Returns the last modified time of the file.
+         *
+         * @return the last modified time in milliseconds
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns the complete response as buffers which should be written in
+         * order. Only the header lines of the cookies are built, everything
+         * else is shared between the requests.
+         *
+         * @param keepAlive
+         *            indicates whether the connection stays open
+         * @param notModified
+         *            indicates whether the client already has the file, so
+         *            {@code 304 Not Modified} is sent without the body
+         * @param cookies
+         *            cookies to be sent with the response
+         * @return buffers of the response
+         */
+        public ByteBuffer[] getResponse(boolean keepAlive, boolean notModified, List<RCCookie> cookies) {
+            byte[] header = notModified ? (keepAlive ? keepAliveNotModified : closeNotModified)
+                    : (keepAlive ? keepAliveHeader : closeHeader);
+            ByteBuffer content = ByteBuffer.wrap(body, 0, notModified ? 0 : body.length);
+
+            if (cookies.isEmpty()) {
+                return new ByteBuffer[] { ByteBuffer.wrap(header), content };
+            }
+
+            int cookieOffset = getCookieOffset(header);
+            return new ByteBuffer[] { ByteBuffer.wrap(header, 0, cookieOffset),
+                    ByteBuffer.wrap(RequestContext.getCookieHeader(cookies)),
+                    ByteBuffer.wrap(header, cookieOffset, header.length - cookieOffset), content };
+        }
+
+        /**
+         * Returns the number of bytes this entry takes from the cache.
+         *
+         * @return the size of this entry
+         */
+        long size() {
+            return body.length + keepAliveHeader.length + closeHeader.length + keepAliveNotModified.length
+                    + closeNotModified.length;
+        }
+
+    }
+
+}
@@ -0,0 +1,259 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@code TimingWheel} is a hierarchical timing wheel which finds the elements
+ * whose deadlines have passed without scanning all elements. Time is divided
+ * into ticks, and every level of the wheel has {@value #SLOTS} slots, each
+ * spanning {@value #SLOTS} times more ticks than a slot of the level below.
+ * An element is kept in the lowest level whose slots reach its deadline, and
+ * is moved to a lower level once its slot comes up, so scheduling and expiring
+ * an element are both done in constant time.
+ * <p>
+ * Deadlines of elements may be extended after they are scheduled. Such
+ * element is offered for removal at its old deadline, and if it isn't removed
+ * it is scheduled again at its new one, so an element is moved only once per
+ * extension no matter how often it is extended.
+ * <p>
+ * Elements can also be {@linkplain #poll() polled} before their deadlines, in
+ * the order of their deadlines, which is exact to a slot of the level they are
+ * kept in.
+ * <p>
+ * This class isn't thread-safe.
+ *
+ * @author Karlo Vrbić
+ * @version 1.0
+ * @param <E>
+ *            type of the elements
+ */
+final class TimingWheel<E> {
+
+    /** Number of bits of a tick used for indexing one level. */
+    private static final int BITS = 6;
+    /** Number of slots in one level. */
+    static final int SLOTS = 1 << BITS;
+    /** Number of levels, enough for {@code 2^24} ticks. */
+    private static final int LEVELS = 4;
+
+    /** Length of a tick in milliseconds. */
+    private final long tick;
+    /** Function returning the deadline of an element in milliseconds. */
+    private final ToLongFunction<E> deadline;
+    /** Slots of all levels; a slot is {@code null} while it is empty. */
+    private final Queue<Node<E>>[][] slots;
+    /** Next tick to be processed. */
+    private long current;
+    /** Number of scheduled elements. */
+    private int size;
+
+    /**
+     * Constructs a new {@code TimingWheel} starting at specified time.
+     *
+     * @param tick
+     *            length of a tick in milliseconds
+     * @param deadline
+     *            function returning the current deadline of an element in
+     *            milliseconds
+     * @param now
+     *            current time in milliseconds
+     * @throws IllegalArgumentException
+     *             if {@code tick} is less than 1
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    TimingWheel(long tick, ToLongFunction<E> deadline, long now) {
+        if (tick < 1)
+            throw new IllegalArgumentException("Length of a tick should be positive: " + tick);
+
+        this.tick = tick;
+        this.deadline = deadline;
+        this.slots = new Queue[LEVELS][SLOTS];
+        this.current = now / tick;
+    }
+
+    /**
+     * Schedules the element at its deadline. An element whose deadline has
+     * already passed is offered for removal by the next
+     * {@linkplain #advance(long, Predicate) advance}.
+     *
+     * @param element
+     *            the element
+     */
+    void schedule(E element) {
+        schedule(new Node<>(element, deadline.applyAsLong(element)));
+    }
+
+    /**
+     * Adds the node to the slot of its deadline.
+     *
+     * @param node
+     *            the node
+     */
+    private void schedule(Node<E> node) {
+        // the element is due in the first tick that starts after its deadline
+        long due = Math.max(node.deadline / tick + 1, current);
+
+        int level = 0;
+        while ((due >>> (BITS * level)) - (current >>> (BITS * level)) >= SLOTS) {
+            if (level == LEVELS - 1) {
+                // too far away, so it is offered early and scheduled again
+                due = ((current >>> (BITS * level)) + SLOTS - 1) << (BITS * level);
+                break;
+            }
+            level++;
+        }
+
+        int index = (int) (due >>> (BITS * level)) & (SLOTS - 1);
+        Queue<Node<E>> slot = slots[level][index];
+        if (slot == null) {
+            slot = slots[level][index] = new ArrayDeque<>();
+        }
+
+        slot.add(node);
+        size++;
+    }
+
+    /**
+     * Advances the wheel to the specified time and offers every element whose
+     * slot has come up for removal. An element which isn't removed is
+     * scheduled again at its deadline.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @param remove
+     *            returns {@code true} if the element is removed from the wheel
+     * @return the number of removed elements
+     */
+    int advance(long now, Predicate<E> remove) {
+        long target = now / tick;
+        int removed = 0;
+
+        for (; current <= target; current++) {
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((current & ((1L << (BITS * level)) - 1)) == 0) {
+                    Queue<Node<E>> slot = take(level, (int) (current >>> (BITS * level)) & (SLOTS - 1));
+                    if (slot != null) {
+                        slot.forEach(this::schedule);
+                    }
+                }
+            }
+
+            Queue<Node<E>> slot = take(0, (int) current & (SLOTS - 1));
+            if (slot == null)
+                continue;
+
+            for (Node<E> node : slot) {
+                if (remove.test(node.element)) {
+                    removed++;
+                } else {
+                    schedule(node.element);
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes and returns an element whose deadline is the earliest, or
+     * {@code null} if the wheel is empty. Elements of a slot are polled in
+     * the order they were scheduled, and an element whose deadline was
+     * extended since is scheduled again instead, so the order is exact to a
+     * slot and close to the order of deadlines within it.
+     *
+     * @return element with the earliest deadline or {@code null}
+     */
+    E poll() {
+        while (size > 0) {
+            Node<E> node = null;
+
+            search: for (int level = 0; level < LEVELS; level++) {
+                long base = current >>> (BITS * level);
+
+                for (int i = 0; i < SLOTS; i++) {
+                    int index = (int) (base + i) & (SLOTS - 1);
+                    Queue<Node<E>> slot = slots[level][index];
+                    if (slot == null)
+                        continue;
+
+                    node = slot.poll();
+                    if (slot.isEmpty()) {
+                        slots[level][index] = null;
+                    }
+                    size--;
+                    break search;
+                }
+            }
+
+            if (deadline.applyAsLong(node.element) <= node.deadline) {
+                return node.element;
+            }
+            schedule(node.element);
+        }
+
+        return null;
+    }
+
+    /**
+     * Empties the slot and returns its nodes.
+     *
+     * @param level
+     *            level of the slot
+     * @param index
+     *            index of the slot
+     * @return nodes of the slot or {@code null} if it was empty
+     */
+    private Queue<Node<E>> take(int level, int index) {
+        Queue<Node<E>> slot = slots[level][index];
+        if (slot != null) {
+            slots[level][index] = null;
+            size -= slot.size();
+        }
+
+        return slot;
+    }
+
+    /**
+     * Returns the number of scheduled elements.
+     *
+     * @return the number of elements
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * {@code Node} is a scheduled element together with the deadline it was
+     * scheduled at.
+     *
+     * @author Karlo Vrbić
+     * @version 1.0
+     * @param <E>
+     *            type of the element
+     */
+    private static class Node<E> {
+
+        /** The element. */
+        final E element;
+        /** Deadline of the element when it was scheduled. */
+        final long deadline;
+
+        /**
+         * Constructs a new {@code Node}.
+         *
+         * @param element
+         *            the element
+         * @param deadline
+         *            deadline of the element in milliseconds
+         */
+        Node(E element, long deadline) {
+            this.element = element;
+            this.deadline = deadline;
+        }
+
+    }
+
+}
@@ -45,6 +45,9 @@ public class EchoParams implements IWebWorker {
         sb.append("</table>");
         sb.append("</body></html>");
 
+        // the page depends only on the parameters, so repeated requests can be validated
+        context.setContentETag(true);
+
         try {
             context.write(sb.toString());
         } catch (IOException ignorable) {
@@ -0,0 +1,58 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ObjectMultistackTest {
+
+    @Test
+    public void testPushPop() {
+        ObjectMultistack multistack = new ObjectMultistack();
+        multistack.push("i", new ValueWrapper(1));
+        multistack.push("i", new ValueWrapper(2));
+        multistack.push("j", new ValueWrapper(3));
+
+        Assert.assertEquals(2, multistack.peek("i").getValue());
+        Assert.assertEquals(2, multistack.pop("i").getValue());
+        Assert.assertEquals(1, multistack.pop("i").getValue());
+        Assert.assertTrue(multistack.isEmpty("i"));
+        Assert.assertEquals(3, multistack.peek("j").getValue());
+    }
+
+    @Test
+    public void testTrimmedNames() {
+        ObjectMultistack multistack = new ObjectMultistack();
+        multistack.push(" i ", new ValueWrapper(1));
+
+        Assert.assertEquals(1, multistack.peek("i").getValue());
+        Assert.assertEquals(1, multistack.pop("\ti").getValue());
+        Assert.assertTrue(multistack.isEmpty("i"));
+    }
+
+    @Test
+    public void testDeepStack() {
+        ObjectMultistack multistack = new ObjectMultistack();
+        for (int i = 0; i < 100_000; i++) {
+            multistack.push("i", new ValueWrapper(i));
+        }
+
+        for (int i = 100_000 - 1; i >= 0; i--) {
+            Assert.assertEquals(i, multistack.pop("i").getValue());
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testEmptyPop() {
+        ObjectMultistack multistack = new ObjectMultistack();
+        multistack.push("i", new ValueWrapper(1));
+        multistack.pop("i");
+        multistack.pop("i");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullName() {
+        new ObjectMultistack().peek(null);
+    }
+
+}
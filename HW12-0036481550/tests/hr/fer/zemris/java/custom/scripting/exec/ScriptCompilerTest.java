@@ -0,0 +1,147 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+@SuppressWarnings("javadoc")
+public class ScriptCompilerTest {
+
+    private static String interpret(String script) {
+        DocumentNode document = new SmartScriptParser(script).getDocumentNode();
+        return execute(context -> new SmartScriptEngine(document, context).execute());
+    }
+
+    private static String compile(String script) {
+        CompiledScript compiled = ScriptCompiler.compile(new SmartScriptParser(script).getDocumentNode());
+        Assert.assertNotNull(compiled);
+        return execute(compiled);
+    }
+
+    private static String execute(CompiledScript script) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("a", "4");
+
+        RequestContext rc = new RequestContext(os, parameters, new HashMap<>(), new ArrayList<>());
+        script.execute(rc);
+
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T delegate(Class<T> type, T target, Method intercepted, Runnable action) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (method.equals(intercepted)) {
+                action.run();
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private static void assertSameOutput(String script) {
+        Assert.assertEquals(interpret(script), compile(script));
+    }
+
+    @Test
+    public void testText() {
+        assertSameOutput("Just text.");
+    }
+
+    @Test
+    public void testOperators() {
+        assertSameOutput("{$= 5 3 - 2 \"1.5\" * + 7 2 / $}");
+        Assert.assertTrue(compile("{$= 5 3 - $}").endsWith("-2"));
+    }
+
+    @Test
+    public void testLoops() {
+        assertSameOutput("{$ FOR i 1 5 1 $}{$ FOR j \"0\" 3 2 $}{$= i j * \" \" $}{$END$}{$= i $}{$END$}{$= i $}");
+    }
+
+    @Test
+    public void testFunctions() {
+        assertSameOutput("{$= \"a\" \"0\" @paramGet 2 @dup * @swap \"x\" @tparamSet $}"
+                + "{$= \"x\" \"-\" @tparamGet 30 @sin \"0.00\" @decfmt $}");
+    }
+
+    @Test
+    public void testManyNodes() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("line ").append(i).append(" {$= ").append(i).append(" 2 * $}\r\n");
+        }
+
+        assertSameOutput(sb.toString());
+    }
+
+    @Test(expected = EmptyStackException.class)
+    public void testEmptyStack() {
+        compile("{$= 1 + $}");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testUndefinedVariable() {
+        compile("{$= i $}");
+    }
+
+    @Test
+    public void testMissingCompiler() {
+        Assert.assertNull(ScriptCompiler.compile(new SmartScriptParser("{$= 1 $}").getDocumentNode(), null));
+    }
+
+    @Test
+    public void testFileManagerClosed() throws NoSuchMethodException {
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        Method close = StandardJavaFileManager.class.getMethod("close");
+        Method getStandardFileManager = JavaCompiler.class.getMethod("getStandardFileManager",
+                DiagnosticListener.class, Locale.class, Charset.class);
+
+        JavaCompiler system = ToolProvider.getSystemJavaCompiler();
+        JavaCompiler compiler = (JavaCompiler) Proxy.newProxyInstance(JavaCompiler.class.getClassLoader(),
+                new Class<?>[] { JavaCompiler.class }, (proxy, method, args) -> {
+                    try {
+                        Object result = method.invoke(system, args);
+                        if (method.equals(getStandardFileManager)) {
+                            opened.incrementAndGet();
+                            return delegate(StandardJavaFileManager.class, (StandardJavaFileManager) result, close,
+                                    closed::incrementAndGet);
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+
+        DocumentNode document = new SmartScriptParser("{$= 1 $}").getDocumentNode();
+        Assert.assertNotNull(ScriptCompiler.compile(document, compiler));
+        Assert.assertEquals(1, opened.get());
+        Assert.assertEquals(1, closed.get());
+    }
+}
@@ -0,0 +1,111 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+@SuppressWarnings("javadoc")
+public class SmartScriptEngineTest {
+
+    private static String interpret(String script) {
+        DocumentNode document = new SmartScriptParser(script).getDocumentNode();
+        return execute(context -> new SmartScriptEngine(document, context).execute());
+    }
+
+    private static String compile(String script) {
+        return execute(SmartScriptEngine.compile(new SmartScriptParser(script).getDocumentNode()));
+    }
+
+    private static String execute(CompiledScript script) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("a", "4");
+
+        RequestContext rc = new RequestContext(os, parameters, new HashMap<>(), new ArrayList<>());
+        script.execute(rc);
+
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void assertSameOutput(String script) {
+        Assert.assertEquals(interpret(script), compile(script));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testCompileNull() {
+        SmartScriptEngine.compile(null);
+    }
+
+    @Test
+    public void testOperators() {
+        assertSameOutput("{$= 5 3 - 2 \"1.5\" * + 7 2 / 1 2 ^ $}");
+        Assert.assertTrue(compile("{$= 5 3 - $}").endsWith("-2"));
+    }
+
+    @Test
+    public void testNumericStrings() {
+        String script = "{$= \"2.5\" \"1e2\" * \" 7\" 2 / 2147483647 1 + \"x\" $}{$ FOR i \"0\" \"2.5\" \"1\" $}{$= i $}{$END$}";
+
+        assertSameOutput(script);
+        Assert.assertTrue(compile(script).endsWith("250.00.28571428571428572147483647x012"));
+    }
+
+    @Test
+    public void testLoops() {
+        assertSameOutput("{$ FOR i 1 5 1 $}{$ FOR j \"0\" 3 2 $}{$= i j * \" \" $}{$END$}{$= i $}{$END$}{$= i $}");
+    }
+
+    @Test
+    public void testFunctions() {
+        assertSameOutput("{$= \"a\" \"0\" @paramGet 2 @dup * @swap \"x\" @tparamSet $}"
+                + "{$= \"x\" \"-\" @tparamGet 30 @sin \"0.00\" @decfmt $}");
+    }
+
+    @Test
+    public void testVariableSlots() {
+        DocumentNode document = new SmartScriptParser("{$ FOR i 1 2 1 $}{$= j i $}{$END$}{$= i $}").getDocumentNode();
+        ForLoopNode loop = (ForLoopNode) document.getChild(0);
+        Element[] elements = ((EchoNode) loop.getChild(0)).getElements();
+
+        Assert.assertEquals(2, document.getVariableCount());
+        Assert.assertEquals(0, loop.getVariable().getSlot());
+        Assert.assertEquals(1, ((ElementVariable) elements[0]).getSlot());
+        Assert.assertEquals(0, ((ElementVariable) elements[1]).getSlot());
+    }
+
+    @Test
+    public void testSameVariableInNestedLoops() {
+        String script = "{$ FOR i 1 2 1 $}{$ FOR i 1 2 1 $}{$= i $}{$END$}{$END$}";
+
+        Assert.assertTrue(interpret(script).endsWith("\r\n12"));
+        assertSameOutput(script);
+    }
+
+    @Test
+    public void testReuse() {
+        CompiledScript script = SmartScriptEngine
+                .compile(new SmartScriptParser("{$ FOR i 1 3 1 $}{$= i $}{$END$}").getDocumentNode());
+
+        Assert.assertEquals(execute(script), execute(script));
+    }
+
+    @Test(expected = EmptyStackException.class)
+    public void testEmptyStack() {
+        compile("{$= 1 + $}");
+    }
+
+}
@@ -0,0 +1,77 @@
+package hr.fer.zemris.java.custom.scripting.lexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class LexerReferenceTest {
+
+    private static final String[] FRAGMENTS = { "{$", "$}", "{$=", "{$FOR", "{$END$}", " ", " ", "\t", "\n", "FOR",
+            "end", "=", "i", "x_1", "č", "@sin", "@", "-", "+", "*", "/", "^", "1", "-23", "4.5", ".", "e7", "\"",
+            "\"text\"", "\\", "\\n", "\\r", "\\\\", "\\\"", "a", "{", "$", "}", "#" };
+
+    private static String randomInput(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int count = 1 + random.nextInt(30);
+        for (int i = 0; i < count; i++) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static List<String> tokens(Supplier<Token> lexer) {
+        List<String> tokens = new ArrayList<>();
+        try {
+            Token token;
+            do {
+                token = lexer.get();
+                tokens.add(token.toString());
+            } while (token.getType() != TokenType.EOF);
+        } catch (RuntimeException e) {
+            tokens.add(e.getClass().getName());
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testSameTokensAsRegexLexer() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 50_000; i++) {
+            String input = randomInput(random);
+            Lexer lexer = new Lexer(input);
+            RegexLexer reference = new RegexLexer(input);
+
+            Assert.assertEquals(input, tokens(reference::nextToken), tokens(lexer::nextToken));
+        }
+    }
+
+    @Test
+    public void testSameTokensOnScripts() throws IOException {
+        List<Path> scripts;
+        try (Stream<Path> paths = Files.walk(Paths.get("webroot"))) {
+            scripts = paths.filter(p -> p.toString().endsWith(".smscr")).collect(Collectors.toList());
+        }
+        Assert.assertFalse(scripts.isEmpty());
+
+        for (Path script : scripts) {
+            String input = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+
+            Assert.assertEquals(script.toString(), tokens(new RegexLexer(input)::nextToken),
+                    tokens(new Lexer(input)::nextToken));
+        }
+    }
+
+}
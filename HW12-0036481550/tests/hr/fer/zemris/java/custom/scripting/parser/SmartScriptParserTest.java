@@ -0,0 +1,73 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+@SuppressWarnings("javadoc")
+public class SmartScriptParserTest {
+
+    @Test
+    public void testLargeTemplate() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 4 << 20) {
+            sb.append("Text {$= i \"s\" @sin $} {$FOR i 1 2 1$}x{$= i $}{$END$}\n");
+        }
+        int repetitions = sb.length() / "Text {$= i \"s\" @sin $} {$FOR i 1 2 1$}x{$= i $}{$END$}\n".length();
+
+        DocumentNode document = new SmartScriptParser(sb.toString()).getDocumentNode();
+
+        // the text between two repetitions is one node, and the trailing new line is trimmed
+        Assert.assertEquals(4 * repetitions, document.numberOfChildren());
+        Assert.assertTrue(document.getChild(0) instanceof TextNode);
+        Assert.assertTrue(document.getChild(1) instanceof EchoNode);
+        Assert.assertTrue(document.getChild(3) instanceof ForLoopNode);
+        Assert.assertEquals(2, document.getChild(3).numberOfChildren());
+        Assert.assertTrue(document.getChild(4 * repetitions - 1) instanceof ForLoopNode);
+    }
+
+    @Test
+    public void testDeepTemplate() {
+        int depth = 50_000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("{$FOR i 1 2 1$}");
+        }
+        sb.append("x");
+        for (int i = 0; i < depth; i++) {
+            sb.append("{$END$}");
+        }
+        sb.append(" after");
+
+        Node node = new SmartScriptParser(sb.toString()).getDocumentNode();
+        Assert.assertEquals(2, node.numberOfChildren());
+
+        for (int i = 0; i < depth; i++) {
+            node = node.getChild(0);
+            Assert.assertTrue(node instanceof ForLoopNode);
+            Assert.assertEquals(1, node.numberOfChildren());
+        }
+        Assert.assertTrue(node.getChild(0) instanceof TextNode);
+    }
+
+    @Test(expected = SmartScriptParserException.class)
+    public void testUnclosedEchoTag() {
+        new SmartScriptParser("Text {$= i \"s\"");
+    }
+
+    @Test(expected = SmartScriptParserException.class)
+    public void testEndWithoutFor() {
+        new SmartScriptParser("Text {$END$}");
+    }
+
+    @Test(expected = SmartScriptParserException.class)
+    public void testMoreEndsThanFors() {
+        new SmartScriptParser("{$FOR i 1 2 1$}x{$END$}{$END$}");
+    }
+
+}
@@ -0,0 +1,62 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ByteRangeTest {
+
+    private static String parse(String header, long length) {
+        List<ByteRange> ranges = ByteRange.parse(header, length);
+        if (ranges == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (ByteRange range : ranges) {
+            sb.append(range.getFirst()).append('-').append(range.getLast()).append(' ');
+        }
+
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void testRanges() {
+        Assert.assertEquals("0-99", parse("bytes=0-99", 1000));
+        Assert.assertEquals("500-999", parse("bytes=500-", 1000));
+        Assert.assertEquals("900-999", parse("bytes=-100", 1000));
+        Assert.assertEquals("0-999", parse("bytes=-5000", 1000));
+        Assert.assertEquals("990-999", parse("bytes=990-2000", 1000));
+        Assert.assertEquals("0-0 10-19", parse("Bytes = 0-0 , 10-19", 1000));
+        Assert.assertEquals(100, ByteRange.parse("bytes=0-99", 1000).get(0).length());
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        Assert.assertEquals("", parse("bytes=1000-", 1000));
+        Assert.assertEquals("", parse("bytes=-0", 1000));
+        Assert.assertEquals("", parse("bytes=-10", 0));
+        Assert.assertEquals("0-9", parse("bytes=2000-3000, 0-9", 1000));
+    }
+
+    @Test
+    public void testIgnored() {
+        Assert.assertNull(parse(null, 1000));
+        Assert.assertNull(parse("items=0-10", 1000));
+        Assert.assertNull(parse("bytes=", 1000));
+        Assert.assertNull(parse("bytes=10-5", 1000));
+        Assert.assertNull(parse("bytes=a-5", 1000));
+        Assert.assertNull(parse("bytes=+1-5", 1000));
+        Assert.assertNull(parse("bytes=5", 1000));
+        Assert.assertNull(parse("bytes=0-99999999999999999999", 1000));
+
+        StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 0; i < ByteRange.MAX_RANGES; i++) {
+            many.append(",0-0");
+        }
+        Assert.assertNull(parse(many.toString(), 1000));
+    }
+
+}
@@ -0,0 +1,68 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class GzipOutputStreamTest {
+
+    static byte[] gunzip(byte[] data) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                os.write(buffer, 0, read);
+            }
+        }
+
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        DeflaterPool pool = new DeflaterPool(1, 6);
+        byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            GzipOutputStream gzip = new GzipOutputStream(os, pool, false);
+            gzip.write(data, 0, 10);
+            gzip.write(data, 10, data.length - 10);
+            gzip.finish();
+            gzip.finish();
+
+            Assert.assertArrayEquals(data, gunzip(os.toByteArray()));
+            Assert.assertEquals(1, pool.size());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new GzipOutputStream(os, new DeflaterPool(1, 6), true).close();
+
+        Assert.assertArrayEquals(new byte[0], gunzip(os.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterFinish() throws IOException {
+        GzipOutputStream gzip = new GzipOutputStream(new ByteArrayOutputStream(), new DeflaterPool(1, 6), false);
+        gzip.finish();
+        gzip.write(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new DeflaterPool(1, 10);
+    }
+
+}
@@ -0,0 +1,114 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PrecompressedFilesTest {
+
+    private Path dir;
+
+    private Map<String, String> mimeTypes = new HashMap<>();
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("precompressed");
+        mimeTypes.put("html", "text/html");
+        mimeTypes.put("png", "image/png");
+    }
+
+    @After
+    public void clean() throws IOException {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    private Path file(String name, String body) throws IOException {
+        Path path = dir.resolve(name);
+        Files.createDirectories(path.getParent());
+        return Files.write(path, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int generate() throws IOException {
+        return PrecompressedFiles.generate(dir, file -> PrecompressedFiles.isTextual(file, mimeTypes::get), 9);
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testGenerate() throws IOException {
+        String html = repeat("<p>Paragraph</p>", 100);
+        Path index = file("index.html", html);
+        Path nested = file("pages/nested.html", html);
+        Path tiny = file("tiny.html", "x");
+        Path image = file("image.png", html);
+
+        Assert.assertEquals(2, generate());
+        Assert.assertEquals(html, new String(GzipOutputStreamTest.gunzip(
+                Files.readAllBytes(dir.resolve("index.html.gz"))), StandardCharsets.UTF_8));
+        Assert.assertEquals(0, generate());
+
+        PrecompressedFiles files = new PrecompressedFiles(dir);
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals(index.toAbsolutePath().normalize().resolveSibling("index.html.gz"),
+                files.getSibling(index));
+        Assert.assertNotNull(files.getSibling(dir.resolve("pages/../pages/nested.html")));
+        Assert.assertNotNull(files.getSibling(nested));
+        Assert.assertNull(files.getSibling(tiny));
+        Assert.assertNull(files.getSibling(image));
+    }
+
+    @Test
+    public void testStale() throws IOException {
+        Path index = file("index.html", repeat("<p>Old</p>", 100));
+        Assert.assertEquals(1, generate());
+
+        Path sibling = dir.resolve("index.html.gz");
+        Assert.assertTrue(PrecompressedFiles.isCurrent(index, sibling));
+        Files.setLastModifiedTime(sibling, FileTime.fromMillis(Files.getLastModifiedTime(index).toMillis() - 5000));
+        Assert.assertFalse(PrecompressedFiles.isCurrent(index, sibling));
+        Assert.assertNull(new PrecompressedFiles(dir).getSibling(index));
+
+        String html = repeat("<p>New</p>", 100);
+        file("index.html", html);
+        Files.setLastModifiedTime(sibling, FileTime.fromMillis(Files.getLastModifiedTime(index).toMillis() - 5000));
+        Assert.assertEquals(1, generate());
+        Assert.assertNotNull(new PrecompressedFiles(dir).getSibling(index));
+        Assert.assertEquals(html, new String(GzipOutputStreamTest.gunzip(Files.readAllBytes(sibling)),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testChangedAfterIndexing() throws IOException {
+        Path index = file("index.html", repeat("<p>Old</p>", 100));
+        Assert.assertEquals(1, generate());
+
+        PrecompressedFiles files = new PrecompressedFiles(dir);
+        Path sibling = files.getSibling(index);
+        Assert.assertTrue(PrecompressedFiles.isCurrent(index, sibling));
+
+        file("index.html", repeat("<p>New</p>", 100));
+        Files.setLastModifiedTime(index, FileTime.fromMillis(Files.getLastModifiedTime(sibling).toMillis() + 5000));
+        Assert.assertEquals(sibling, files.getSibling(index));
+        Assert.assertFalse(PrecompressedFiles.isCurrent(index, sibling));
+
+        Files.delete(sibling);
+        Assert.assertFalse(PrecompressedFiles.isCurrent(index, sibling));
+    }
+
+}
@@ -2,7 +2,13 @@ package hr.fer.zemris.java.webserver;
 
 import java.util.List;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -91,4 +97,327 @@ public class RequestContextTest {
         
         Assert.assertArrayEquals(expected.toArray(), rc.getTemporaryParameterNames().toArray());
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBufferSize() {
+        new RequestContext(System.out, null, null, null, -1);
+    }
+
+    @Test
+    public void testBufferedWrites() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext buffered = new RequestContext(os, null, null, null, 64);
+
+        buffered.write("Hello ").write("world");
+        Assert.assertEquals(0, os.size());
+
+        buffered.finish();
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+                + "Content-Length: 11\r\n\r\nHello world",
+                new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBufferedChunks() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext buffered = new RequestContext(os, null, null, null, 8);
+        buffered.setKeepAlive(true);
+
+        buffered.write("abc").write("def").write("ghij").finish();
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+                + "Transfer-Encoding: chunked\r\nConnection: keep-alive\r\n\r\n"
+                + "6\r\nabcdef\r\n4\r\nghij\r\n0\r\n\r\n", new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testContentLength() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext buffered = new RequestContext(os, null, null, null, 8);
+        buffered.setKeepAlive(true);
+
+        buffered.write("abc").finish();
+        Assert.assertTrue(buffered.isKeepAlive());
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+                + "Content-Length: 3\r\nConnection: keep-alive\r\n\r\nabc",
+                new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLongBodyWithoutChunks() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext buffered = new RequestContext(os, null, null, null, 4);
+        buffered.setHttpVersion("HTTP/1.0");
+        buffered.setKeepAlive(true);
+
+        buffered.write("abc").write("defgh").finish();
+        Assert.assertFalse(buffered.isKeepAlive());
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+                + "Connection: close\r\n\r\nabcdefgh", new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteFile() throws IOException {
+        Path file = Files.createTempFile("request-context", ".txt");
+        Files.write(file, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            RequestContext plain = new RequestContext(os, null, null, null, 8);
+            plain.setContentLength(6);
+            plain.write("ab").write(channel, 2, 4).finish();
+
+            Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+                    + "Content-Length: 6\r\n\r\nab2345", new String(os.toByteArray(), StandardCharsets.UTF_8));
+
+            os.reset();
+            RequestContext chunked = new RequestContext(os, null, null, null, 8);
+            chunked.setKeepAlive(true);
+            chunked.write("ab").write(channel, 0, 10).finish();
+
+            Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+                    + "Transfer-Encoding: chunked\r\nConnection: keep-alive\r\n\r\n"
+                    + "2\r\nab\r\na\r\n0123456789\r\n0\r\n\r\n", new String(os.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteTruncatedFile() throws IOException {
+        Path file = Files.createTempFile("request-context", ".txt");
+        Files.write(file, "0123".getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            new RequestContext(new ByteArrayOutputStream(), null, null, null, 8).write(channel, 0, 10);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testNotModified() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext conditional = new RequestContext(os, null, null, null, 64);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("if-none-match", "\"x\", W/\"v1\"");
+        conditional.setRequestHeaders(headers);
+        conditional.setKeepAlive(true);
+
+        Assert.assertEquals("\"x\", W/\"v1\"", conditional.getRequestHeader("If-None-Match"));
+        Assert.assertTrue(conditional.checkNotModified("\"v1\"", 0));
+
+        conditional.write("Not sent").finish();
+        Assert.assertTrue(conditional.isKeepAlive());
+        Assert.assertEquals("HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n"
+                + "Last-Modified: Thu, 01 Jan 1970 00:00:00 GMT\r\nConnection: keep-alive\r\n\r\n",
+                new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testModifiedSince() {
+        String since = "Sat, 17 Oct 2026 10:00:00 GMT";
+        long time = 1792231200000L;
+
+        Assert.assertTrue(RequestContext.isNotModified(null, since, null, time + 999));
+        Assert.assertFalse(RequestContext.isNotModified(null, since, null, time + 1000));
+        Assert.assertFalse(RequestContext.isNotModified(null, "yesterday", null, time));
+        Assert.assertFalse(RequestContext.isNotModified("\"a\"", since, "\"b\"", time));
+        Assert.assertTrue(RequestContext.isNotModified("*", null, "\"b\"", -1));
+    }
+
+    @Test
+    public void testContentETag() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext first = new RequestContext(os, null, null, null, 64);
+        first.setContentETag(true);
+        first.write("Same page").finish();
+
+        String response = new String(os.toByteArray(), StandardCharsets.UTF_8);
+        int start = response.indexOf("ETag: ") + 6;
+        String etag = response.substring(start, response.indexOf('\r', start));
+        Assert.assertTrue(response.endsWith("Same page"));
+
+        os.reset();
+        RequestContext second = new RequestContext(os, null, null, null, 64);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("If-None-Match", etag);
+        second.setRequestHeaders(headers);
+        second.setContentETag(true);
+        second.write("Same page").finish();
+
+        Assert.assertEquals("HTTP/1.1 304 Not Modified\r\nETag: " + etag + "\r\n\r\n",
+                new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String writeRanges(Path file, String range, String ifRange) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext ranged = new RequestContext(os, null, null, null, 8);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Range", range);
+        if (ifRange != null) {
+            headers.put("If-Range", ifRange);
+        }
+        ranged.setRequestHeaders(headers);
+        ranged.setMimeType("text/plain");
+        ranged.setETag("\"v1\"");
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            ranged.writeFile(channel).finish();
+        }
+
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRange() throws IOException {
+        Path file = Files.createTempFile("request-context", ".txt");
+        Files.write(file, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Assert.assertEquals("HTTP/1.1 206 Partial Content\r\nContent-Type: text/plain; charset=UTF-8\r\n"
+                    + "ETag: \"v1\"\r\nAccept-Ranges: bytes\r\nContent-Range: bytes 7-9/10\r\n"
+                    + "Content-Length: 3\r\n\r\n789", writeRanges(file, "bytes=-3", null));
+            Assert.assertEquals("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Type: text/plain; charset=UTF-8\r\n"
+                    + "ETag: \"v1\"\r\nAccept-Ranges: bytes\r\nContent-Range: bytes */10\r\n"
+                    + "Content-Length: 0\r\n\r\n", writeRanges(file, "bytes=10-", null));
+            Assert.assertTrue(writeRanges(file, "bytes=2-1", null).endsWith("\r\n\r\n0123456789"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMultipleRanges() throws IOException {
+        Path file = Files.createTempFile("request-context", ".txt");
+        Files.write(file, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            String response = writeRanges(file, "bytes=0-1, 8-", "\"v1\"");
+            int start = response.indexOf("boundary=") + 9;
+            String boundary = response.substring(start, response.indexOf('\r', start));
+            String body = "\r\n--" + boundary + "\r\nContent-Type: text/plain; charset=UTF-8\r\n"
+                    + "Content-Range: bytes 0-1/10\r\n\r\n01"
+                    + "\r\n--" + boundary + "\r\nContent-Type: text/plain; charset=UTF-8\r\n"
+                    + "Content-Range: bytes 8-9/10\r\n\r\n89"
+                    + "\r\n--" + boundary + "--\r\n";
+
+            Assert.assertEquals("HTTP/1.1 206 Partial Content\r\nContent-Type: multipart/byteranges; boundary="
+                    + boundary + "\r\nETag: \"v1\"\r\nAccept-Ranges: bytes\r\nContent-Length: "
+                    + body.length() + "\r\n\r\n" + body, response);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testIfRange() throws IOException {
+        Path file = Files.createTempFile("request-context", ".txt");
+        Files.write(file, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Assert.assertTrue(writeRanges(file, "bytes=1-2", "\"v1\"").endsWith("\r\n\r\n12"));
+            Assert.assertTrue(writeRanges(file, "bytes=1-2", "\"v2\"").startsWith("HTTP/1.1 200 OK"));
+            Assert.assertTrue(writeRanges(file, "bytes=1-2", "W/\"v1\"").endsWith("\r\n\r\n0123456789"));
+            Assert.assertTrue(writeRanges(file, "bytes=1-2", "Sat, 17 Oct 2026 10:00:00 GMT")
+                    .endsWith("\r\n\r\n0123456789"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static RequestContext compressed(ByteArrayOutputStream os, int bufferSize, String acceptEncoding) {
+        RequestContext context = new RequestContext(os, null, null, null, bufferSize);
+        context.setRequestHeaders(Collections.singletonMap("Accept-Encoding", acceptEncoding));
+        context.setCompression(new DeflaterPool(1, 6), 20);
+        context.setKeepAlive(true);
+        return context;
+    }
+
+    private static String body(String response) {
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+
+    private static byte[] dechunk(String chunks) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        int i = 0;
+        while (true) {
+            int eol = chunks.indexOf("\r\n", i);
+            int size = Integer.parseInt(chunks.substring(i, eol), 16);
+            if (size == 0) {
+                return os.toByteArray();
+            }
+
+            os.write(chunks.substring(eol + 2, eol + 2 + size).getBytes(StandardCharsets.ISO_8859_1), 0, size);
+            i = eol + 2 + size + 2;
+        }
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        String text = "Compressed text, compressed text, compressed text.";
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        compressed(os, 64, "deflate, gzip;q=0.5").write(text).finish();
+        String response = new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+
+        // the whole body was buffered, so it is sent with its compressed length
+        byte[] body = body(response).getBytes(StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(response.startsWith("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+                + "Content-Encoding: gzip\r\nVary: Accept-Encoding\r\nContent-Length: " + body.length
+                + "\r\nConnection: keep-alive\r\n\r\n"));
+        Assert.assertEquals(text, new String(GzipOutputStreamTest.gunzip(body), StandardCharsets.UTF_8));
+
+        os.reset();
+        RequestContext streamed = compressed(os, 64, "gzip");
+        streamed.write(text).write(text).finish();
+        response = new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(response.contains("Content-Encoding: gzip\r\nVary: Accept-Encoding\r\n"
+                + "Transfer-Encoding: chunked\r\n"));
+        Assert.assertEquals(text + text, new String(GzipOutputStreamTest.gunzip(dechunk(body(response))),
+                StandardCharsets.UTF_8));
+
+        os.reset();
+        compressed(os, 64, "gzip;q=0, *").write("Short").finish();
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\nVary: Accept-Encoding\r\n"
+                + "Content-Length: 5\r\nConnection: keep-alive\r\n\r\nShort",
+                new String(os.toByteArray(), StandardCharsets.UTF_8));
+
+        os.reset();
+        RequestContext image = compressed(os, 64, "gzip");
+        image.setMimeType("image/png");
+        image.write(text).finish();
+        Assert.assertEquals(text, body(new String(os.toByteArray(), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testCompressedStream() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("Line ").append(i).append('\n');
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext context = compressed(os, 64, "gzip");
+        context.setKeepAlive(false);
+        context.setETag("\"v1\"");
+        context.write(sb.toString()).finish();
+        String response = new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+
+        Assert.assertTrue(response.contains("ETag: W/\"v1\"\r\n"));
+        Assert.assertFalse(response.contains("Content-Length"));
+        Assert.assertEquals(sb.toString(), new String(GzipOutputStreamTest.gunzip(
+                body(response).getBytes(StandardCharsets.ISO_8859_1)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        Assert.assertTrue(RequestContext.acceptsGzip("gzip, deflate, br"));
+        Assert.assertTrue(RequestContext.acceptsGzip("x-gzip"));
+        Assert.assertTrue(RequestContext.acceptsGzip("*;q=0.1"));
+        Assert.assertFalse(RequestContext.acceptsGzip(null));
+        Assert.assertFalse(RequestContext.acceptsGzip("identity"));
+        Assert.assertFalse(RequestContext.acceptsGzip("gzip;q=0, *"));
+        Assert.assertFalse(RequestContext.acceptsGzip("GZIP; q=0.0"));
+    }
+
 }
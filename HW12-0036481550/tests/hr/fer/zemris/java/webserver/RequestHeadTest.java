@@ -0,0 +1,144 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class RequestHeadTest {
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testRequest() throws IOException {
+        RequestHead head = new RequestHead();
+        Assert.assertTrue(head.read(stream("GET /index.html?a=1 HTTP/1.1\r\nHost: localhost\r\n"
+                + "Accept-Encoding:  gzip, br \r\nX-Empty:\r\n\r\n")));
+
+        Assert.assertTrue(head.isValid());
+        Assert.assertSame("GET", head.getMethod());
+        Assert.assertSame("HTTP/1.1", head.getVersion());
+        Assert.assertEquals("/index.html?a=1", head.getTarget());
+        Assert.assertEquals(3, head.getHeaderCount());
+        Assert.assertEquals("Accept-Encoding", head.getHeaderName(1));
+        Assert.assertEquals("gzip, br", head.getHeader("accept-encoding"));
+        Assert.assertEquals("", head.getHeader("X-Empty"));
+        Assert.assertNull(head.getHeader("Connection"));
+    }
+
+    @Test
+    public void testPipelined() throws IOException {
+        RequestHead head = new RequestHead("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.0\n".getBytes(StandardCharsets.US_ASCII));
+        InputStream rest = stream("Connection: keep-alive\n\nGET /c");
+
+        Assert.assertTrue(head.read(rest));
+        Assert.assertEquals("/a", head.getTarget());
+        Assert.assertEquals("GET /b HTTP/1.0\n", new String(head.remaining(), StandardCharsets.US_ASCII));
+
+        Assert.assertTrue(head.read(rest));
+        Assert.assertEquals("/b", head.getTarget());
+        Assert.assertEquals("HTTP/1.0", head.getVersion());
+        Assert.assertEquals("keep-alive", head.getHeader("CONNECTION"));
+
+        Assert.assertFalse(head.read(rest));
+    }
+
+    @Test
+    public void testTokens() throws IOException {
+        RequestHead head = new RequestHead();
+        Assert.assertTrue(head.read(stream("GET / HTTP/1.1\r\nConnection: Keep-Alive, Upgrade\r\n"
+                + "connection:TE,\tclose \r\nUpgrade: closed\r\n\r\n")));
+
+        Assert.assertTrue(head.hasToken("Connection", "keep-alive"));
+        Assert.assertTrue(head.hasToken("Connection", "upgrade"));
+        Assert.assertTrue(head.hasToken("Connection", "close"));
+        Assert.assertTrue(head.hasToken("Connection", "te"));
+        Assert.assertFalse(head.hasToken("Connection", "clos"));
+        Assert.assertFalse(head.hasToken("Upgrade", "close"));
+        Assert.assertFalse(head.hasToken("Via", "close"));
+    }
+
+    @Test
+    public void testSplitReads() throws IOException {
+        InputStream slow = new FilterInputStream(stream("GET / HTTP/1.1\r\nCookie: a=1\r\n\r\n")) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+
+        RequestHead head = new RequestHead();
+        Assert.assertTrue(head.read(slow));
+        Assert.assertEquals("1", head.getCookie("a"));
+    }
+
+    @Test
+    public void testFoldedHeader() throws IOException {
+        RequestHead head = new RequestHead();
+        Assert.assertTrue(head.read(stream("GET / HTTP/1.1\r\nX-Long: first\r\n\tsecond\r\nHost: h\r\n\r\n")));
+
+        Assert.assertEquals("first  \tsecond", head.getHeader("X-Long"));
+        Assert.assertEquals("h", head.getHeader("Host"));
+    }
+
+    @Test
+    public void testCookies() throws IOException {
+        RequestHead head = new RequestHead();
+        Assert.assertTrue(head.read(stream("GET / HTTP/1.1\r\nCookie: theme=dark; sidx=1\r\n"
+                + "cookie: sid = ABC ;other=2\r\n\r\n")));
+
+        Assert.assertEquals("ABC", head.getCookie("sid"));
+        Assert.assertEquals("dark", head.getCookie("theme"));
+        Assert.assertEquals("2", head.getCookie("other"));
+        Assert.assertNull(head.getCookie("SID"));
+    }
+
+    @Test
+    public void testInvalidRequestLine() throws IOException {
+        String[] lines = { "GET /", "GET  / HTTP/1.1", "GET / HTTP/1.1 x", " / HTTP/1.1", "" };
+
+        for (String line : lines) {
+            RequestHead head = new RequestHead();
+            Assert.assertTrue(head.read(stream(line + "\r\nHost: h\r\n\r\n")));
+            Assert.assertFalse(line, head.isValid());
+            Assert.assertNull(head.getTarget());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooLarge() throws IOException {
+        StringBuilder sb = new StringBuilder("GET / HTTP/1.1\r\n");
+        while (sb.length() <= RequestHead.MAX_SIZE) {
+            sb.append("X-Header: value\r\n");
+        }
+
+        new RequestHead().read(stream(sb.append("\r\n").toString()));
+    }
+
+    @Test
+    public void testHeaderMap() throws IOException {
+        RequestHead head = new RequestHead();
+        Assert.assertTrue(head.read(stream("GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\na: 3\r\n\r\n")));
+
+        Map<String, String> headers = head.getHeaders();
+        Assert.assertEquals(2, headers.size());
+        Assert.assertEquals("1", headers.get("a"));
+        Assert.assertTrue(headers.containsKey("b"));
+        Assert.assertFalse(headers.containsKey("C"));
+        Assert.assertEquals("{A=1, B=2}", headers.toString());
+
+        RequestContext rc = new RequestContext(new ByteArrayOutputStream(), null, null, null);
+        rc.setRequestHeaders(headers);
+        Assert.assertEquals("2", rc.getRequestHeader("B"));
+    }
+
+}
@@ -0,0 +1,47 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class SessionIdGeneratorTest {
+
+    @Test
+    public void testGenerate() {
+        Set<String> ids = new HashSet<>();
+        int[] counts = new int[128];
+
+        for (int i = 0; i < 10000; i++) {
+            String sid = SessionIdGenerator.generate();
+
+            Assert.assertEquals(26, sid.length());
+            Assert.assertTrue(sid, SessionIdGenerator.isValid(sid));
+            Assert.assertTrue(ids.add(sid));
+            for (int j = 0; j < sid.length() - 1; j++) {
+                counts[sid.charAt(j)]++;
+            }
+        }
+
+        // every character of the alphabet is used about equally often
+        for (char c : "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray()) {
+            Assert.assertTrue(String.valueOf(c), Math.abs(counts[c] - 250000 / 32) < 800);
+        }
+    }
+
+    @Test
+    public void testIsValid() {
+        Assert.assertTrue(SessionIdGenerator.isValid("QWERTYUIOPASDFGHJKLZ"));
+        Assert.assertTrue(SessionIdGenerator.isValid("ABCDEFGHIJKLMNOPQRSTUVWX27"));
+
+        Assert.assertFalse(SessionIdGenerator.isValid(null));
+        Assert.assertFalse(SessionIdGenerator.isValid(""));
+        Assert.assertFalse(SessionIdGenerator.isValid("abc"));
+        Assert.assertFalse(SessionIdGenerator.isValid("ABC1"));
+        Assert.assertFalse(SessionIdGenerator.isValid("AB=C"));
+        Assert.assertFalse(SessionIdGenerator.isValid("ABCDEFGHIJKLMNOPQRSTUVWXYZ2"));
+    }
+
+}
@@ -0,0 +1,282 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class SessionLogTest {
+
+    private Path dir;
+
+    private Path log;
+
+    private final long now = System.currentTimeMillis();
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("session-log");
+        log = dir.resolve("sessions.log");
+    }
+
+    @After
+    public void clean() throws IOException {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    private static Map<String, Map<String, String>> snapshot(SessionStore store) {
+        Map<String, Map<String, String>> sessions = new HashMap<>();
+        store.forEach(session -> {
+            if (!session.getParameters().isEmpty()) {
+                sessions.put(session.getSID(), new HashMap<>(session.getParameters()));
+            }
+        });
+        return sessions;
+    }
+
+    private static long validUntil(SessionStore store, String sid) {
+        long[] validUntil = { -1 };
+        store.forEach(session -> {
+            if (session.getSID().equals(sid)) {
+                validUntil[0] = session.getValidUntil();
+            }
+        });
+        return validUntil[0];
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        SessionStore store = new SessionStore(60000);
+        SessionLog sessionLog = new SessionLog(log, 4096, store);
+
+        Map<String, String> first = store.getOrCreate("FIRST", now).getParameters();
+        first.put("brojPoziva", "1");
+        first.put("brojPoziva", "2");
+        first.put("boja", "žuta");
+        first.put("temp", "x");
+        first.remove("temp");
+        store.getOrCreate("SECOND", now).getParameters().put("a", "1");
+        store.getOrCreate("THIRD", now).getParameters().put("b", "2");
+        store.remove("SECOND");
+        store.getOrCreate("EMPTY", now);
+        sessionLog.close();
+
+        // changes made after the log is closed aren't logged
+        first.put("late", "1");
+
+        SessionStore restored = new SessionStore(60000);
+        new SessionLog(log, 4096, restored).close();
+
+        Map<String, Map<String, String>> expected = new HashMap<>();
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("brojPoziva", "2");
+        parameters.put("boja", "žuta");
+        expected.put("FIRST", parameters);
+        expected.put("THIRD", new HashMap<>());
+        expected.get("THIRD").put("b", "2");
+
+        Assert.assertEquals(expected, snapshot(restored));
+        Assert.assertEquals(2, restored.size());
+        Assert.assertEquals(restored.getParameterBytes(), SessionParameters.estimate("brojPoziva", "2")
+                + SessionParameters.estimate("boja", "žuta") + SessionParameters.estimate("b", "2"));
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        SessionStore store = new SessionStore(60000);
+        SessionLog sessionLog = new SessionLog(log, 1024, store);
+        sessionLog.start();
+
+        for (int i = 0; i < 10000; i++) {
+            store.getOrCreate("S" + i % 10, now).getParameters().put("counter", String.valueOf(i));
+        }
+        sessionLog.close();
+        Assert.assertTrue(sessionLog.getCompactions() > 1);
+        Assert.assertTrue(Files.exists(dir.resolve("sessions.log" + SessionLog.ALTERNATE)));
+
+        SessionStore restored = new SessionStore(60000);
+        new SessionLog(log, 1024, restored).close();
+
+        Assert.assertEquals(snapshot(store), snapshot(restored));
+        Assert.assertEquals("9999", restored.get("S9", now).getParameters().get("counter"));
+    }
+
+    @Test
+    public void testRestart() throws IOException {
+        SessionStore store = new SessionStore(60000);
+        SessionLog sessionLog = new SessionLog(log, 1024, store);
+        sessionLog.start();
+
+        Map<String, String> first = store.getOrCreate("FIRST", now).getParameters();
+        first.put("brojPoziva", "1");
+        sessionLog.close();
+
+        // changes made while the log is closed are compacted into it when it is started again
+        first.put("brojPoziva", "2");
+        store.getOrCreate("SECOND", now).getParameters().put("a", "1");
+        sessionLog.start();
+        sessionLog.start();
+        Assert.assertEquals(2, sessionLog.getCompactions());
+
+        store.getOrCreate("THIRD", now).getParameters().put("b", "2");
+        store.remove("SECOND");
+        sessionLog.close();
+        sessionLog.close();
+
+        SessionStore restored = new SessionStore(60000);
+        new SessionLog(log, 1024, restored).close();
+
+        Assert.assertEquals(snapshot(store), snapshot(restored));
+        Assert.assertEquals("2", restored.get("FIRST", now).getParameters().get("brojPoziva"));
+        Assert.assertNull(restored.get("SECOND", now));
+    }
+
+    @Test
+    public void testGrowth() throws IOException {
+        SessionStore store = new SessionStore(60000);
+        SessionLog sessionLog = new SessionLog(log, 1024, store);
+
+        for (int i = 0; i < 100; i++) {
+            store.getOrCreate("S" + i, now).getParameters().put("key", "some longer value " + i);
+        }
+        sessionLog.close();
+        Path alternate = dir.resolve("sessions.log" + SessionLog.ALTERNATE);
+        Assert.assertTrue(Math.max(Files.size(log), Files.size(alternate)) > 1024);
+
+        SessionStore restored = new SessionStore(60000);
+        new SessionLog(log, 1024, restored).close();
+        Assert.assertEquals(snapshot(store), snapshot(restored));
+    }
+
+    @Test
+    public void testIncompleteRecord() throws IOException {
+        SessionStore store = new SessionStore(60000);
+        SessionLog sessionLog = new SessionLog(log, 4096, store);
+        store.getOrCreate("A", now).getParameters().put("key", "value");
+        store.getOrCreate("B", now).getParameters().put("key", "value");
+        sessionLog.close();
+
+        // the parameter of B is being written, so its type is still missing
+        byte[] bytes = Files.readAllBytes(log);
+        byte[] record = ByteBuffer.allocate(1 + 5 + 7 + 9).put((byte) 1).putInt(1).put((byte) 'B').putInt(3)
+                .put("key".getBytes(StandardCharsets.UTF_8)).putInt(5).put("value".getBytes(StandardCharsets.UTF_8))
+                .array();
+        int start = 0;
+        while (!Arrays.equals(record, Arrays.copyOfRange(bytes, start, start + record.length))) {
+            start++;
+        }
+        bytes[start] = 0;
+        Files.write(log, bytes);
+
+        Map<String, SessionLog.LoggedSession> sessions = SessionLog.replay(log);
+        Assert.assertEquals(1, sessions.size());
+        Assert.assertEquals("value", sessions.get("A").parameters.get("key"));
+        Assert.assertEquals(now + 60000, sessions.get("A").validUntil);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidLog() throws IOException {
+        Files.write(log, new byte[] { 1, 2, 3, 4, 5 });
+
+        new SessionLog(log, 4096, new SessionStore(60000));
+    }
+
+    @Test
+    public void testConcurrentChanges() throws Exception {
+        SessionStore store = new SessionStore(60000);
+        SessionLog sessionLog = new SessionLog(log, 2048, store);
+        sessionLog.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int id = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    Map<String, String> parameters = store.getOrCreate("S" + (i % 7), now).getParameters();
+                    parameters.put("t" + id, String.valueOf(i));
+                    parameters.put("shared", id + ":" + i);
+                    if (i % 5 == 0) {
+                        parameters.remove("t" + id);
+                    }
+                    if (i % 500 == 0) {
+                        store.remove("S" + (i % 7));
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        sessionLog.close();
+
+        SessionStore restored = new SessionStore(60000);
+        new SessionLog(log, 2048, restored).close();
+        Assert.assertEquals(snapshot(store), snapshot(restored));
+    }
+
+    @Test
+    public void testExpiry() throws IOException {
+        SessionStore store = new SessionStore(60000);
+        SessionLog sessionLog = new SessionLog(log, 4096, store);
+        store.getOrCreate("OLD", now - 50000).getParameters().put("a", "1");
+        store.getOrCreate("RECENT", now - 50000).getParameters().put("b", "2");
+        store.get("RECENT", now - 1000);
+        store.getOrCreate("EXPIRED", now - 70000).getParameters().put("c", "3");
+        sessionLog.close();
+
+        // the validity of the sessions is restored instead of a fresh timeout
+        SessionStore restored = new SessionStore(60000);
+        new SessionLog(log, 4096, restored).close();
+        Assert.assertEquals(now + 10000, validUntil(restored, "OLD"));
+        Assert.assertEquals(now + 59000, validUntil(restored, "RECENT"));
+        Assert.assertEquals(-1, validUntil(restored, "EXPIRED"));
+        Assert.assertEquals(2, restored.size());
+
+        // a shorter timeout shortens the restored validity
+        SessionStore shorter = new SessionStore(5000);
+        new SessionLog(log, 4096, shorter).close();
+        Assert.assertTrue(validUntil(shorter, "OLD") <= System.currentTimeMillis() + 5000);
+    }
+
+    @Test
+    public void testAlternatingFiles() throws IOException {
+        Path alternate = dir.resolve("sessions.log" + SessionLog.ALTERNATE);
+        SessionStore store = new SessionStore(60000);
+        SessionLog sessionLog = new SessionLog(log, 1024, store);
+        store.getOrCreate("A", now).getParameters().put("key", "value");
+        sessionLog.close();
+        Assert.assertEquals(0, SessionLog.generation(log));
+        Assert.assertFalse(Files.exists(alternate));
+
+        // the next compaction is written to the other file and the old log stays in place
+        sessionLog.start();
+        sessionLog.close();
+        Assert.assertEquals(1, SessionLog.generation(log));
+        Assert.assertTrue(Files.exists(log));
+
+        // a compaction which didn't complete leaves its file without a valid header
+        byte[] bytes = Files.readAllBytes(alternate);
+        bytes[0] = 0;
+        Files.write(alternate, bytes);
+        Assert.assertEquals(0, SessionLog.generation(log));
+
+        SessionStore restored = new SessionStore(60000);
+        new SessionLog(log, 1024, restored).close();
+        Assert.assertEquals(snapshot(store), snapshot(restored));
+        Assert.assertEquals(1, SessionLog.generation(log));
+    }
+
+}
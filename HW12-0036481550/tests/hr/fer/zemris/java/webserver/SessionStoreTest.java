@@ -0,0 +1,246 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class SessionStoreTest {
+
+    @Test
+    public void testGetOrCreate() {
+        SessionStore store = new SessionStore(1000);
+
+        Assert.assertNull(store.get("ABC", 0));
+
+        SessionStore.Entry entry = store.getOrCreate("ABC", 0);
+        Assert.assertEquals("ABC", entry.getSID());
+        Assert.assertEquals(1000, entry.getValidUntil());
+
+        Assert.assertSame(entry, store.getOrCreate("ABC", 500));
+        Assert.assertEquals(1500, entry.getValidUntil());
+        Assert.assertSame(entry, store.get("ABC", 1500));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testExpired() {
+        SessionStore store = new SessionStore(1000);
+        store.getOrCreate("ABC", 0).getParameters().put("a", "1");
+
+        Assert.assertNull(store.get("ABC", 1001));
+        Assert.assertEquals(0, store.size());
+
+        store.getOrCreate("ABC", 0);
+        SessionStore.Entry entry = store.getOrCreate("ABC", 2000);
+        Assert.assertTrue(entry.getParameters().isEmpty());
+        Assert.assertSame(entry, store.remove("ABC"));
+    }
+
+    @Test
+    public void testExpire() {
+        SessionStore store = new SessionStore(1000, 100);
+        store.expire(0);
+
+        for (int i = 0; i < 100; i++) {
+            store.getOrCreate("S" + i, i * 10);
+        }
+        Assert.assertEquals(0, store.expire(1000));
+
+        // touched sessions stay, the others expire within a tick
+        store.getOrCreate("S0", 900);
+        store.getOrCreate("S99", 1500);
+        Assert.assertEquals(49, store.expire(1500));
+        Assert.assertEquals(51, store.size());
+        Assert.assertEquals(50, store.expire(2100));
+        Assert.assertEquals(1, store.size());
+        Assert.assertEquals(99, store.getExpiredInBackground());
+
+        Assert.assertNull(store.get("S99", 2600));
+        Assert.assertEquals(1, store.getExpiredOnAccess());
+        Assert.assertEquals(0, store.expire(3000));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testMaxSessions() {
+        SessionStore store = new SessionStore(60000, 100, 10, Long.MAX_VALUE);
+
+        for (int i = 0; i < 10; i++) {
+            store.getOrCreate("S" + i, i * 100);
+        }
+        Assert.assertEquals(0, store.expire(950));
+
+        // the oldest session is used again, so it isn't evicted
+        store.getOrCreate("S0", 1000);
+
+        for (int i = 10; i < 15; i++) {
+            store.getOrCreate("S" + i, i * 100);
+        }
+
+        Assert.assertEquals(10, store.size());
+        Assert.assertEquals(5, store.getEvicted());
+        Assert.assertNotNull(store.get("S0", 2000));
+        for (int i = 1; i < 6; i++) {
+            Assert.assertNull(store.get("S" + i, 2000));
+        }
+        for (int i = 6; i < 15; i++) {
+            Assert.assertNotNull(store.get("S" + i, 2000));
+        }
+    }
+
+    @Test
+    public void testConcurrentEviction() throws Exception {
+        SessionStore store = new SessionStore(60000, 100, 100, Long.MAX_VALUE);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 16; t++) {
+            int id = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    store.getOrCreate(id + "S" + i, 0);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // overshoot left by creators which didn't wait for the lock
+        store.expire(0);
+        Assert.assertEquals(100, store.size());
+        Assert.assertEquals(16 * 2000 - 100, store.getEvicted());
+    }
+
+    @Test
+    public void testParameterBytes() {
+        long entry = SessionParameters.estimate("key", "value");
+        SessionStore store = new SessionStore(60000, 100, 100, 10 * entry);
+
+        for (int i = 0; i < 5; i++) {
+            Map<String, String> parameters = store.getOrCreate("S" + i, i * 100).getParameters();
+            parameters.put("key", "value");
+            parameters.put("abc", "12345");
+        }
+        Assert.assertEquals(10 * entry, store.getParameterBytes());
+        Assert.assertEquals(5 * SessionStore.SESSION_OVERHEAD + 10 * entry, store.getEstimatedSize());
+
+        Map<String, String> parameters = store.get("S4", 500).getParameters();
+        parameters.put("key", "value");
+        parameters.remove("abc");
+        parameters.merge("abc", "54321", (a, b) -> b);
+        Assert.assertEquals(10 * entry, store.getParameterBytes());
+        Assert.assertEquals(0, store.getEvicted());
+
+        store.getOrCreate("S5", 600).getParameters().put("key", "value");
+        Assert.assertEquals(1, store.getEvicted());
+        Assert.assertNull(store.get("S0", 600));
+        Assert.assertEquals(9 * entry, store.getParameterBytes());
+
+        store.remove("S1").getParameters().put("more", "data");
+        Assert.assertEquals(7 * entry, store.getParameterBytes());
+        Assert.assertEquals(4, store.size());
+    }
+
+    @Test
+    public void testParameterBytesWithRemovals() throws Exception {
+        SessionStore store = new SessionStore(60000);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            int id = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    String sid = "S" + (i % 4);
+                    if (id == 0 && i % 3 == 0) {
+                        store.remove(sid);
+                    } else {
+                        store.getOrCreate(sid, 0).getParameters().put("t" + id, String.valueOf(i));
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long expected = 0;
+        for (int i = 0; i < 4; i++) {
+            SessionStore.Entry session = store.get("S" + i, 0);
+            if (session != null) {
+                for (Map.Entry<String, String> e : session.getParameters().entrySet()) {
+                    expected += SessionParameters.estimate(e.getKey(), e.getValue());
+                }
+            }
+        }
+        Assert.assertEquals(expected, store.getParameterBytes());
+    }
+
+    @Test
+    public void testWriteThrough() {
+        SessionStore store = new SessionStore(1000);
+        SessionStore.Entry entry = store.getOrCreate("ABC", 0);
+
+        RequestContext rc = new RequestContext(new ByteArrayOutputStream(), null, entry.getParameters(), null);
+        rc.setPersistentParameter("brojPoziva", "1");
+        Assert.assertEquals("1", store.get("ABC", 0).getParameters().get("brojPoziva"));
+
+        rc.removePersistentParameter("brojPoziva");
+        Assert.assertTrue(entry.getParameters().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        int threads = 64;
+        int updates = 1000;
+        SessionStore store = new SessionStore(60000);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<SessionStore.Entry>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String prefix = "t" + t + ".";
+                results.add(pool.submit(() -> {
+                    start.await();
+
+                    SessionStore.Entry first = null;
+                    for (int i = 0; i < updates; i++) {
+                        SessionStore.Entry entry = store.getOrCreate("SHARED", System.currentTimeMillis());
+                        if (first == null) {
+                            first = entry;
+                        }
+                        new RequestContext(new ByteArrayOutputStream(), null, entry.getParameters(), null)
+                                .setPersistentParameter(prefix + i, String.valueOf(i));
+                        entry.getParameters().merge("count", "1", (a, b) -> String.valueOf(Integer.parseInt(a) + 1));
+                    }
+                    return first;
+                }));
+            }
+            start.countDown();
+
+            SessionStore.Entry shared = results.get(0).get(30, TimeUnit.SECONDS);
+            for (Future<SessionStore.Entry> result : results) {
+                Assert.assertSame(shared, result.get(30, TimeUnit.SECONDS));
+            }
+
+            Assert.assertEquals(1, store.size());
+            Assert.assertEquals(threads * updates + 1, shared.getParameters().size());
+            Assert.assertEquals(String.valueOf(threads * updates), shared.getParameters().get("count"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
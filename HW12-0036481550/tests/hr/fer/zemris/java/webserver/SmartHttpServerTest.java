@@ -0,0 +1,408 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class SmartHttpServerTest {
+
+    private static CountDownLatch entered;
+
+    private static CountDownLatch released;
+
+    public static class BlockingWorker implements IWebWorker {
+
+        @Override
+        public void processRequest(RequestContext context) {
+            entered.countDown();
+            try {
+                released.await();
+                context.write("done");
+            } catch (InterruptedException | IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    public static class FailingWorker implements IWebWorker {
+
+        @Override
+        public void processRequest(RequestContext context) {
+            try {
+                context.write("partial");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            throw new IllegalStateException("Worker failed.");
+        }
+
+    }
+
+    private static final String[] ENGINES = { "blocking", "nio" };
+
+    private Path dir;
+
+    private SmartHttpServer server;
+
+    private int port;
+
+    @Before
+    public void init() throws IOException {
+        entered = new CountDownLatch(1);
+        released = new CountDownLatch(1);
+
+        dir = Files.createTempDirectory("server");
+        Files.createDirectories(dir.resolve("root"));
+        Files.write(dir.resolve("root/a.txt"), "Hello".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("root/broken.smscr"), "{$= \"unclosed\"".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("workers.properties"), ("/block = " + BlockingWorker.class.getName() + "\n"
+                + "/fail = " + FailingWorker.class.getName() + "\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @After
+    public void clean() throws IOException {
+        if (server != null) {
+            server.stop();
+        }
+        released.countDown();
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    private void start(String engine, int keepAliveTimeout) throws IOException, InterruptedException {
+        start(engine, keepAliveTimeout, 100);
+    }
+
+    private void start(String engine, int keepAliveTimeout, int maxRequests) throws IOException, InterruptedException {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get("config/server.properties"))) {
+            properties.load(is);
+        }
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        properties.setProperty("server.port", String.valueOf(port));
+        properties.setProperty("server.engine", engine);
+        properties.setProperty("server.keepAliveTimeout", String.valueOf(keepAliveTimeout));
+        properties.setProperty("server.maxRequestsPerConnection", String.valueOf(maxRequests));
+        properties.setProperty("server.documentRoot", dir.resolve("root").toString());
+        properties.setProperty("server.workers", dir.resolve("workers.properties").toString());
+
+        server = new SmartHttpServer(properties);
+        server.start();
+
+        long end = System.currentTimeMillis() + 5000;
+        while (true) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > end)
+                    throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static String get(String path, String... headers) {
+        return request("HTTP/1.1", path, headers);
+    }
+
+    private static String request(String version, String path, String... headers) {
+        StringBuilder sb = new StringBuilder("GET " + path + " " + version + "\r\nHost: localhost\r\n");
+        for (String header : headers) {
+            sb.append(header).append("\r\n");
+        }
+        return sb.append("\r\n").toString();
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        OutputStream os = socket.getOutputStream();
+        os.write(text.getBytes(StandardCharsets.US_ASCII));
+        os.flush();
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b; (b = is.read()) != '\n';) {
+            if (b == -1)
+                return line.size() == 0 ? null : line.toString("US-ASCII");
+            line.write(b);
+        }
+
+        String text = line.toString("US-ASCII");
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private static byte[] readBytes(InputStream is, int count) throws IOException {
+        byte[] bytes = new byte[count];
+        for (int read = 0; read < count;) {
+            int n = is.read(bytes, read, count - read);
+            if (n == -1)
+                throw new IOException("Unexpected end of the response.");
+            read += n;
+        }
+        return bytes;
+    }
+
+    private static Response read(Socket socket) throws IOException {
+        InputStream is = socket.getInputStream();
+        String statusLine = readLine(is);
+        if (statusLine == null)
+            return null;
+
+        Response response = new Response();
+        response.status = Integer.parseInt(statusLine.split(" ")[1]);
+        for (String line; !(line = readLine(is)).isEmpty();) {
+            int colon = line.indexOf(':');
+            response.headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (response.headers.containsKey("Content-Length")) {
+            body.write(readBytes(is, Integer.parseInt(response.headers.get("Content-Length"))));
+        } else if ("chunked".equals(response.headers.get("Transfer-Encoding"))) {
+            for (int size; (size = Integer.parseInt(readLine(is), 16)) > 0;) {
+                body.write(readBytes(is, size));
+                readLine(is);
+            }
+            readLine(is);
+        } else {
+            for (int b; (b = is.read()) != -1;) {
+                body.write(b);
+            }
+        }
+        response.body = body.toString("UTF-8");
+
+        return response;
+    }
+
+    private static void assertClosed(Socket socket) throws IOException {
+        Assert.assertEquals(-1, socket.getInputStream().read());
+    }
+
+    private static class Response {
+
+        int status;
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        String body;
+
+    }
+
+    @Test
+    public void testNioRequestsOnOneConnection() throws Exception {
+        start("nio", 5);
+
+        try (Socket socket = connect()) {
+            for (int i = 0; i < 3; i++) {
+                send(socket, get("/a.txt"));
+                Response response = read(socket);
+                Assert.assertEquals(200, response.status);
+                Assert.assertEquals("Hello", response.body);
+            }
+
+            // pipelined requests are read from the bytes left over by the previous one
+            send(socket, get("/a.txt") + get("/missing.txt") + get("/a.txt"));
+            Assert.assertEquals("Hello", read(socket).body);
+            Assert.assertEquals(404, read(socket).status);
+            Assert.assertEquals("Hello", read(socket).body);
+        }
+    }
+
+    @Test
+    public void testNioPartialHead() throws Exception {
+        start("nio", 5);
+
+        try (Socket socket = connect()) {
+            String request = get("/a.txt");
+            for (int i = 0; i < request.length(); i += 5) {
+                send(socket, request.substring(i, Math.min(i + 5, request.length())));
+                Thread.sleep(20);
+            }
+
+            Response response = read(socket);
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("Hello", response.body);
+        }
+    }
+
+    @Test
+    public void testNioIdleTimeout() throws Exception {
+        start("nio", 1);
+
+        try (Socket socket = connect(); Socket idle = connect()) {
+            send(socket, get("/a.txt"));
+            Assert.assertEquals("Hello", read(socket).body);
+            send(idle, "GET /a.txt HTTP/1.1\r\n");
+
+            long start = System.nanoTime();
+            assertClosed(socket);
+            assertClosed(idle);
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        }
+    }
+
+    @Test
+    public void testNioStopWithConnectionInFlight() throws Exception {
+        start("nio", 5);
+
+        try (Socket busy = connect(); Socket idle = connect()) {
+            send(busy, get("/block"));
+            Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+            send(idle, get("/a.txt"));
+            Assert.assertEquals("Hello", read(idle).body);
+
+            server.stop();
+            server = null;
+            assertClosed(idle);
+
+            // the worker finishes its response, but the connection isn't kept alive
+            released.countDown();
+            Response response = read(busy);
+            Assert.assertEquals(200, response.status);
+            Assert.assertEquals("done", response.body);
+            assertClosed(busy);
+        }
+    }
+
+    @Test
+    public void testConnectionHeader() throws Exception {
+        for (String engine : ENGINES) {
+            start(engine, 5);
+
+            try (Socket socket = connect()) {
+                send(socket, get("/a.txt"));
+                Assert.assertEquals("keep-alive", read(socket).headers.get("Connection"));
+                send(socket, get("/a.txt", "Connection: TE", "Connection: close, TE"));
+                Response response = read(socket);
+                Assert.assertEquals("Hello", response.body);
+                Assert.assertEquals("close", response.headers.get("Connection"));
+                assertClosed(socket);
+            }
+
+            try (Socket socket = connect()) {
+                for (int i = 0; i < 2; i++) {
+                    send(socket, request("HTTP/1.0", "/a.txt", "Connection: Keep-Alive, Upgrade"));
+                    Response response = read(socket);
+                    Assert.assertEquals("Hello", response.body);
+                    Assert.assertEquals("keep-alive", response.headers.get("Connection"));
+                }
+                send(socket, request("HTTP/1.0", "/a.txt"));
+                Assert.assertEquals("close", read(socket).headers.get("Connection"));
+                assertClosed(socket);
+            }
+
+            server.stop();
+            server = null;
+        }
+    }
+
+    @Test
+    public void testMaxRequestsPerConnection() throws Exception {
+        for (String engine : ENGINES) {
+            start(engine, 5, 3);
+
+            try (Socket socket = connect()) {
+                for (int i = 1; i <= 3; i++) {
+                    send(socket, get("/a.txt"));
+                    Response response = read(socket);
+                    Assert.assertEquals("Hello", response.body);
+                    Assert.assertEquals(i < 3 ? "keep-alive" : "close", response.headers.get("Connection"));
+                }
+                assertClosed(socket);
+            }
+
+            server.stop();
+            server = null;
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        for (String engine : ENGINES) {
+            start(engine, 5);
+
+            for (String path : new String[] { "/fail", "/broken.smscr" }) {
+                try (Socket socket = connect()) {
+                    send(socket, get("/a.txt"));
+                    Assert.assertEquals("Hello", read(socket).body);
+
+                    // nothing of the failed response was sent, so it is replaced by an error
+                    send(socket, get(path) + get("/a.txt"));
+                    Response response = read(socket);
+                    Assert.assertEquals(500, response.status);
+                    Assert.assertEquals("", response.body);
+                    Assert.assertEquals("close", response.headers.get("Connection"));
+                    assertClosed(socket);
+                }
+            }
+
+            try (Socket socket = connect()) {
+                send(socket, get("/a.txt"));
+                Assert.assertEquals("Hello", read(socket).body);
+            }
+
+            server.stop();
+            server = null;
+        }
+    }
+
+    @Test
+    public void testStalePrecompressedSibling() throws Exception {
+        Path page = dir.resolve("root/page.html");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("<p>Old</p>");
+        }
+        Files.write(page, sb.toString().getBytes(StandardCharsets.UTF_8));
+        PrecompressedFiles.generate(dir.resolve("root"), path -> path.equals(page), 9);
+        start("blocking", 5);
+
+        try (Socket socket = connect()) {
+            // the sibling is served and cached
+            for (int i = 0; i < 2; i++) {
+                send(socket, get("/page.html", "Accept-Encoding: gzip"));
+                Response response = read(socket);
+                Assert.assertEquals(200, response.status);
+                Assert.assertEquals("gzip", response.headers.get("Content-Encoding"));
+            }
+
+            Files.write(page, "New".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(page, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+            send(socket, get("/page.html", "Accept-Encoding: gzip"));
+            Response response = read(socket);
+            Assert.assertEquals(200, response.status);
+            Assert.assertNull(response.headers.get("Content-Encoding"));
+            Assert.assertEquals("New", response.body);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+
+@SuppressWarnings("javadoc")
+public class SmartScriptCacheTest {
+
+    private Path dir;
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("scripts");
+    }
+
+    @After
+    public void clean() throws IOException {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    private Path script(String name, String body) throws IOException {
+        return Files.write(dir.resolve(name), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor() {
+        new SmartScriptCache(0);
+    }
+
+    @Test
+    public void testHit() throws IOException {
+        SmartScriptCache cache = new SmartScriptCache(4);
+        Path path = script("a.smscr", "Text {$= 1 $}");
+
+        DocumentNode first = cache.get(path);
+        DocumentNode second = cache.get(path);
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidation() throws IOException {
+        SmartScriptCache cache = new SmartScriptCache(4);
+        Path path = script("a.smscr", "Text {$= 1 $}");
+
+        DocumentNode first = cache.get(path);
+        script("a.smscr", "Other text {$= 2 $}");
+        Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2000));
+
+        Assert.assertNotSame(first, cache.get(path));
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        SmartScriptCache cache = new SmartScriptCache(2);
+        Path a = script("a.smscr", "a");
+        Path b = script("b.smscr", "b");
+        Path c = script("c.smscr", "c");
+
+        DocumentNode documentA = cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertSame(documentA, cache.get(a));
+        cache.get(b);
+        Assert.assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testCompilation() throws IOException, InterruptedException {
+        SmartScriptCache cache = new SmartScriptCache(2, 2);
+        Path path = script("a.smscr", "{$ FOR i 1 3 1 $}{$= i $}{$END$}");
+
+        CompiledScript interpreted = cache.getScript(path);
+        Assert.assertSame(interpreted, cache.getScript(path));
+
+        for (int i = 0; i < 100 && cache.getCompiled() == 0; i++) {
+            Thread.sleep(50);
+        }
+
+        Assert.assertEquals(1, cache.getCompiled());
+        Assert.assertNotSame(interpreted, cache.getScript(path));
+    }
+
+    @Test
+    public void testMissingCompiler() throws IOException, InterruptedException {
+        CountDownLatch attempted = new CountDownLatch(1);
+        SmartScriptCache cache = new SmartScriptCache(2, 1, document -> {
+            attempted.countDown();
+            return ScriptCompiler.compile(document, null);
+        });
+        Path path = script("a.smscr", "{$ FOR i 1 3 1 $}{$= i $}{$END$}");
+
+        CompiledScript interpreted = cache.getScript(path);
+        Assert.assertTrue(attempted.await(5, TimeUnit.SECONDS));
+
+        // the script keeps running as closures
+        for (int i = 0; i < 3; i++) {
+            Assert.assertSame(interpreted, cache.getScript(path));
+        }
+        Assert.assertEquals(0, cache.getCompiled());
+    }
+}
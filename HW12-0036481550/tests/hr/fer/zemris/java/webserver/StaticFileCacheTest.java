@@ -0,0 +1,215 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+@SuppressWarnings("javadoc")
+public class StaticFileCacheTest {
+
+    private Path dir;
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("static");
+    }
+
+    @After
+    public void clean() throws IOException {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    private Path file(String name, String body) throws IOException {
+        return Files.write(dir.resolve(name), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String response(StaticFileCache.Entry entry, boolean keepAlive, boolean notModified,
+            List<RCCookie> cookies) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : entry.getResponse(keepAlive, notModified, cookies)) {
+            os.write(buffer.array(), buffer.position(), buffer.remaining());
+        }
+
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String expected(Path path, boolean keepAlive, String ifNoneMatch, List<RCCookie> cookies)
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext rc = new RequestContext(os, null, null, cookies, RequestContext.DEFAULT_BUFFER_SIZE);
+        rc.setRequestHeaders(Collections.singletonMap("If-None-Match", ifNoneMatch));
+        rc.setMimeType("text/plain");
+        rc.setKeepAlive(keepAlive);
+
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        rc.checkNotModified(StaticFileCache.getETag(lastModified, Files.size(path)), lastModified);
+        try (FileChannel channel = FileChannel.open(path)) {
+            rc.writeFile(channel);
+        }
+        rc.finish();
+
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor() {
+        new StaticFileCache(0, 10);
+    }
+
+    @Test
+    public void testHit() throws IOException {
+        StaticFileCache cache = new StaticFileCache(1000, 100);
+        Path path = file("a.txt", "Text");
+
+        StaticFileCache.Entry first = cache.get(path, "text/plain");
+        StaticFileCache.Entry second = cache.get(path, "text/plain");
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testResponse() throws IOException {
+        StaticFileCache cache = new StaticFileCache(1000, 100);
+        Path path = file("a.txt", "Some text");
+        StaticFileCache.Entry entry = cache.get(path, "text/plain");
+
+        List<RCCookie> cookies = new ArrayList<>();
+        cookies.add(new RCCookie("sid", "ABC", null, "127.0.0.1", "/", true));
+
+        Assert.assertEquals(expected(path, true, null, Collections.emptyList()),
+                response(entry, true, false, Collections.emptyList()));
+        Assert.assertEquals(expected(path, false, null, Collections.emptyList()),
+                response(entry, false, false, Collections.emptyList()));
+        Assert.assertEquals(expected(path, true, null, cookies), response(entry, true, false, cookies));
+    }
+
+    @Test
+    public void testNotModified() throws IOException {
+        StaticFileCache cache = new StaticFileCache(1000, 100);
+        Path path = file("a.txt", "Some text");
+        StaticFileCache.Entry entry = cache.get(path, "text/plain");
+
+        List<RCCookie> cookies = new ArrayList<>();
+        cookies.add(new RCCookie("sid", "ABC", null, "127.0.0.1", "/", true));
+
+        String expected = expected(path, true, entry.getETag(), cookies);
+        Assert.assertTrue(expected.startsWith("HTTP/1.1 304 Not Modified\r\nSet-Cookie: sid=ABC"));
+        Assert.assertEquals(expected, response(entry, true, true, cookies));
+        Assert.assertEquals(expected(path, false, entry.getETag(), Collections.emptyList()),
+                response(entry, false, true, Collections.emptyList()));
+    }
+
+    @Test
+    public void testContentEncoding() throws IOException {
+        StaticFileCache cache = new StaticFileCache(10000, 100);
+        Path path = file("a.txt.gz", "Compressed");
+
+        StaticFileCache.Entry variant = cache.get(path, "text/plain", "gzip");
+        String response = response(variant, true, false, Collections.emptyList());
+        Assert.assertTrue(response.startsWith("HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=UTF-8\r\n"));
+        Assert.assertTrue(response.contains("\r\nContent-Encoding: gzip\r\nVary: Accept-Encoding\r\n"));
+        Assert.assertSame(variant, cache.get(path, "text/plain", "gzip"));
+
+        StaticFileCache.Entry file = cache.get(path, "application/gzip");
+        Assert.assertNotSame(variant, file);
+        Assert.assertFalse(response(file, true, false, Collections.emptyList()).contains("Vary"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testNotCached() throws IOException {
+        StaticFileCache cache = new StaticFileCache(1000, 5);
+
+        Assert.assertNull(cache.get(file("large.txt", "Too large"), null));
+        Assert.assertNull(cache.get(dir.resolve("missing.txt"), null));
+        Assert.assertNull(cache.get(dir, null));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Path a = file("a.txt", "A");
+        Path b = file("b.txt", "B");
+        Path c = file("c.txt", "C");
+
+        StaticFileCache probe = new StaticFileCache(10000, 100);
+        probe.get(a, null);
+        long maxSize = probe.getSize() * 5 / 2;
+
+        StaticFileCache cache = new StaticFileCache(maxSize, 100);
+
+        cache.get(a, null);
+        cache.get(b, null);
+        cache.get(a, null);
+        cache.get(c, null);
+
+        Assert.assertTrue(cache.getSize() <= maxSize);
+        Assert.assertEquals(2, cache.size());
+
+        cache.get(a, null);
+        Assert.assertEquals(2, cache.getHits());
+        cache.get(b, null);
+        Assert.assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testClose() throws IOException, InterruptedException {
+        StaticFileCache cache = new StaticFileCache(1000, 100);
+        Path path = file("a.txt", "Old");
+
+        cache.get(path, null);
+        cache.close();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getSize());
+
+        // files cached after the cache was closed are watched again
+        Assert.assertEquals("Old", new String(cache.get(path, null).getBody(), StandardCharsets.UTF_8));
+        Assert.assertEquals(2, cache.getMisses());
+        file("a.txt", "New text");
+
+        long end = System.currentTimeMillis() + 20_000;
+        String body;
+        do {
+            Thread.sleep(10);
+            body = new String(cache.get(path, null).getBody(), StandardCharsets.UTF_8);
+        } while (!body.equals("New text") && System.currentTimeMillis() < end);
+
+        Assert.assertEquals("New text", body);
+        cache.close();
+    }
+
+    @Test
+    public void testInvalidation() throws IOException, InterruptedException {
+        StaticFileCache cache = new StaticFileCache(1000, 100);
+        Path path = file("a.txt", "Old");
+
+        Assert.assertEquals("Old", new String(cache.get(path, null).getBody(), StandardCharsets.UTF_8));
+        file("a.txt", "New text");
+
+        long end = System.currentTimeMillis() + 20_000;
+        String body;
+        do {
+            Thread.sleep(10);
+            body = new String(cache.get(path, null).getBody(), StandardCharsets.UTF_8);
+        } while (!body.equals("New text") && System.currentTimeMillis() < end);
+
+        Assert.assertEquals("New text", body);
+    }
+
+}
@@ -0,0 +1,119 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TimingWheelTest {
+
+    @Test
+    public void testDeadlines() {
+        Map<Integer, Long> deadlines = new HashMap<>();
+        TimingWheel<Integer> wheel = new TimingWheel<>(10, deadlines::get, 1000);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+            // spans all levels, including deadlines which have already passed
+            long deadline = 1000 + (long) Math.pow(random.nextDouble(), 4) * 10_000_000 - 100;
+            deadlines.put(i, deadline);
+            wheel.schedule(i);
+        }
+        Assert.assertEquals(10000, wheel.size());
+
+        List<Integer> removed = new ArrayList<>();
+        for (long now = 1000; !deadlines.isEmpty(); now += 1 + random.nextInt(5000)) {
+            long time = now;
+            wheel.advance(now, element -> {
+                Assert.assertFalse("removed at " + time, deadlines.get(element) >= time);
+                removed.add(element);
+                return true;
+            });
+
+            for (Integer element : removed) {
+                deadlines.remove(element);
+            }
+            removed.clear();
+
+            // no element is left more than one tick after its deadline
+            for (Long deadline : deadlines.values()) {
+                Assert.assertTrue(deadline >= now - 10);
+            }
+        }
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testExtendedDeadline() {
+        Map<String, Long> deadlines = new HashMap<>();
+        deadlines.put("a", 100L);
+        TimingWheel<String> wheel = new TimingWheel<>(10, deadlines::get, 0);
+        wheel.schedule("a");
+
+        deadlines.put("a", 1000L);
+        List<Long> offered = new ArrayList<>();
+        for (long now = 0; now <= 1010; now += 10) {
+            long time = now;
+            wheel.advance(now, element -> {
+                offered.add(time);
+                return deadlines.get(element) < time;
+            });
+        }
+
+        Assert.assertEquals(0, wheel.size());
+        Assert.assertEquals(2, offered.size());
+        Assert.assertEquals(110, offered.get(0).longValue());
+        Assert.assertEquals(1010, offered.get(1).longValue());
+    }
+
+    @Test
+    public void testPoll() {
+        Map<Integer, Long> deadlines = new HashMap<>();
+        TimingWheel<Integer> wheel = new TimingWheel<>(10, deadlines::get, 0);
+        Random random = new Random(7);
+
+        for (int i = 0; i < 1000; i++) {
+            deadlines.put(i, (long) random.nextInt(1_000_000));
+            wheel.schedule(i);
+        }
+        // extended deadlines are found when the elements are polled
+        for (int i = 0; i < 1000; i += 3) {
+            deadlines.put(i, deadlines.get(i) + random.nextInt(1_000_000));
+        }
+
+        long previous = 0;
+        for (int i = 0; i < 1000; i++) {
+            long deadline = deadlines.get(wheel.poll());
+            Assert.assertTrue(deadline + " after " + previous, deadline >= previous - (previous >= 40960 ? 40960 : 640));
+            previous = Math.max(previous, deadline);
+        }
+
+        Assert.assertNull(wheel.poll());
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testFarDeadline() {
+        long far = 1L << 25;
+        TimingWheel<Long> wheel = new TimingWheel<>(1, Long::longValue, 0);
+        wheel.schedule(Long.MAX_VALUE / 2);
+        wheel.schedule(far);
+
+        List<Long> removed = new ArrayList<>();
+        for (long now = 0; now <= far + 1; now += 1 << 16) {
+            long time = now;
+            wheel.advance(now, element -> element < time && removed.add(element));
+        }
+        wheel.advance(far + 1, element -> element < far + 1 && removed.add(element));
+
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(far, removed.get(0).longValue());
+        Assert.assertEquals(1, wheel.size());
+    }
+
+}